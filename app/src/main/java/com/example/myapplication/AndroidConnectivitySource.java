@@ -0,0 +1,64 @@
+package com.example.myapplication;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 通过 ConnectivityManager 的默认网络回调跟踪是否可以上网。
+ * <p>
+ * 只看 NET_CAPABILITY_INTERNET，不要求 VALIDATED：部分国内系统的联网检测地址无法访问，
+ * 网络可用时也可能一直没有通过验证。回调在系统的网络线程上执行。
+ */
+public class AndroidConnectivitySource implements ConnectivitySource {
+
+    private static final String TAG = "Connectivity";
+
+    private volatile boolean online;
+    private volatile Listener listener;
+
+    public AndroidConnectivitySource(Context context) {
+        ConnectivityManager manager = context.getSystemService(ConnectivityManager.class);
+        online = hasInternet(manager.getNetworkCapabilities(manager.getActiveNetwork()));
+        manager.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onCapabilitiesChanged(@NonNull Network network, @NonNull NetworkCapabilities capabilities) {
+                update(hasInternet(capabilities));
+            }
+
+            @Override
+            public void onLost(@NonNull Network network) {
+                update(false);
+            }
+        });
+    }
+
+    @Override
+    public boolean isOnline() {
+        return online;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    private void update(boolean now) {
+        if (online == now) {
+            return;
+        }
+        online = now;
+        AppLog.i(LogRing.Stage.DISPATCH, TAG, now ? "网络已恢复，开始发送积压的短信。" : "网络已断开，短信暂存在队列中。");
+        Listener l = listener;
+        if (l != null) {
+            l.onConnectivityChanged(now);
+        }
+    }
+
+    private static boolean hasInternet(NetworkCapabilities capabilities) {
+        return capabilities != null && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.myapplication;
+
+import android.util.Log;
+
+/**
+ * 进程级日志入口：同时写 Logcat、{@link LogRing} 和 {@link EventJournal}。
+ * 界面关闭期间的日志保留在环形缓冲区里，持久化日志在进程崩溃或重启后仍可导出。
+ * 持久化日志在后台打开，打开之前的日志只在环形缓冲区里，打开时补写进去。
+ */
+public final class AppLog {
+
+    public static final int CAPACITY = 512;
+
+    public interface Listener {
+        // 有新日志写入，在写入线程上调用，实现不能阻塞
+        void onAppended();
+    }
+
+    private static final LogRing RING = new LogRing(CAPACITY);
+    private static volatile Listener listener;
+    private static volatile EventJournal journal;
+    // 序号小于它的日志已在设置持久化日志时从环形缓冲区补写
+    private static volatile long replayedBefore;
+    // 持久化日志已打开或打开失败，此后写日志不再需要加锁
+    private static volatile boolean journalSettled;
+    private static final Object JOURNAL_LOCK = new Object();
+
+    private AppLog() {
+    }
+
+    public static LogRing ring() {
+        return RING;
+    }
+
+    public static void setListener(Listener l) {
+        listener = l;
+    }
+
+    /**
+     * 设置持久化日志，并把环形缓冲区中已有的日志补写进去，每条只写一次。
+     */
+    public static void setJournal(EventJournal j) {
+        synchronized (JOURNAL_LOCK) {
+            long end = RING.head();
+            RING.drain(0, (seq, time, level, stage, message) -> {
+                if (seq < end) {
+                    j.append(time, level, stage, message);
+                }
+            });
+            replayedBefore = end;
+            journal = j;
+            journalSettled = true;
+        }
+    }
+
+    /**
+     * 持久化日志打开失败，之后的日志只写 Logcat 和环形缓冲区。
+     */
+    public static void journalUnavailable() {
+        journalSettled = true;
+    }
+
+    public static void d(LogRing.Stage stage, String tag, String message) {
+        log(Log.DEBUG, stage, tag, message);
+    }
+
+    public static void i(LogRing.Stage stage, String tag, String message) {
+        log(Log.INFO, stage, tag, message);
+    }
+
+    public static void w(LogRing.Stage stage, String tag, String message) {
+        log(Log.WARN, stage, tag, message);
+    }
+
+    public static void e(LogRing.Stage stage, String tag, String message, Throwable error) {
+        Log.e(tag, message, error);
+        append(Log.ERROR, stage, message);
+    }
+
+    private static void log(int level, LogRing.Stage stage, String tag, String message) {
+        Log.println(level, tag, message);
+        append(level, stage, message);
+    }
+
+    private static void append(int level, LogRing.Stage stage, String message) {
+        long now = System.currentTimeMillis();
+        long seq = RING.add(now, level, stage, message);
+        // 先读标志再读日志对象：标志已置位时，打开成功的日志对象一定可见
+        boolean settled = journalSettled;
+        EventJournal j = journal;
+        if (j == null && !settled) {
+            // 持久化日志正在打开：等它补写完再判断这一条是否已经写过
+            synchronized (JOURNAL_LOCK) {
+                j = journal;
+            }
+        }
+        if (j != null && seq >= replayedBefore) {
+            j.append(now, level, stage, message);
+        }
+        Listener l = listener;
+        if (l != null) {
+            l.onAppended();
+        }
+    }
+}
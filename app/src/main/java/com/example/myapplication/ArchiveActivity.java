@@ -0,0 +1,105 @@
+package com.example.myapplication;
+
+import android.app.AlertDialog;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.widget.EditText;
+import android.widget.ListView;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 转发记录：可按号码或内容搜索，点击一条查看完整正文和每次发送尝试。
+ */
+public class ArchiveActivity extends AppCompatActivity {
+
+    // 输入停顿这么久后再搜索
+    private static final long SEARCH_DELAY_MILLIS = 300;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "archive-query"));
+    private MessageArchive archive;
+    private ArchiveListAdapter adapter;
+    private EditText etSearch;
+    private final Runnable searchRunnable = () -> adapter.setQuery(etSearch.getText().toString());
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_archive);
+
+        archive = MessageArchive.getInstance(this);
+        etSearch = findViewById(R.id.et_search);
+        ListView lvArchive = findViewById(R.id.lv_archive);
+        adapter = new ArchiveListAdapter(getLayoutInflater(), archive, executor);
+        lvArchive.setAdapter(adapter);
+        lvArchive.setOnItemClickListener((parent, view, position, id) -> showDetail(adapter.getItem(position)));
+
+        etSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                mainHandler.removeCallbacks(searchRunnable);
+                mainHandler.postDelayed(searchRunnable, SEARCH_DELAY_MILLIS);
+            }
+        });
+        adapter.setQuery(null);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mainHandler.removeCallbacks(searchRunnable);
+        executor.shutdownNow();
+    }
+
+    // 在后台线程读取正文和发送尝试，再弹出对话框
+    private void showDetail(MessageArchive.Row row) {
+        executor.execute(() -> {
+            String body = archive.body(row.id);
+            List<MessageArchive.Attempt> attempts = archive.attempts(row.id);
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+            StringBuilder text = new StringBuilder(body != null ? body : row.preview).append("\n\n");
+            text.append("接收时间: ").append(format.format(new Date(row.receivedAt))).append('\n');
+            text.append("状态: ").append(ArchiveListAdapter.statusText(row.status));
+            if (row.route != null) {
+                text.append("，路由 ").append(row.route);
+            }
+            for (MessageArchive.Attempt attempt : attempts) {
+                text.append('\n').append(format.format(new Date(attempt.at))).append(" [")
+                        .append(attempt.channel).append("] ");
+                if (attempt.error == null) {
+                    text.append("成功，耗时 ").append(attempt.latencyMillis).append(" ms");
+                } else {
+                    text.append("失败: ").append(attempt.error);
+                }
+            }
+            mainHandler.post(() -> {
+                if (!isFinishing()) {
+                    new AlertDialog.Builder(this)
+                            .setTitle(row.sender)
+                            .setMessage(text)
+                            .setPositiveButton(android.R.string.ok, null)
+                            .show();
+                }
+            });
+        });
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.myapplication;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 转发记录列表。按 id 倒序分页从 {@link MessageArchive} 读取，滚动到接近末尾时在后台线程加载下一页，
+ * 不会一次把整个存档读进内存。切换搜索词后旧的加载结果直接丢弃。
+ */
+public class ArchiveListAdapter extends BaseAdapter {
+
+    static final int PAGE_SIZE = 100;
+    // 距离末尾还剩这么多行时开始加载下一页
+    private static final int PREFETCH_DISTANCE = 30;
+
+    private final LayoutInflater inflater;
+    private final MessageArchive archive;
+    private final ExecutorService executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("MM-dd HH:mm:ss", Locale.getDefault());
+    private final Date date = new Date();
+    private final List<MessageArchive.Row> rows = new ArrayList<>();
+    private String query;
+    // 每次切换搜索词加一，用于识别过时的加载结果
+    private int generation;
+    private boolean loading;
+    private boolean exhausted;
+
+    // 必须在主线程创建和调用
+    public ArchiveListAdapter(LayoutInflater inflater, MessageArchive archive, ExecutorService executor) {
+        this.inflater = inflater;
+        this.archive = archive;
+        this.executor = executor;
+    }
+
+    public void setQuery(String query) {
+        this.query = query == null || query.trim().isEmpty() ? null : query.trim();
+        generation++;
+        rows.clear();
+        loading = false;
+        exhausted = false;
+        notifyDataSetChanged();
+        loadMore();
+    }
+
+    private void loadMore() {
+        if (loading || exhausted) {
+            return;
+        }
+        loading = true;
+        int requested = generation;
+        String q = query;
+        long before = rows.isEmpty() ? Long.MAX_VALUE : rows.get(rows.size() - 1).id;
+        executor.execute(() -> {
+            List<MessageArchive.Row> page = archive.page(q, before, PAGE_SIZE);
+            mainHandler.post(() -> {
+                if (requested != generation) {
+                    return;
+                }
+                loading = false;
+                exhausted = page.size() < PAGE_SIZE;
+                if (!page.isEmpty()) {
+                    rows.addAll(page);
+                    notifyDataSetChanged();
+                }
+            });
+        });
+    }
+
+    @Override
+    public int getCount() {
+        return rows.size();
+    }
+
+    @Override
+    public MessageArchive.Row getItem(int position) {
+        return rows.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return rows.get(position).id;
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        if (position >= rows.size() - PREFETCH_DISTANCE) {
+            loadMore();
+        }
+        View view = convertView != null ? convertView
+                : inflater.inflate(android.R.layout.simple_list_item_2, parent, false);
+        MessageArchive.Row row = rows.get(position);
+        date.setTime(row.receivedAt);
+        StringBuilder title = new StringBuilder(timeFormat.format(date)).append("  ").append(row.sender)
+                .append("  ").append(statusText(row.status));
+        if (row.attempts > 0) {
+            title.append("（重试 ").append(row.attempts).append(" 次）");
+        }
+        ((TextView) view.findViewById(android.R.id.text1)).setText(title);
+        ((TextView) view.findViewById(android.R.id.text2)).setText(row.preview);
+        return view;
+    }
+
+    static String statusText(int status) {
+        switch (status) {
+            case MessageArchive.STATUS_DELIVERED:
+                return "已转发";
+            case MessageArchive.STATUS_RETRYING:
+                return "等待重试";
+            case MessageArchive.STATUS_FAILED:
+                return "已放弃";
+            case MessageArchive.STATUS_DROPPED:
+                return "规则丢弃";
+            default:
+                return "排队中";
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.myapplication;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import javax.activation.DataSource;
+
+/**
+ * 积压模式下一封邮件的附件：gzip 压缩的 JSON Lines，每行一条短信，格式与 Webhook 相同。
+ * <p>
+ * 附件内容不预先生成，JavaMail 写出邮件时边读边压缩，每次只在内存中保留一小块压缩后的数据，
+ * 几千条短信也不会拼成一个大字符串或字节数组。可以多次读取，每次都从头重新生成。
+ */
+public class BacklogAttachment implements DataSource {
+
+    public static final String CONTENT_TYPE = "application/gzip";
+    // 每次压缩出这么多字节后交给读取方
+    private static final int CHUNK_BYTES = 16 * 1024;
+
+    private final List<OutboundQueue.Entry> batch;
+    private final String name;
+
+    public BacklogAttachment(List<OutboundQueue.Entry> batch) {
+        this.batch = batch;
+        this.name = "sms-backlog-" + MessageFormatter.idempotencyKey(batch) + ".jsonl.gz";
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new Stream(batch.iterator());
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("附件只读");
+    }
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    private static final class Stream extends InputStream {
+        private final Iterator<OutboundQueue.Entry> entries;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(CHUNK_BYTES * 2);
+        private final Writer writer;
+        private byte[] chunk = new byte[0];
+        private int pos;
+        private boolean finished;
+
+        Stream(Iterator<OutboundQueue.Entry> entries) throws IOException {
+            this.entries = entries;
+            this.writer = new OutputStreamWriter(new GZIPOutputStream(buffer, CHUNK_BYTES), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (pos == chunk.length) {
+                if (!fill()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, chunk.length - pos);
+            System.arraycopy(chunk, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        // 继续压缩后面的短信，直到攒够一块或全部写完；没有更多数据时返回 false
+        private boolean fill() throws IOException {
+            if (finished) {
+                return false;
+            }
+            while (buffer.size() < CHUNK_BYTES && entries.hasNext()) {
+                writer.write(MessageFormatter.toJson(entries.next()));
+                writer.write('\n');
+            }
+            if (!entries.hasNext()) {
+                // 写出 gzip 结尾
+                writer.close();
+                finished = true;
+            }
+            chunk = buffer.toByteArray();
+            buffer.reset();
+            pos = 0;
+            return true;
+        }
+    }
+}
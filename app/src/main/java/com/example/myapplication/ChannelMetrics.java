@@ -0,0 +1,72 @@
+package com.example.myapplication;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个转发通道的成功/失败次数和发送耗时统计。
+ */
+public class ChannelMetrics {
+
+    private final String channel;
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public ChannelMetrics(String channel) {
+        this.channel = channel;
+    }
+
+    void recordAttempt() {
+        attempts.incrementAndGet();
+    }
+
+    void recordSuccess(long latencyNanos) {
+        successes.incrementAndGet();
+        latency.recordNanos(latencyNanos);
+    }
+
+    void recordFailure() {
+        failures.incrementAndGet();
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public long getAttempts() {
+        return attempts.get();
+    }
+
+    public long getSuccesses() {
+        return successes.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getAverageLatencyMillis() {
+        return TimeUnit.MICROSECONDS.toMillis(latency.getMeanMicros());
+    }
+
+    public long getMaxLatencyMillis() {
+        return TimeUnit.MICROSECONDS.toMillis(latency.getMaxMicros());
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s: 成功 %d，失败 %d，尝试 %d，p50 %s，p95 %s，p99 %s，最长 %s",
+                channel, getSuccesses(), getFailures(), getAttempts(),
+                LatencyStats.formatMicros(latency.percentileMicros(0.50)),
+                LatencyStats.formatMicros(latency.percentileMicros(0.95)),
+                LatencyStats.formatMicros(latency.percentileMicros(0.99)),
+                LatencyStats.formatMicros(latency.getMaxMicros()));
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.myapplication;
+
+/**
+ * 熔断器。连续失败达到阈值后断开，冷却期内不再放行；冷却结束后放行一次试探，
+ * 试探成功则恢复，失败则再次断开并把冷却期加倍（不超过上限）。
+ * 时间参数为毫秒，使用单调时钟。
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    public static final long DEFAULT_OPEN_MILLIS = 60_000;
+    public static final long DEFAULT_MAX_OPEN_MILLIS = 30 * 60_000;
+
+    private final int failureThreshold;
+    private final long baseOpenMillis;
+    private final long maxOpenMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openMillis;
+    private long openedAt;
+    private boolean probeInFlight;
+    private long trips;
+
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS, DEFAULT_MAX_OPEN_MILLIS);
+    }
+
+    public CircuitBreaker(int failureThreshold, long openMillis, long maxOpenMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.baseOpenMillis = openMillis;
+        this.maxOpenMillis = Math.max(openMillis, maxOpenMillis);
+        this.openMillis = openMillis;
+    }
+
+    // 不改变状态，只判断此刻能否放行
+    public synchronized boolean isAvailable(long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return now - openedAt >= openMillis;
+            default:
+                return !probeInFlight;
+        }
+    }
+
+    /**
+     * 申请放行一次请求。冷却结束后的第一次申请转为半开并作为试探，试探结束前其他申请都被拒绝。
+     */
+    public synchronized boolean tryAcquire(long now) {
+        if (!isAvailable(now)) {
+            return false;
+        }
+        if (state != State.CLOSED) {
+            state = State.HALF_OPEN;
+            probeInFlight = true;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        openMillis = baseOpenMillis;
+        probeInFlight = false;
+    }
+
+    public synchronized void onFailure(long now) {
+        if (state == State.HALF_OPEN) {
+            // 试探失败，冷却期加倍
+            openMillis = Math.min(maxOpenMillis, openMillis * 2);
+            open(now);
+            return;
+        }
+        if (++consecutiveFailures >= failureThreshold && state == State.CLOSED) {
+            open(now);
+        }
+    }
+
+    // 请求因与账号无关的原因（如断网）失败：不计入失败，但释放试探名额
+    public synchronized void onIgnored() {
+        probeInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    // 累计断开次数
+    public synchronized long getTrips() {
+        return trips;
+    }
+
+    private void open(long now) {
+        state = State.OPEN;
+        openedAt = now;
+        probeInFlight = false;
+        consecutiveFailures = 0;
+        trips++;
+    }
+}
@@ -0,0 +1,403 @@
+package com.example.myapplication;
+
+import android.content.Context;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 跨广播的长短信拼接。
+ * <p>
+ * 部分 ROM 会把一条长短信的各段分成几个 SMS_RECEIVED 广播下发。这里按 号码 + 拼接编号 + 总段数
+ * 缓存各段，收齐后合成一条；超时仍未收齐时按已收到的部分发出，缺的段用占位符标出。
+ * 缓存的组数和字符数都有上限，超出时提前发出最早的一组。缓存内容在每次变化后整体写入文件，
+ * 进程被杀后重新加载，不会丢失已收到的段。
+ */
+public class ConcatReassembler {
+
+    public static final String FILE_NAME = "sms_fragments.bin";
+    public static final long DEFAULT_TIMEOUT_MILLIS = 60_000;
+    public static final int DEFAULT_MAX_GROUPS = 32;
+    public static final int DEFAULT_MAX_CHARS = 32 * 1024;
+
+    private static final int FILE_VERSION = 1;
+    private static final String MISSING_PART = "[…]";
+
+    /**
+     * 从 PDU 的用户数据头中解析出的拼接信息。
+     */
+    public static final class Header {
+        public final int reference;
+        public final int count;
+        public final int seq;
+
+        Header(int reference, int count, int seq) {
+            this.reference = reference;
+            this.count = count;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * 拼好或因超时提前发出的一条短信。
+     */
+    public static final class Message {
+        public final String sender;
+        public final String body;
+        // 收到的段数和总段数，二者相等表示完整
+        public final int received;
+        public final int expected;
+        public final long firstReceivedAt;
+        public final long firstReceivedNanos;
+
+        Message(String sender, String body, int received, int expected, long firstReceivedAt,
+                long firstReceivedNanos) {
+            this.sender = sender;
+            this.body = body;
+            this.received = received;
+            this.expected = expected;
+            this.firstReceivedAt = firstReceivedAt;
+            this.firstReceivedNanos = firstReceivedNanos;
+        }
+
+        public boolean isComplete() {
+            return received == expected;
+        }
+    }
+
+    private static final class Group {
+        final String sender;
+        final int reference;
+        final String[] parts;
+        final long firstReceivedAt;
+        final long firstReceivedNanos;
+        int received;
+        int chars;
+
+        Group(String sender, int reference, int count, long firstReceivedAt, long firstReceivedNanos) {
+            this.sender = sender;
+            this.reference = reference;
+            this.parts = new String[count];
+            this.firstReceivedAt = firstReceivedAt;
+            this.firstReceivedNanos = firstReceivedNanos;
+        }
+
+        Message toMessage() {
+            StringBuilder body = new StringBuilder(chars + 32);
+            List<Integer> missing = new ArrayList<>();
+            for (int i = 0; i < parts.length; i++) {
+                if (parts[i] != null) {
+                    body.append(parts[i]);
+                } else {
+                    body.append(MISSING_PART);
+                    missing.add(i + 1);
+                }
+            }
+            if (!missing.isEmpty()) {
+                body.append("\n[长短信不完整：共 ").append(parts.length).append(" 段，未收到第 ");
+                for (int i = 0; i < missing.size(); i++) {
+                    body.append(i > 0 ? "、" : "").append(missing.get(i));
+                }
+                body.append(" 段]");
+            }
+            return new Message(sender, body.toString(), received, parts.length, firstReceivedAt,
+                    firstReceivedNanos);
+        }
+    }
+
+    private static ConcatReassembler instance;
+
+    private final File file;
+    private final long timeoutMillis;
+    private final int maxGroups;
+    private final int maxChars;
+    // 按第一段到达的先后排列
+    private final LinkedHashMap<String, Group> groups = new LinkedHashMap<>();
+    private int bufferedChars;
+
+    public static synchronized ConcatReassembler getInstance(Context context) throws IOException {
+        if (instance == null) {
+            File file = new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+            instance = new ConcatReassembler(file, DEFAULT_TIMEOUT_MILLIS, DEFAULT_MAX_GROUPS, DEFAULT_MAX_CHARS);
+        }
+        return instance;
+    }
+
+    // file 为 null 时只在内存中缓存
+    public ConcatReassembler(File file, long timeoutMillis, int maxGroups, int maxChars) throws IOException {
+        this.file = file;
+        this.timeoutMillis = timeoutMillis;
+        this.maxGroups = maxGroups;
+        this.maxChars = maxChars;
+        if (file != null && file.exists()) {
+            load();
+        }
+    }
+
+    /**
+     * 加入一段，header 为 null 时原样返回。返回因此收齐的短信，以及为腾出空间提前发出的不完整短信；都没有时返回空列表。
+     */
+    public synchronized List<Message> offer(String sender, Header header, String body, long now, long nowNanos)
+            throws IOException {
+        List<Message> out = new ArrayList<>(1);
+        if (header == null || header.count <= 1 || header.seq < 1 || header.seq > header.count) {
+            // 没有拼接头或头部无效，当作普通短信
+            out.add(new Message(sender, body, 1, 1, now, nowNanos));
+            return out;
+        }
+        String key = sender + '\u0000' + header.reference + '\u0000' + header.count;
+        Group group = groups.get(key);
+        if (group == null) {
+            group = new Group(sender, header.reference, header.count, now, nowNanos);
+            groups.put(key, group);
+        }
+        if (group.parts[header.seq - 1] == null) {
+            group.parts[header.seq - 1] = body;
+            group.received++;
+            group.chars += body.length();
+            bufferedChars += body.length();
+        }
+        if (group.received == header.count) {
+            remove(key);
+            out.add(group.toMessage());
+        }
+        // 超出上限时从最早的一组开始提前发出
+        Iterator<Map.Entry<String, Group>> it = groups.entrySet().iterator();
+        while ((groups.size() > maxGroups || bufferedChars > maxChars) && it.hasNext()) {
+            Group oldest = it.next().getValue();
+            it.remove();
+            bufferedChars -= oldest.chars;
+            out.add(oldest.toMessage());
+        }
+        save();
+        return out;
+    }
+
+    /**
+     * 发出第一段到达后已超过超时时间的组。
+     */
+    public synchronized List<Message> flushExpired(long now) throws IOException {
+        List<Message> out = new ArrayList<>();
+        Iterator<Map.Entry<String, Group>> it = groups.entrySet().iterator();
+        while (it.hasNext()) {
+            Group group = it.next().getValue();
+            // 时钟回拨时也按超时处理，避免一组永远留在缓存里
+            if (now - group.firstReceivedAt >= timeoutMillis || now < group.firstReceivedAt) {
+                it.remove();
+                bufferedChars -= group.chars;
+                out.add(group.toMessage());
+            }
+        }
+        if (!out.isEmpty()) {
+            save();
+        }
+        return out;
+    }
+
+    // 最早一组的超时时间，没有缓存时返回 -1
+    public synchronized long nextDeadline() {
+        long deadline = -1;
+        for (Group group : groups.values()) {
+            long at = group.firstReceivedAt + timeoutMillis;
+            if (deadline < 0 || at < deadline) {
+                deadline = at;
+            }
+        }
+        return deadline;
+    }
+
+    public synchronized int getPendingGroups() {
+        return groups.size();
+    }
+
+    public synchronized int getBufferedChars() {
+        return bufferedChars;
+    }
+
+    private void remove(String key) {
+        Group group = groups.remove(key);
+        if (group != null) {
+            bufferedChars -= group.chars;
+        }
+    }
+
+    private void save() throws IOException {
+        if (file == null) {
+            return;
+        }
+        if (groups.isEmpty()) {
+            if (file.exists() && !file.delete()) {
+                throw new IOException("无法删除长短信缓存文件: " + file);
+            }
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(fos)) {
+            out.writeInt(FILE_VERSION);
+            out.writeInt(groups.size());
+            for (Group group : groups.values()) {
+                out.writeUTF(group.sender);
+                out.writeInt(group.reference);
+                out.writeInt(group.parts.length);
+                out.writeLong(group.firstReceivedAt);
+                out.writeInt(group.received);
+                for (int i = 0; i < group.parts.length; i++) {
+                    if (group.parts[i] != null) {
+                        out.writeInt(i);
+                        out.writeUTF(group.parts[i]);
+                    }
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("无法替换长短信缓存文件: " + file);
+        }
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(readAll(file)))) {
+            if (in.readInt() != FILE_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            long now = System.currentTimeMillis();
+            long nowNanos = System.nanoTime();
+            for (int g = 0; g < count; g++) {
+                String sender = in.readUTF();
+                int reference = in.readInt();
+                int parts = in.readInt();
+                long firstReceivedAt = in.readLong();
+                // 单调时钟不能跨进程保存，按墙上时间推算
+                long firstReceivedNanos = nowNanos - Math.max(0, now - firstReceivedAt) * 1_000_000L;
+                Group group = new Group(sender, reference, parts, firstReceivedAt, firstReceivedNanos);
+                int received = in.readInt();
+                for (int i = 0; i < received; i++) {
+                    int index = in.readInt();
+                    String body = in.readUTF();
+                    group.parts[index] = body;
+                    group.received++;
+                    group.chars += body.length();
+                }
+                bufferedChars += group.chars;
+                groups.put(sender + '\u0000' + reference + '\u0000' + parts, group);
+            }
+        } catch (EOFException e) {
+            // 文件是原子替换的，不完整只可能来自外部损坏，丢弃剩余部分
+        }
+    }
+
+    private static byte[] readAll(File file) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * 解析 PDU 中的拼接信息，支持 8 位和 16 位编号。不是多段短信或格式无法识别时返回 null。
+     */
+    public static Header parseHeader(byte[] pdu, String format) {
+        try {
+            return "3gpp2".equals(format) ? parseCdmaHeader(pdu) : parseGsmHeader(pdu);
+        } catch (IndexOutOfBoundsException | IOException e) {
+            return null;
+        }
+    }
+
+    // TS 23.040 SMS-DELIVER，开头带短信中心地址
+    private static Header parseGsmHeader(byte[] pdu) {
+        int p = 0;
+        p += 1 + (pdu[p] & 0xff);
+        int first = pdu[p++] & 0xff;
+        if ((first & 0x03) != 0 || (first & 0x40) == 0) {
+            // 不是 SMS-DELIVER，或没有用户数据头
+            return null;
+        }
+        int addressDigits = pdu[p++] & 0xff;
+        // 号码类型 + 半字节编码的号码，之后是 PID、DCS、7 字节时间戳和 UDL
+        p += 1 + (addressDigits + 1) / 2 + 1 + 1 + 7 + 1;
+        return parseUserDataHeader(pdu, p);
+    }
+
+    private static Header parseUserDataHeader(byte[] data, int offset) {
+        int end = offset + 1 + (data[offset] & 0xff);
+        int p = offset + 1;
+        while (p + 2 <= end) {
+            int iei = data[p] & 0xff;
+            int length = data[p + 1] & 0xff;
+            p += 2;
+            if (iei == 0x00 && length == 3) {
+                return header(data[p] & 0xff, data[p + 1] & 0xff, data[p + 2] & 0xff);
+            }
+            if (iei == 0x08 && length == 4) {
+                return header(((data[p] & 0xff) << 8) | (data[p + 1] & 0xff), data[p + 2] & 0xff,
+                        data[p + 3] & 0xff);
+            }
+            p += length;
+        }
+        return null;
+    }
+
+    private static Header header(int reference, int count, int seq) {
+        return count > 1 && seq >= 1 && seq <= count ? new Header(reference, count, seq) : null;
+    }
+
+    // Android 的 3GPP2 SmsEnvelope 序列化格式，承载数据按 C.S0015 的子参数解析
+    private static Header parseCdmaHeader(byte[] pdu) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(pdu));
+        // 消息类型、业务类型、业务类别
+        in.skipBytes(12);
+        // 号码的 digit mode、number mode、TON、numbering plan
+        in.skipBytes(4);
+        in.skipBytes(in.readUnsignedByte());
+        // bearer reply、reply seq、error class、cause code
+        in.skipBytes(7);
+        byte[] bearer = new byte[in.readInt()];
+        in.readFully(bearer);
+
+        boolean hasHeader = false;
+        int userData = -1;
+        int p = 0;
+        while (p + 2 <= bearer.length) {
+            int id = bearer[p] & 0xff;
+            int length = bearer[p + 1] & 0xff;
+            if (id == 0x00 && length >= 3) {
+                // 4 位消息类型 + 16 位消息编号后是 1 位 header indicator
+                hasHeader = (bearer[p + 4] & 0x08) != 0;
+            } else if (id == 0x01) {
+                userData = p + 2;
+            }
+            p += 2 + length;
+        }
+        if (!hasHeader || userData < 0) {
+            return null;
+        }
+        int encoding = (bearer[userData] & 0xff) >> 3;
+        // 5 位编码、IS-91 扩展协议时另有 8 位消息类型、8 位字段数，之后是负载
+        int bit = userData * 8 + 5 + (encoding == 1 ? 8 : 0) + 8;
+        byte[] payload = new byte[bearer.length - (bit + 7) / 8];
+        for (int i = 0; i < payload.length; i++) {
+            int index = bit / 8 + i;
+            int shift = bit % 8;
+            int value = (bearer[index] & 0xff) << shift;
+            if (shift > 0 && index + 1 < bearer.length) {
+                value |= (bearer[index + 1] & 0xff) >> (8 - shift);
+            }
+            payload[i] = (byte) value;
+        }
+        return parseUserDataHeader(payload, 0);
+    }
+}
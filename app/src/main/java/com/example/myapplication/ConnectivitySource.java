@@ -0,0 +1,17 @@
+package com.example.myapplication;
+
+/**
+ * 网络连通状态的来源。Android 上由 {@link AndroidConnectivitySource} 跟踪系统的默认网络，
+ * 测试中可以换成手动切换的假实现。
+ */
+public interface ConnectivitySource {
+
+    interface Listener {
+        void onConnectivityChanged(boolean online);
+    }
+
+    boolean isOnline();
+
+    // 状态变化时回调，可能在任意线程上调用；传入 null 取消监听
+    void setListener(Listener listener);
+}
@@ -0,0 +1,359 @@
+package com.example.myapplication;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 短信去重缓存。记录最近一段时间内收到的短信（规范化后的号码 + 正文）的 64 位哈希，
+ * 运营商重复投递、或同一条通知从两个短号码各发一次时只转发第一条。
+ * <p>
+ * 哈希和时间存放在两个开放寻址的 long 数组里，容量固定，内存不随短信数量增长：
+ * 过期的槽位在插入时复用，已用槽位超过上限时重建，仍未过期的条目过多时丢弃最旧的四分之一。
+ * 表长至少是上限的两倍，负载不超过一半。
+ * 每条新记录追加 16 字节到文件，重启后回放未过期的部分；文件过长时重写为当前内容。
+ * 追加不做 fsync，进程被杀不丢，断电可能丢最后几条。
+ */
+public class DedupCache {
+
+    public static final String FILE_NAME = "sms_dedup.bin";
+    public static final long DEFAULT_WINDOW_MILLIS = 10 * 60_000L;
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+
+    private static final int RECORD_BYTES = 16;
+
+    private static DedupCache instance;
+
+    private final File file;
+    private final long windowMillis;
+    private final int maxEntries;
+    private final long[] hashes;
+    private final long[] times;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+    private FileChannel channel;
+    // 非空槽位数，包括已过期的
+    private int used;
+    private int fileRecords;
+    private long suppressed;
+
+    public static synchronized DedupCache getInstance(Context context) throws IOException {
+        if (instance == null) {
+            File file = new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+            instance = new DedupCache(file, DEFAULT_WINDOW_MILLIS, DEFAULT_MAX_ENTRIES);
+        }
+        return instance;
+    }
+
+    // 已打开的实例，用于界面显示统计；还没有收到过短信时为 null
+    static synchronized DedupCache current() {
+        return instance;
+    }
+
+    // file 为 null 时只在内存中去重
+    public DedupCache(File file, long windowMillis, int maxEntries) throws IOException {
+        this(windowMillis, maxEntries, file);
+        if (file != null) {
+            replay(System.currentTimeMillis());
+            rewrite();
+        }
+    }
+
+    // 只在内存中去重，不会失败
+    public DedupCache(long windowMillis, int maxEntries) {
+        this(windowMillis, maxEntries, null);
+    }
+
+    private DedupCache(long windowMillis, int maxEntries, File file) {
+        this.file = file;
+        this.windowMillis = windowMillis;
+        this.maxEntries = maxEntries;
+        int capacity = Integer.highestOneBit(Math.max(8, maxEntries) * 2 - 1) << 1;
+        hashes = new long[capacity];
+        times = new long[capacity];
+    }
+
+    /**
+     * 判断短信是否与时间窗口内的某条重复；不重复时记下它。
+     */
+    public boolean isDuplicate(String sender, CharSequence body, long now) throws IOException {
+        return checkAndAdd(key(sender, body), now);
+    }
+
+    /**
+     * 判断短信是否与时间窗口内的某条重复，重复时计入拦截数，但不记下新短信。
+     * 短信写入发送队列之后再调用 {@link #remember}，写入失败时重新投递的同一条短信不会被当成已转发。
+     */
+    public synchronized boolean checkDuplicate(String sender, CharSequence body, long now) {
+        if (contains(sender, body, now)) {
+            suppressed++;
+            return true;
+        }
+        return false;
+    }
+
+    // 先记入内存再追加到文件，写文件失败时内存中仍已记下
+    public void remember(String sender, CharSequence body, long now) throws IOException {
+        checkAndAdd(key(sender, body), now);
+    }
+
+    /**
+     * 只查询不记录，用于判断收件箱里的短信是否已实时转发过。
+     */
+    public synchronized boolean contains(String sender, CharSequence body, long now) {
+        long key = key(sender, body);
+        int mask = hashes.length - 1;
+        for (int i = (int) (key ^ (key >>> 32)) & mask; hashes[i] != 0; i = (i + 1) & mask) {
+            if (hashes[i] == key && isLive(times[i], now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized boolean checkAndAdd(long key, long now) throws IOException {
+        if (!insert(key, now)) {
+            suppressed++;
+            return true;
+        }
+        if (file != null) {
+            record.clear();
+            record.putLong(key).putLong(now).flip();
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            if (++fileRecords > maxEntries * 2) {
+                rewrite();
+            }
+        }
+        return false;
+    }
+
+    // 未过期的条目数
+    public synchronized int size(long now) {
+        int live = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            if (hashes[i] != 0 && isLive(times[i], now)) {
+                live++;
+            }
+        }
+        return live;
+    }
+
+    // 哈希表占用的内存，与短信数量无关
+    public long getMemoryBytes() {
+        return (long) (hashes.length + times.length) * Long.BYTES;
+    }
+
+    public synchronized long getSuppressedCount() {
+        return suppressed;
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        long now = System.currentTimeMillis();
+        return String.format(Locale.ROOT, "去重: 已拦截 %d 条重复短信，缓存 %d / %d 条，占用 %d KiB",
+                getSuppressedCount(), size(now), maxEntries, getMemoryBytes() / 1024);
+    }
+
+    /**
+     * 规范化号码和正文后计算的 64 位哈希，不为 0。
+     * 号码去掉 +86 / 0086 前缀和非字母数字字符，106 开头的短信网关号码视为同一个；正文合并空白。
+     */
+    static long key(String sender, CharSequence body) {
+        long h = 0xcbf29ce484222325L;
+        String digits = normalizeSender(sender);
+        for (int i = 0; i < digits.length(); i++) {
+            h = (h ^ digits.charAt(i)) * 0x100000001b3L;
+        }
+        h = (h ^ '\n') * 0x100000001b3L;
+        boolean space = false;
+        int start = 0;
+        int end = body.length();
+        while (start < end && Character.isWhitespace(body.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(body.charAt(end - 1))) {
+            end--;
+        }
+        for (int i = start; i < end; i++) {
+            char c = body.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space) {
+                h = (h ^ ' ') * 0x100000001b3L;
+                space = false;
+            }
+            h = (h ^ c) * 0x100000001b3L;
+        }
+        h = mix(h);
+        return h != 0 ? h : 1;
+    }
+
+    // MurmurHash3 的 64 位收尾混合，让 FNV 的低位也分布均匀
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    static String normalizeSender(String sender) {
+        StringBuilder sb = new StringBuilder(sender.length());
+        for (int i = 0; i < sender.length(); i++) {
+            char c = sender.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        String s = sb.toString();
+        if (s.startsWith("0086")) {
+            s = s.substring(4);
+        } else if (s.startsWith("86") && s.length() == 13) {
+            s = s.substring(2);
+        }
+        return s.startsWith("106") ? "106" : s;
+    }
+
+    // 返回 false 表示窗口内已有相同的哈希
+    private boolean insert(long key, long now) {
+        int mask = hashes.length - 1;
+        int i = (int) (key ^ (key >>> 32)) & mask;
+        int reuse = -1;
+        while (hashes[i] != 0) {
+            boolean live = isLive(times[i], now);
+            if (hashes[i] == key && live) {
+                return false;
+            }
+            if (reuse < 0 && !live) {
+                reuse = i;
+            }
+            i = (i + 1) & mask;
+        }
+        if (reuse >= 0) {
+            i = reuse;
+        } else {
+            used++;
+        }
+        hashes[i] = key;
+        times[i] = now;
+        if (used > maxEntries) {
+            rebuild(now);
+        }
+        return true;
+    }
+
+    private boolean isLive(long time, long now) {
+        return now - time < windowMillis;
+    }
+
+    // 去掉过期条目重新排列；未过期的超过上限时只保留最新的四分之三，避免之后每次插入都重建
+    private void rebuild(long now) {
+        int live = 0;
+        long[] liveTimes = new long[hashes.length];
+        for (int i = 0; i < hashes.length; i++) {
+            if (hashes[i] != 0 && isLive(times[i], now)) {
+                liveTimes[live++] = times[i];
+            }
+        }
+        int keep = live > maxEntries ? maxEntries - maxEntries / 4 : live;
+        long cutoff = Long.MIN_VALUE;
+        if (keep < live) {
+            Arrays.sort(liveTimes, 0, live);
+            cutoff = liveTimes[live - keep];
+        }
+        long[] oldHashes = hashes.clone();
+        long[] oldTimes = times.clone();
+        Arrays.fill(hashes, 0);
+        used = 0;
+        int kept = 0;
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldHashes[i] != 0 && isLive(oldTimes[i], now) && oldTimes[i] >= cutoff && kept < keep) {
+                place(oldHashes[i], oldTimes[i]);
+                kept++;
+            }
+        }
+    }
+
+    private void place(long key, long time) {
+        int mask = hashes.length - 1;
+        int i = (int) (key ^ (key >>> 32)) & mask;
+        while (hashes[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        hashes[i] = key;
+        times[i] = time;
+        used++;
+    }
+
+    private void replay(long now) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // 末尾不足一条的部分是写了一半的记录，丢弃
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(in.size() / RECORD_BYTES * RECORD_BYTES,
+                    (long) maxEntries * 4 * RECORD_BYTES));
+            in.position(in.size() / RECORD_BYTES * RECORD_BYTES - buffer.capacity());
+            while (buffer.hasRemaining() && in.read(buffer) >= 0) {
+                // 读满为止
+            }
+            buffer.flip();
+            while (buffer.remaining() >= RECORD_BYTES) {
+                long key = buffer.getLong();
+                long time = buffer.getLong();
+                if (key != 0 && isLive(time, now)) {
+                    insert(key, time);
+                }
+            }
+        }
+    }
+
+    // 把当前未过期的条目写入新文件并原子替换
+    private void rewrite() throws IOException {
+        long now = System.currentTimeMillis();
+        File tmp = new File(file.getPath() + ".tmp");
+        int records = 0;
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(hashes.length * RECORD_BYTES);
+            for (int i = 0; i < hashes.length; i++) {
+                if (hashes[i] != 0 && isLive(times[i], now)) {
+                    buffer.putLong(hashes[i]).putLong(times[i]);
+                    records++;
+                }
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        // 先替换再关闭旧文件：替换失败时旧文件和 channel 都原样保留，之后的记录照常追加
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("无法替换去重文件: " + file);
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileRecords = records;
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.myapplication;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 合并窗口：窗口内到达的多条短信合并成一封摘要邮件发送。
+ * <p>
+ * 窗口从当前批次第一条短信到达时开始计时，到期或达到批次上限时整体交出，
+ * 因此单条短信最多额外等待一个窗口时长。在绕过名单中的发件人不参与合并。
+ */
+public class DigestCoalescer {
+
+    private final long windowMillis;
+    private final int maxBatch;
+    private final Set<String> bypassSenders;
+    private final List<OutboundQueue.Entry> open = new ArrayList<>();
+    private long openedAt;
+
+    public DigestCoalescer(long windowMillis, int maxBatch, Set<String> bypassSenders) {
+        this.windowMillis = windowMillis;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.bypassSenders = bypassSenders != null ? new HashSet<>(bypassSenders) : Collections.emptySet();
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    public boolean bypasses(OutboundQueue.Entry entry) {
+        return bypassSenders.contains(entry.sender);
+    }
+
+    /**
+     * 加入一条短信。批次达到上限时返回整批，否则返回 null 继续等待。
+     */
+    public synchronized List<OutboundQueue.Entry> offer(OutboundQueue.Entry entry, long now) {
+        if (open.isEmpty()) {
+            openedAt = now;
+        }
+        open.add(entry);
+        return open.size() >= maxBatch ? drain() : null;
+    }
+
+    // 窗口到期时交出当前批次，未到期返回 null
+    public synchronized List<OutboundQueue.Entry> flushDue(long now) {
+        if (open.isEmpty() || now - openedAt < windowMillis) {
+            return null;
+        }
+        return drain();
+    }
+
+    // 当前批次的到期时间，没有等待中的批次时返回 -1
+    public synchronized long nextFlushAt() {
+        return open.isEmpty() ? -1 : openedAt + windowMillis;
+    }
+
+    public synchronized int size() {
+        return open.size();
+    }
+
+    private List<OutboundQueue.Entry> drain() {
+        List<OutboundQueue.Entry> batch = new ArrayList<>(open);
+        open.clear();
+        return batch;
+    }
+}
@@ -0,0 +1,241 @@
+package com.example.myapplication;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import javax.activation.DataHandler;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+
+/**
+ * SMTP 邮件通道。发件账号来自 {@link SmtpAccountPool}：按账号轮流发送并各自限速，
+ * 账号认证失败或被服务器拒绝时换下一个账号重发。每个账号的普通短信和验证码各用一条保持的连接，
+ * 验证码不必等待普通短信的发送。
+ */
+public class EmailChannel implements ForwardChannel {
+
+    /**
+     * 一次发送所需的 SMTP 配置，收件地址在构造时解析好，可以在多次发送之间共享。
+     */
+    public static final class Settings {
+        final List<SmtpAccount> accounts;
+        final String recipient;
+        // 收件地址格式有误时为 null
+        final InternetAddress[] recipients;
+        final long keepAliveMillis;
+        // 为 null 时使用默认格式
+        final MessageTemplate subjectTemplate;
+        final MessageTemplate bodyTemplate;
+        // 规则指定的收件地址，为 null 时按路由文本解析
+        final RuleEngine.Compiled rules;
+
+        public Settings(List<SmtpAccount> accounts, String recipient, long keepAliveMillis) {
+            this(accounts, recipient, keepAliveMillis, null, null, null);
+        }
+
+        public Settings(List<SmtpAccount> accounts, String recipient, long keepAliveMillis,
+                        MessageTemplate subjectTemplate, MessageTemplate bodyTemplate) {
+            this(accounts, recipient, keepAliveMillis, subjectTemplate, bodyTemplate, null);
+        }
+
+        public Settings(List<SmtpAccount> accounts, String recipient, long keepAliveMillis,
+                        MessageTemplate subjectTemplate, MessageTemplate bodyTemplate, RuleEngine.Compiled rules) {
+            this.accounts = accounts;
+            this.recipient = recipient;
+            InternetAddress[] parsed;
+            try {
+                parsed = recipient.isEmpty() ? null : parseRecipients(recipient);
+            } catch (IllegalArgumentException e) {
+                parsed = null;
+            }
+            this.recipients = parsed;
+            this.keepAliveMillis = keepAliveMillis;
+            this.subjectTemplate = subjectTemplate;
+            this.bodyTemplate = bodyTemplate;
+            this.rules = rules;
+        }
+
+        // 单个不限速的账号
+        public Settings(String host, int port, boolean ssl, String user, String password, String recipient,
+                        long keepAliveMillis) {
+            this(user.isEmpty() || password.isEmpty() ? Collections.emptyList()
+                            : Collections.singletonList(new SmtpAccount(host, port,
+                            ssl ? SmtpAccount.Tls.SSL : SmtpAccount.Tls.PLAIN, user, password, 0)),
+                    recipient, keepAliveMillis);
+        }
+
+        boolean isComplete() {
+            return !accounts.isEmpty() && !recipient.isEmpty();
+        }
+
+        // 规则编译时已解析好地址；只有规则修改前写入队列、现在已不在规则中的路由才在这里解析，格式有误时返回 null
+        InternetAddress[] recipientsFor(String route) {
+            InternetAddress[] parsed = rules != null ? rules.recipientsFor(route) : null;
+            if (parsed != null) {
+                return parsed;
+            }
+            try {
+                return parseRecipients(route.substring("mailto:".length()));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 严格解析逗号分隔的收件地址，格式不对时抛出 IllegalArgumentException。
+     */
+    public static InternetAddress[] parseRecipients(String text) {
+        try {
+            InternetAddress[] addresses = InternetAddress.parse(text, true);
+            if (addresses.length == 0) {
+                throw new IllegalArgumentException("收件邮箱不能为空");
+            }
+            return addresses;
+        } catch (AddressException e) {
+            throw new IllegalArgumentException("收件邮箱格式有误: " + text, e);
+        }
+    }
+
+    // .invalid 保留给不存在的域名，不会与真实邮件的 Message-ID 冲突
+    private static final String MESSAGE_ID_DOMAIN = "sms-forwarder.invalid";
+
+    private final Supplier<Settings> settings;
+    private final SmtpAccountPool pool;
+
+    public EmailChannel(Supplier<Settings> settings) {
+        this(settings, new SmtpAccountPool());
+    }
+
+    public EmailChannel(Supplier<Settings> settings, SmtpAccountPool pool) {
+        this.settings = settings;
+        this.pool = pool;
+    }
+
+    @Override
+    public String name() {
+        return EMAIL;
+    }
+
+    // 各发件账号的统计
+    public List<SmtpAccountPool.Account> getAccounts() {
+        return pool.getAccounts();
+    }
+
+    @Override
+    public void send(List<OutboundQueue.Entry> batch) throws MessagingException {
+        Settings s = settings.get();
+        if (!s.isComplete()) {
+            // 保留在队列中，配置补全后还能发出
+            throw new MessagingException("配置不完整");
+        }
+        pool.update(s.accounts);
+        OutboundQueue.Entry first = batch.get(0);
+        boolean express = batch.size() == 1 && first.isHighPriority();
+        // 规则指定了邮箱时发给该邮箱，否则发给默认收件人
+        boolean routed = first.route != null && first.route.startsWith("mailto:");
+        InternetAddress[] recipients = routed ? s.recipientsFor(first.route) : s.recipients;
+        if (recipients == null) {
+            throw new MessagingException("收件邮箱格式有误: " + (routed ? first.route : s.recipient));
+        }
+
+        Set<SmtpAccountPool.Account> tried = new HashSet<>();
+        MessagingException lastError = null;
+        while (true) {
+            SmtpAccountPool.Account account;
+            try {
+                account = pool.acquire(tried);
+            } catch (MessagingException e) {
+                // 所有账号都试过了时抛出最后一个账号的错误
+                throw lastError != null ? lastError : e;
+            }
+            tried.add(account);
+            long start = System.nanoTime();
+            try {
+                send(account, express, s, recipients, batch);
+                pool.release(account, System.nanoTime() - start, null);
+                return;
+            } catch (MessagingException e) {
+                pool.release(account, System.nanoTime() - start, e);
+                if (!SmtpAccountPool.isAccountFailure(e)) {
+                    // 网络错误或收件人被拒，换账号也无济于事，交给通道的重试
+                    throw e;
+                }
+                // 账号本身的问题，换下一个账号重发；失败次数记在该账号的统计里
+                lastError = e;
+            } catch (RuntimeException e) {
+                // 释放可能占用的熔断试探名额
+                account.breaker.onIgnored();
+                throw e;
+            }
+        }
+    }
+
+    private static void send(SmtpAccountPool.Account account, boolean express, Settings s,
+                             InternetAddress[] recipients, List<OutboundQueue.Entry> batch) throws MessagingException {
+        SmtpAccount config = account.config;
+        SmtpTransportHolder holder = express ? account.expressTransportHolder : account.transportHolder;
+        holder.setIdleMillis(s.keepAliveMillis);
+        // 凭据未变化时复用已有 Session 和已认证的连接
+        Session session = holder.session(config.properties, config.user, config.password);
+
+        MimeMessage message = new KeyedMimeMessage(session, messageId(batch));
+        message.setFrom(config.from != null ? config.from : new InternetAddress(config.user));
+        message.setRecipients(Message.RecipientType.TO, recipients);
+        message.setSubject(MessageFormatter.subject(batch, s.subjectTemplate));
+        if (MessageFormatter.isBacklog(batch)) {
+            setBacklogContent(message, batch);
+        } else {
+            message.setText(MessageFormatter.body(batch, s.bodyTemplate));
+        }
+        holder.send(message);
+    }
+
+    // 积压批次：正文是统计摘要，短信放在边发送边压缩的附件里
+    private static void setBacklogContent(MimeMessage message, List<OutboundQueue.Entry> batch)
+            throws MessagingException {
+        BacklogAttachment attachment = new BacklogAttachment(batch);
+        MimeBodyPart text = new MimeBodyPart();
+        text.setText(MessageFormatter.backlogSummary(batch, attachment.getName()), "UTF-8");
+        MimeBodyPart file = new MimeBodyPart();
+        file.setDataHandler(new DataHandler(attachment));
+        file.setFileName(attachment.getName());
+        // 明确指定编码，避免 JavaMail 为选择编码先把附件完整读一遍
+        file.setHeader("Content-Transfer-Encoding", "base64");
+        MimeMultipart multipart = new MimeMultipart();
+        multipart.addBodyPart(text);
+        multipart.addBodyPart(file);
+        message.setContent(multipart);
+    }
+
+    // 同一批短信无论重发多少次、换哪个账号，Message-ID 都相同，所以域名固定，不取自发件账号
+    static String messageId(List<OutboundQueue.Entry> batch) {
+        return "<" + MessageFormatter.idempotencyKey(batch) + ".sms@" + MESSAGE_ID_DOMAIN + ">";
+    }
+
+    /**
+     * 使用固定 Message-ID 的邮件。连接在发送途中断开后重发时，收件服务器可以据此识别重复。
+     */
+    private static final class KeyedMimeMessage extends MimeMessage {
+        private final String messageId;
+
+        KeyedMimeMessage(Session session, String messageId) {
+            super(session);
+            this.messageId = messageId;
+        }
+
+        @Override
+        protected void updateMessageID() throws MessagingException {
+            setHeader("Message-ID", messageId);
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package com.example.myapplication;
 
-import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
@@ -8,24 +7,20 @@ import android.app.Service;
 import android.app.ForegroundServiceStartNotAllowedException;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 
-import java.util.Properties;
-
-import javax.mail.Authenticator;
-import javax.mail.Message;
-import javax.mail.MessagingException;
-import javax.mail.PasswordAuthentication;
-import javax.mail.Session;
-import javax.mail.Transport;
-import javax.mail.internet.InternetAddress;
-import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 public class EmailService extends Service {
 
@@ -33,6 +28,44 @@ public class EmailService extends Service {
     public static final String CHANNEL_ID = "ForegroundServiceChannel";
     public static final String ACTION_UPDATE_LOG = "com.example.myapplication.UPDATE_LOG";
     public static final String EXTRA_LOG_MESSAGE = "log_message";
+    // 启动服务时的 System.nanoTime()，用于统计从 startForegroundService 到 onStartCommand 的耗时
+    public static final String EXTRA_START_NANOS = "start_nanos";
+
+    private static final int NOTIFICATION_ID = 1;
+    // 有短信转为死信时的提醒，与前台通知分开，服务停止后仍保留
+    private static final int DEAD_LETTER_NOTIFICATION_ID = 2;
+    // 发送期间刷新进度通知的间隔
+    private static final long PROGRESS_INTERVAL_MILLIS = 500;
+
+    // Webhook 和局域网 Socket 的连接/读写超时
+    private static final int CHANNEL_TIMEOUT_MILLIS = 10_000;
+    // 会话结束后等待默认短信应用写入收件箱再补发
+    private static final long BACKFILL_DELAY_MILLIS = 10_000;
+
+    private static SendDispatcher dispatcher;
+    private static FanOutForwarder forwarder;
+    // 进程级共享，服务重建后仍可复用各账号未过期的 SMTP 连接、令牌和熔断状态
+    private static EmailChannel emailChannel;
+    // 调度器和各通道当前使用的配置快照
+    private static ForwarderConfig appliedConfig;
+
+    // 进程级共享，服务重建后仍记得近期的到达强度
+    private static final LingerPolicy lingerPolicy = new LingerPolicy();
+    // 处于前台会话中的实例，进程内唤醒时使用；只在主线程上设置和清除
+    private static volatile EmailService active;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable stopRunnable = this::stopIfIdle;
+    private final Runnable progressRunnable = this::updateProgress;
+    private int lastStartId;
+    // 主线程读写；与进程内唤醒相关的切换在 synchronized (this) 中进行
+    private boolean inForeground;
+    private NotificationManager notificationManager;
+    private NotificationCompat.Builder notificationBuilder;
+    // 本次会话开始时调度器的已完成条数，-1 表示尚未记录
+    private long sessionCompletedBase = -1;
+    private int shownDone = -1;
+    private int shownTotal = -1;
 
     @Override
     public void onCreate() {
@@ -42,103 +75,346 @@ public class EmailService extends Service {
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        createNotificationChannel();
+        if (intent != null && intent.hasExtra(EXTRA_START_NANOS)) {
+            LatencyStats.record(LatencyStats.Stage.SERVICE_START,
+                    System.nanoTime() - intent.getLongExtra(EXTRA_START_NANOS, 0));
+            lingerPolicy.onArrival(SystemClock.elapsedRealtime());
+        }
+        lastStartId = startId;
+        // 新任务到达，取消正在等待的停止
+        mainHandler.removeCallbacks(stopRunnable);
+
+        // 一次会话只进入一次前台，之后的短信直接交给正在运行的发送队列
+        if (!inForeground && !startSession(startId)) {
+            return START_NOT_STICKY;
+        }
+
+        // 短信已由 SmsReceiver 写入持久化队列，这里只负责唤醒发送线程
+        SendDispatcher sendDispatcher;
+        try {
+            sendDispatcher = getDispatcher(this);
+        } catch (IOException e) {
+            log("EmailService: 打开发送队列失败: " + e.getMessage());
+            Log.e(TAG, "打开发送队列异常详情: ", e);
+            endSession();
+            return START_NOT_STICKY;
+        }
+        if (sessionCompletedBase < 0) {
+            sessionCompletedBase = sendDispatcher.getCompletedCount();
+        }
+        // 空闲回调切回主线程，与 onStartCommand 串行，避免刚到的新任务被误停
+        sendDispatcher.setIdleListener(() -> mainHandler.post(this::onDispatcherIdle));
+        sendDispatcher.pump();
+        scheduleProgress();
+
+        return START_NOT_STICKY; // 任务完成后停止，不需要保持粘性
+    }
+
+    /**
+     * 服务正处于前台会话时，在进程内唤醒发送队列，省去一次经过系统的 startForegroundService。
+     * 可在任意线程调用；服务未运行或正在停止时返回 false，由调用方照常启动服务。
+     */
+    static boolean wakeRunning() {
+        EmailService service = active;
+        return service != null && service.wake();
+    }
+
+    private boolean wake() {
+        synchronized (this) {
+            if (!inForeground || dispatcher == null) {
+                return false;
+            }
+            applyConfig(ForwarderConfig.get(this));
+            // 在锁内取出新条目，stopIfIdle 随后看到的一定是非空闲的调度器
+            dispatcher.pump();
+        }
+        mainHandler.post(() -> {
+            lingerPolicy.onArrival(SystemClock.elapsedRealtime());
+            mainHandler.removeCallbacks(stopRunnable);
+            scheduleProgress();
+        });
+        return true;
+    }
+
+    // 创建通知渠道并进入前台，被系统拒绝时把队列交给后台任务
+    private boolean startSession(int startId) {
+        createNotificationChannel(this);
+        notificationManager = getSystemService(NotificationManager.class);
 
         Intent notificationIntent = new Intent(this, MainActivity.class);
         PendingIntent pendingIntent = PendingIntent.getActivity(this,
                 0, notificationIntent, PendingIntent.FLAG_IMMUTABLE);
 
-        // 构建前台通知，这是服务启动且不被系统立即杀死的关键
-        Notification notification;
+        // 构建前台通知，这是服务启动且不被系统立即杀死的关键；Builder 在整个会话中复用，进度更新只改变化的字段
+        notificationBuilder = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setContentTitle("短信转发服务")
+                .setContentText("正在处理短信转发任务...")
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentIntent(pendingIntent)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true);
         try {
-            notification = new NotificationCompat.Builder(this, CHANNEL_ID)
-                    .setContentTitle("短信转发服务")
-                    .setContentText("正在处理短信转发任务...")
-                    .setSmallIcon(R.mipmap.ic_launcher)
-                    .setContentIntent(pendingIntent)
-                    .setPriority(NotificationCompat.PRIORITY_LOW)
-                    .build();
-
             // 启动前台服务，显示通知
-            startForeground(1, notification);
+            startForeground(NOTIFICATION_ID, notificationBuilder.build());
             log("EmailService: 前台服务已启动，正在显示通知。");
         } catch (ForegroundServiceStartNotAllowedException e) {
             log("EmailService: 前台服务启动被拒绝 (Android 12+ 限制): " + e.getMessage());
+            notificationBuilder = null;
+            // 队列中的短信交给后台任务发送
+            QueueRetryJobService.schedule(this, 0);
             stopSelfResult(startId);
-            return START_NOT_STICKY;
+            return false;
         }
-
-        // 如果有短信内容传来，则处理发送
-        if (intent != null && intent.hasExtra("content")) {
-            final String sender = intent.getStringExtra("sender");
-            final String content = intent.getStringExtra("content");
-            log("EmailService: 接收到任务，准备转发来自 " + sender + " 的短信。");
-            // 开启新线程执行网络操作
-            new Thread(() -> sendEmail(sender, content, startId)).start();
-        } else {
-            // 如果没有任务（可能是系统异常重启了服务），直接停止，避免空挂导致超时崩溃
-            log("EmailService: 无待处理任务，停止服务。");
-            stopSelf(startId);
+        synchronized (this) {
+            inForeground = true;
         }
+        active = this;
+        sessionCompletedBase = -1;
+        shownDone = -1;
+        shownTotal = -1;
+        return true;
+    }
 
-        return START_NOT_STICKY; // 任务完成后停止，不需要保持粘性
+    // 发送队列清空后按近期到达强度保留一段时间，期间到达的短信继续使用本次会话
+    private void onDispatcherIdle() {
+        if (!inForeground || dispatcher == null || !dispatcher.isIdle()) {
+            return;
+        }
+        updateProgress();
+        long linger = lingerPolicy.lingerMillis(SystemClock.elapsedRealtime());
+        mainHandler.removeCallbacks(stopRunnable);
+        mainHandler.postDelayed(stopRunnable, linger);
+        log("EmailService: 队列已清空，" + linger / 1000 + " 秒内没有新短信将停止服务。");
     }
 
-    private void sendEmail(final String smsSender, final String smsContent, final int startId) {
+    // 保留期结束时仍然空闲才停止；尚在退避中的条目交给重试任务
+    private void stopIfIdle() {
+        synchronized (this) {
+            if (dispatcher == null || !dispatcher.isIdle()) {
+                return;
+            }
+            // 从这里起不再接受进程内唤醒，之后到达的短信重新启动服务
+            inForeground = false;
+        }
         try {
-            SharedPreferences prefs = getSharedPreferences(MainActivity.PREFS_NAME, Context.MODE_PRIVATE);
-            final String fromEmail = prefs.getString("sender_email", "");
-            final String fromPassword = prefs.getString("sender_password", "");
-            final String toEmail = prefs.getString("receiver_email", "");
+            OutboundQueue queue = OutboundQueue.getInstance(this);
+            long nextAttemptAt = queue.nextAttemptAt();
+            if (nextAttemptAt > 0) {
+                QueueRetryJobService.schedule(this, nextAttemptAt - System.currentTimeMillis());
+                log("EmailService: 队列中仍有 " + queue.size() + " 条待重试的短信。");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "读取发送队列失败: ", e);
+        }
+        log("EmailService: 已发送 " + dispatcher.getCompletedCount() + " 条，平均排队 "
+                + dispatcher.getAverageWaitMillis() + " ms，最长 " + dispatcher.getMaxWaitMillis() + " ms。");
+        for (ChannelMetrics metrics : forwarder.getMetrics()) {
+            log("EmailService: " + metrics);
+        }
+        for (SmtpAccountPool.Account account : emailChannel.getAccounts()) {
+            log("EmailService: 账号 " + account);
+        }
+        DedupCache dedup = DedupCache.current();
+        if (dedup != null) {
+            log("EmailService: " + dedup);
+        }
+        // 刚转发的短信还在去重缓存里，趁现在推进收件箱补发的水位线，并补上广播漏掉的
+        QueueRetryJobService.scheduleBackfill(this, BACKFILL_DELAY_MILLIS);
+        // 任务完成（无论成功失败）后必须停止服务
+        // 否则会导致 Android 14+ 抛出 ForegroundServiceDidNotStopInTimeException
+        log("EmailService: 任务结束，停止服务以释放资源。");
+        endSession();
+    }
 
-            if (fromEmail.isEmpty() || fromPassword.isEmpty() || toEmail.isEmpty()) {
-                log("EmailService: 邮件发送失败，配置不完整。");
-                return;
+    // 退出前台并停止；若在此之后又有新的启动请求，stopSelfResult 不会生效，新的 onStartCommand 会重新进入前台
+    private void endSession() {
+        mainHandler.removeCallbacks(stopRunnable);
+        mainHandler.removeCallbacks(progressRunnable);
+        synchronized (this) {
+            inForeground = false;
+        }
+        if (active == this) {
+            active = null;
+        }
+        notificationBuilder = null;
+        stopForeground(STOP_FOREGROUND_REMOVE);
+        stopSelfResult(lastStartId);
+    }
+
+    private void scheduleProgress() {
+        mainHandler.removeCallbacks(progressRunnable);
+        mainHandler.post(progressRunnable);
+    }
+
+    // 显示“正在发送第 3 / 12 条”，数字没变时不重新发布通知；发送期间定时刷新
+    private void updateProgress() {
+        if (!inForeground || notificationBuilder == null || dispatcher == null) {
+            return;
+        }
+        int pending;
+        try {
+            pending = OutboundQueue.getInstance(this).size();
+        } catch (IOException e) {
+            return;
+        }
+        int done = (int) (dispatcher.getCompletedCount() - Math.max(0, sessionCompletedBase));
+        int total = done + pending;
+        if (done != shownDone || total != shownTotal) {
+            shownDone = done;
+            shownTotal = total;
+            if (pending > 0) {
+                notificationBuilder.setContentText("正在发送第 " + Math.min(done + 1, total) + " / " + total + " 条")
+                        .setProgress(total, done, false);
+            } else {
+                notificationBuilder.setContentText("已发送 " + done + " 条，等待新短信...")
+                        .setProgress(0, 0, false);
             }
+            notificationManager.notify(NOTIFICATION_ID, notificationBuilder.build());
+        }
+        if (!dispatcher.isIdle()) {
+            mainHandler.postDelayed(progressRunnable, PROGRESS_INTERVAL_MILLIS);
+        }
+    }
 
-            try {
-                log("EmailService: 正在连接邮件服务器...");
-                Properties props = new Properties();
-                props.put("mail.smtp.host", "smtp.qq.com");
-                props.put("mail.smtp.socketFactory.port", "465");
-                props.put("mail.smtp.socketFactory.class", "javax.net.ssl.SSLSocketFactory");
-                props.put("mail.smtp.auth", "true");
-                props.put("mail.smtp.port", "465");
-                // 添加超时设置，防止网络问题导致服务长时间运行无法停止
-                props.put("mail.smtp.connectiontimeout", "10000");
-                props.put("mail.smtp.timeout", "10000");
-                props.put("mail.smtp.writetimeout", "10000");
-
-                Session session = Session.getInstance(props, new Authenticator() {
-                    protected PasswordAuthentication getPasswordAuthentication() {
-                        return new PasswordAuthentication(fromEmail, fromPassword);
-                    }
-                });
+    static synchronized SendDispatcher getDispatcher(Context context) throws IOException {
+        Context appContext = context.getApplicationContext();
+        // 发送时只取当前的配置快照，设置变化时快照在主线程整体替换
+        ForwarderConfig config = ForwarderConfig.get(appContext);
+        if (dispatcher == null) {
+            OutboundQueue queue = OutboundQueue.getInstance(appContext);
+            forwarder = new FanOutForwarder(queue);
+            forwarder.setListener(new LogListener(appContext, queue, MessageArchive.getInstance(appContext)));
+            emailChannel = new EmailChannel(() -> ForwarderConfig.get(appContext).email);
+            forwarder.setChannel(emailChannel);
+            // 离线时暂停发送，网络恢复后限速发出积压
+            ConnectivitySource connectivity = new AndroidConnectivitySource(appContext);
+            forwarder.setConnectivity(connectivity);
+            dispatcher = new SendDispatcher(queue, forwarder, config.sendWorkers, SendDispatcher.DEFAULT_CAPACITY);
+            dispatcher.setConnectivity(connectivity);
+        }
+        applyConfig(config);
+        return dispatcher;
+    }
 
-                MimeMessage message = new MimeMessage(session);
-                message.setFrom(new InternetAddress(fromEmail));
-                message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(toEmail));
-                message.setSubject("收到来自 [" + smsSender + "] 的新短信");
-                message.setText("发件人: " + smsSender + "\n\n" + "短信内容:\n" + smsContent);
+    // 快照换过之后才应用；合并窗口和通道只在对应设置变化时替换，避免提前结束正在等待的批次
+    private static synchronized void applyConfig(ForwarderConfig config) {
+        ForwarderConfig previous = appliedConfig;
+        if (config == previous || dispatcher == null) {
+            return;
+        }
+        appliedConfig = config;
+        dispatcher.setWorkerCount(config.sendWorkers);
+        dispatcher.setBacklogThreshold(config.backlogThreshold);
+        if (previous == null || !config.sameDigest(previous)) {
+            applyDigestSettings(config);
+        }
+        if (previous == null || !config.sameChannels(previous)) {
+            applyChannelSettings(config);
+        }
+    }
+
+    // 各转发通道的统计，服务尚未启动过时为空
+    static synchronized Collection<ChannelMetrics> channelMetrics() {
+        return forwarder != null ? forwarder.getMetrics() : Collections.emptyList();
+    }
+
+    // 各发件账号的统计，服务尚未发送过邮件时为空
+    static synchronized List<SmtpAccountPool.Account> accountStats() {
+        return emailChannel != null ? emailChannel.getAccounts() : Collections.emptyList();
+    }
 
-                Transport.send(message);
-                log("EmailService: 邮件发送成功！");
+    private static void applyDigestSettings(ForwarderConfig config) {
+        dispatcher.setCoalescer(config.digestWindowMillis <= 0 ? null
+                : new DigestCoalescer(config.digestWindowMillis, config.digestMaxBatch, config.digestBypassSenders));
+    }
+
+    // 邮件通道总是启用；Webhook 和局域网 Socket 填写了有效地址才启用，地址无效时快照发布时已记下原因
+    private static void applyChannelSettings(ForwarderConfig config) {
+        forwarder.removeChannel(ForwardChannel.WEBHOOK);
+        forwarder.removeChannel(ForwardChannel.SOCKET);
+        if (config.webhookUrl != null) {
+            forwarder.setChannel(new WebhookChannel(config.webhookUrl, CHANNEL_TIMEOUT_MILLIS));
+        }
+        if (config.socketAddress != null) {
+            forwarder.setChannel(LanSocketChannel.parse(config.socketAddress, CHANNEL_TIMEOUT_MILLIS));
+        }
+    }
 
-            } catch (MessagingException e) {
-                log("EmailService: 邮件发送失败: " + e.getMessage());
-                Log.e(TAG, "邮件发送异常详情: ", e);
+    // 写日志，同时把每次尝试和最终状态记入转发存档
+    private static final class LogListener implements FanOutForwarder.Listener {
+        private final Context context;
+        private final OutboundQueue queue;
+        private final MessageArchive archive;
+
+        LogListener(Context context, OutboundQueue queue, MessageArchive archive) {
+            this.context = context;
+            this.queue = queue;
+            this.archive = archive;
+        }
+
+        @Override
+        public void onDelivered(String channel, List<OutboundQueue.Entry> batch, long latencyMillis) {
+            archive.recordAttempt(batch, channel, latencyMillis, null);
+            if (batch.size() == 1) {
+                AppLog.i(LogRing.Stage.CHANNEL, TAG, "EmailService: [" + channel + "] 已转发来自 "
+                        + batch.get(0).sender + " 的短信，耗时 " + latencyMillis + " ms。");
+            } else {
+                AppLog.i(LogRing.Stage.CHANNEL, TAG, "EmailService: [" + channel + "] 已将 "
+                        + batch.size() + " 条短信合并转发，耗时 " + latencyMillis + " ms。");
+            }
+        }
+
+        @Override
+        public void onFailed(String channel, List<OutboundQueue.Entry> batch, Exception error) {
+            archive.recordAttempt(batch, channel, -1, error);
+            AppLog.e(LogRing.Stage.CHANNEL, TAG, "EmailService: [" + channel + "] 转发失败，稍后重试: "
+                    + error.getMessage(), error);
+        }
+
+        @Override
+        public void onFinished(List<OutboundQueue.Entry> batch, boolean failed) {
+            archive.recordFinished(batch, failed);
+            if (failed) {
+                boolean dead = false;
+                for (OutboundQueue.Entry entry : batch) {
+                    if (entry.getAttempts() >= OutboundQueue.MAX_ATTEMPTS) {
+                        AppLog.e(LogRing.Stage.QUEUE, TAG, "EmailService: 来自 " + entry.sender + " 的短信已失败 "
+                                + entry.getAttempts() + " 次，停止重试。", null);
+                        dead = true;
+                    }
+                }
+                if (dead) {
+                    notifyDeadLetters(context, queue.deadLetterCount());
+                }
+                return;
+            }
+            for (OutboundQueue.Entry entry : batch) {
+                AppLog.d(LogRing.Stage.QUEUE, TAG, "EmailService: trace " + Long.toHexString(entry.traceId)
+                        + " 已完成，端到端 " + (System.currentTimeMillis() - entry.createdAt) + " ms，重试 "
+                        + entry.getAttempts() + " 次。");
             }
-        } finally {
-            // 关键修复：任务完成（无论成功失败）后必须停止服务
-            // 否则会导致 Android 14+ 抛出 ForegroundServiceDidNotStopInTimeException
-            log("EmailService: 任务结束，停止服务以释放资源。");
-            stopSelf(startId);
         }
     }
 
+    // Android 15 起 dataSync 前台服务累计时长用完时回调，必须立即停止，剩余短信交给后台任务
+    @Override
+    public void onTimeout(int startId, int fgsType) {
+        log("EmailService: 前台服务时长已达系统上限，剩余短信交给后台任务。");
+        QueueRetryJobService.schedule(this, 0);
+        endSession();
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
+        mainHandler.removeCallbacksAndMessages(null);
+        if (active == this) {
+            active = null;
+        }
+        if (dispatcher != null) {
+            dispatcher.setIdleListener(null);
+        }
         log("EmailService: 服务已完全停止。");
     }
 
@@ -148,26 +424,43 @@ public class EmailService extends Service {
         return null;
     }
 
-    private void createNotificationChannel() {
+    // 提醒用户有短信停止了重试，点击打开转发记录
+    private static void notifyDeadLetters(Context context, int count) {
+        if (count <= 0) {
+            return;
+        }
+        createNotificationChannel(context);
+        PendingIntent pendingIntent = PendingIntent.getActivity(context, 0,
+                new Intent(context, ArchiveActivity.class), PendingIntent.FLAG_IMMUTABLE);
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setContentTitle("短信转发失败")
+                .setContentText("有 " + count + " 条短信多次转发失败，已停止重试。检查配置并保存后会重新发送。")
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentIntent(pendingIntent)
+                .setPriority(NotificationCompat.PRIORITY_DEFAULT)
+                .setAutoCancel(true);
+        try {
+            context.getSystemService(NotificationManager.class).notify(DEAD_LETTER_NOTIFICATION_ID, builder.build());
+        } catch (SecurityException e) {
+            // 未授予通知权限，失败记录仍可在转发记录中查看
+            log("EmailService: 无法显示转发失败通知: " + e.getMessage());
+        }
+    }
+
+    private static void createNotificationChannel(Context context) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             NotificationChannel serviceChannel = new NotificationChannel(
                     CHANNEL_ID,
                     "短信转发服务通道",
                     NotificationManager.IMPORTANCE_DEFAULT
             );
-            NotificationManager manager = getSystemService(NotificationManager.class);
+            NotificationManager manager = context.getSystemService(NotificationManager.class);
             manager.createNotificationChannel(serviceChannel);
         }
     }
 
-    // 辅助方法，用于发送日志广播和打印Logcat
-    private void log(String message) {
-        Log.d(TAG, message);
-        if (MainActivity.logHandler != null) {
-            // 必须使用全限定名，以避免和 javax.mail.Message 冲突
-            android.os.Message msg = MainActivity.logHandler.obtainMessage();
-            msg.obj = message;
-            MainActivity.logHandler.sendMessage(msg);
-        }
+    // 辅助方法，写入 Logcat 和界面日志缓冲区
+    private static void log(String message) {
+        AppLog.d(LogRing.Stage.SERVICE, TAG, message);
     }
 }
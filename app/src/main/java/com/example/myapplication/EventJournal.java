@@ -0,0 +1,241 @@
+package com.example.myapplication;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 定长内存映射事件日志，写满后从头覆盖最旧的记录。
+ * <p>
+ * 追加只是往映射区写几个字节，数据进入页缓存后即使进程随即崩溃也不会丢失，
+ * 因此可以在 onReceive 和未捕获异常处理器里直接调用。
+ * 文件头：[魔数 int][版本 int][容量 int][保留 int][写位置 long][最旧记录位置 long]，位置均为不回绕的逻辑偏移。
+ * 记录：[总长度 u16][类型 byte][阶段 byte][时间 long][UTF-8 文本]，记录不跨越区域末尾，
+ * 末尾放不下时写长度 0 表示跳到开头。
+ */
+public class EventJournal {
+
+    public static final String FILE_NAME = "events.journal";
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    // 类型字节：2~7 与 android.util.Log 的级别相同，崩溃另用一个值
+    public static final int KIND_CRASH = 16;
+
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_HEADER = 12;
+    // 单条记录的文本上限，崩溃堆栈超出部分截断
+    static final int MAX_PAYLOAD = 8 * 1024;
+
+    private static final int MAGIC = 0x534d534a;
+    private static final int VERSION = 1;
+    private static final int POS_WRITE = 16;
+    private static final int POS_TAIL = 24;
+
+    private static volatile EventJournal instance;
+
+    public interface Visitor {
+        void visit(long timeMillis, int kind, LogRing.Stage stage, String text);
+    }
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private long writePos;
+    private long tail;
+
+    public static EventJournal getInstance(Context context) throws IOException {
+        EventJournal journal = instance;
+        if (journal == null) {
+            synchronized (EventJournal.class) {
+                if (instance == null) {
+                    File file = new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+                    instance = new EventJournal(file, DEFAULT_CAPACITY);
+                }
+                journal = instance;
+            }
+        }
+        return journal;
+    }
+
+    // 未初始化时返回 null，供不方便拿到 Context 的地方使用
+    public static EventJournal peek() {
+        return instance;
+    }
+
+    public EventJournal(File file, int capacity) throws IOException {
+        this.capacity = capacity;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            // 映射在通道关闭后仍然有效
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+        }
+        long w = buffer.getLong(POS_WRITE);
+        long t = buffer.getLong(POS_TAIL);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != capacity
+                || t < 0 || t > w || w - t > capacity) {
+            // 新文件、旧版本或损坏的文件，从空日志开始
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, capacity);
+            w = 0;
+            t = 0;
+            buffer.putLong(POS_WRITE, 0);
+            buffer.putLong(POS_TAIL, 0);
+        }
+        writePos = w;
+        tail = t;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public void append(long timeMillis, int kind, LogRing.Stage stage, String text) {
+        int chars = text.length();
+        int payload = 0;
+        int end = 0;
+        // 先算出编码后的长度，超过上限时按字符截断
+        while (end < chars) {
+            int n = utf8Length(text, end);
+            if (payload + n > MAX_PAYLOAD) {
+                break;
+            }
+            payload += n;
+            end += Character.isHighSurrogate(text.charAt(end)) && n == 4 ? 2 : 1;
+        }
+        int length = RECORD_HEADER + payload;
+        synchronized (this) {
+            int offset = (int) (writePos % capacity);
+            if (capacity - offset < length) {
+                // 末尾放不下，剩余部分作为填充，从头开始写
+                long wrapAt = writePos + (capacity - offset);
+                evictBefore(wrapAt + length);
+                if (capacity - offset >= 2) {
+                    buffer.putShort(HEADER_SIZE + offset, (short) 0);
+                }
+                writePos = wrapAt;
+                offset = 0;
+            } else {
+                evictBefore(writePos + length);
+            }
+            int p = HEADER_SIZE + offset;
+            buffer.putShort(p, (short) length);
+            buffer.put(p + 2, (byte) kind);
+            buffer.put(p + 3, (byte) stage.ordinal());
+            buffer.putLong(p + 4, timeMillis);
+            p += RECORD_HEADER;
+            for (int i = 0; i < end; i++) {
+                p = putUtf8(text, i, p);
+                if (Character.isHighSurrogate(text.charAt(i)) && i + 1 < end
+                        && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    i++;
+                }
+            }
+            writePos += length;
+            buffer.putLong(POS_TAIL, tail);
+            buffer.putLong(POS_WRITE, writePos);
+        }
+    }
+
+    // 把所有仍在日志中的记录按写入顺序交给 visitor
+    public void read(Visitor visitor) {
+        byte[] copy;
+        long from;
+        long to;
+        synchronized (this) {
+            copy = new byte[capacity];
+            ByteBuffer view = buffer.duplicate();
+            view.position(HEADER_SIZE);
+            view.get(copy);
+            from = tail;
+            to = writePos;
+        }
+        LogRing.Stage[] stages = LogRing.Stage.values();
+        long pos = from;
+        while (pos < to) {
+            int offset = (int) (pos % capacity);
+            int length = recordLength(copy, offset);
+            if (length == 0) {
+                pos += capacity - offset;
+                continue;
+            }
+            if (length < RECORD_HEADER || offset + length > capacity) {
+                // 文件损坏，丢弃余下部分
+                break;
+            }
+            int kind = copy[offset + 2];
+            int stageIndex = copy[offset + 3];
+            long time = 0;
+            for (int i = 0; i < 8; i++) {
+                time = (time << 8) | (copy[offset + 4 + i] & 0xff);
+            }
+            String text = new String(copy, offset + RECORD_HEADER, length - RECORD_HEADER, StandardCharsets.UTF_8);
+            LogRing.Stage stage = stageIndex >= 0 && stageIndex < stages.length ? stages[stageIndex] : LogRing.Stage.APP;
+            visitor.visit(time, kind, stage, text);
+            pos += length;
+        }
+    }
+
+    // 推进最旧记录的位置，直到 [limit - capacity, limit) 不再与旧记录重叠
+    private void evictBefore(long limit) {
+        while (tail < writePos && tail < limit - capacity) {
+            int offset = (int) (tail % capacity);
+            int length = capacity - offset < 2 ? 0 : buffer.getShort(HEADER_SIZE + offset) & 0xffff;
+            tail += length == 0 ? capacity - offset : length;
+        }
+        if (tail > writePos) {
+            tail = writePos;
+        }
+    }
+
+    private static int recordLength(byte[] data, int offset) {
+        if (data.length - offset < 2) {
+            return 0;
+        }
+        return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+    }
+
+    private static int utf8Length(String text, int i) {
+        char c = text.charAt(i);
+        if (c < 0x80) {
+            return 1;
+        }
+        if (c < 0x800) {
+            return 2;
+        }
+        if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+            return 4;
+        }
+        return 3;
+    }
+
+    private int putUtf8(String text, int i, int p) {
+        char c = text.charAt(i);
+        if (c < 0x80) {
+            buffer.put(p, (byte) c);
+            return p + 1;
+        }
+        if (c < 0x800) {
+            buffer.put(p, (byte) (0xc0 | (c >> 6)));
+            buffer.put(p + 1, (byte) (0x80 | (c & 0x3f)));
+            return p + 2;
+        }
+        if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, text.charAt(i + 1));
+            buffer.put(p, (byte) (0xf0 | (cp >> 18)));
+            buffer.put(p + 1, (byte) (0x80 | ((cp >> 12) & 0x3f)));
+            buffer.put(p + 2, (byte) (0x80 | ((cp >> 6) & 0x3f)));
+            buffer.put(p + 3, (byte) (0x80 | (cp & 0x3f)));
+            return p + 4;
+        }
+        buffer.put(p, (byte) (0xe0 | (c >> 12)));
+        buffer.put(p + 1, (byte) (0x80 | ((c >> 6) & 0x3f)));
+        buffer.put(p + 2, (byte) (0x80 | (c & 0x3f)));
+        return p + 3;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.myapplication;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * 把 {@link EventJournal} 解码为文本或 JSON，只在导出时调用。
+ */
+public final class EventJournalExporter {
+
+    private EventJournalExporter() {
+    }
+
+    public static void writeText(EventJournal journal, Writer out) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.getDefault());
+        IOException[] error = new IOException[1];
+        journal.read((timeMillis, kind, stage, text) -> {
+            if (error[0] != null) {
+                return;
+            }
+            try {
+                out.write(format.format(new Date(timeMillis)));
+                out.write(' ');
+                out.write(kindName(kind));
+                out.write(" [");
+                out.write(stage.name());
+                out.write("] ");
+                out.write(text);
+                out.write('\n');
+            } catch (IOException e) {
+                error[0] = e;
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+        out.flush();
+    }
+
+    // 一行一个 JSON 对象，便于用 jq 等工具处理
+    public static void writeJson(EventJournal journal, Writer out) throws IOException {
+        IOException[] error = new IOException[1];
+        StringBuilder sb = new StringBuilder(256);
+        journal.read((timeMillis, kind, stage, text) -> {
+            if (error[0] != null) {
+                return;
+            }
+            sb.setLength(0);
+            sb.append("{\"time\":").append(timeMillis);
+            sb.append(",\"level\":\"").append(kindName(kind)).append('"');
+            sb.append(",\"stage\":\"").append(stage.name()).append('"');
+            sb.append(",\"text\":");
+            MessageFormatter.appendJsonString(sb, text);
+            sb.append("}\n");
+            try {
+                out.write(sb.toString());
+            } catch (IOException e) {
+                error[0] = e;
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+        out.flush();
+    }
+
+    static String kindName(int kind) {
+        switch (kind) {
+            case 2:
+                return "V";
+            case 3:
+                return "D";
+            case 4:
+                return "I";
+            case 5:
+                return "W";
+            case 6:
+                return "E";
+            case 7:
+                return "A";
+            case EventJournal.KIND_CRASH:
+                return "CRASH";
+            default:
+                return String.valueOf(kind);
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.example.myapplication;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 把一批短信同时发往多个 {@link ForwardChannel}。
+ * <p>
+ * 每个通道有自己的发送线程（普通和验证码各一个）、超时和重试策略，慢的通道不会拖住其他通道。
+ * 某个通道成功后立即记入持久化队列，所有目标通道都成功才确认出队；
+ * 有通道失败时整批按退避时间重试，重试时跳过已经送达的通道。
+ * 发送途中断网导致的失败不计入重试次数，条目直接放回队列，等网络恢复后再发。
+ */
+public class FanOutForwarder implements SendDispatcher.Handler {
+
+    private static final int LANE_CAPACITY = 64;
+
+    public interface Listener {
+        void onDelivered(String channel, List<OutboundQueue.Entry> batch, long latencyMillis);
+
+        void onFailed(String channel, List<OutboundQueue.Entry> batch, Exception error);
+
+        // 整批处理结束：failed 为 false 表示所有目标通道都已送达并已出队
+        void onFinished(List<OutboundQueue.Entry> batch, boolean failed);
+    }
+
+    /**
+     * 单个通道的重试和超时设置。超时覆盖该通道对一批短信的全部尝试，超时后本轮按失败处理。
+     */
+    public static final class Policy {
+        final int maxAttempts;
+        final RetryBackoff backoff;
+        final long timeoutMillis;
+
+        public Policy(int maxAttempts, RetryBackoff backoff, long timeoutMillis) {
+            this.maxAttempts = Math.max(1, maxAttempts);
+            this.backoff = backoff;
+            this.timeoutMillis = timeoutMillis;
+        }
+    }
+
+    public static final Policy DEFAULT_POLICY = new Policy(2, new RetryBackoff(1_000L, 4_000L), 60_000L);
+
+    private static final class Lane {
+        final ForwardChannel channel;
+        final Policy policy;
+        final ChannelMetrics metrics;
+        final ThreadPoolExecutor executor;
+        final ThreadPoolExecutor expressExecutor;
+
+        Lane(ForwardChannel channel, Policy policy, ChannelMetrics metrics) {
+            this.channel = channel;
+            this.policy = policy;
+            this.metrics = metrics;
+            executor = newExecutor("sms-channel-" + channel.name());
+            expressExecutor = newExecutor("sms-channel-" + channel.name() + "-express");
+        }
+
+        private static ThreadPoolExecutor newExecutor(String threadName) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(LANE_CAPACITY), r -> {
+                        Thread t = new Thread(r, threadName);
+                        t.setDaemon(true);
+                        return t;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+
+        void shutdown() {
+            executor.shutdown();
+            expressExecutor.shutdown();
+        }
+    }
+
+    private final OutboundQueue queue;
+    private final Map<String, ChannelMetrics> metrics = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sms-channel-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+    // 写时复制，发送路径上无锁读取
+    private volatile Map<String, Lane> lanes = new LinkedHashMap<>();
+    private volatile Listener listener;
+    private volatile ConnectivitySource connectivity;
+
+    public FanOutForwarder(OutboundQueue queue) {
+        this.queue = queue;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setConnectivity(ConnectivitySource connectivity) {
+        this.connectivity = connectivity;
+    }
+
+    public void setChannel(ForwardChannel channel) {
+        setChannel(channel, DEFAULT_POLICY);
+    }
+
+    // 添加或替换同名通道；被替换通道中已排队的批次仍会发完
+    public synchronized void setChannel(ForwardChannel channel, Policy policy) {
+        Map<String, Lane> next = new LinkedHashMap<>(lanes);
+        ChannelMetrics channelMetrics = metrics.computeIfAbsent(channel.name(), ChannelMetrics::new);
+        Lane previous = next.put(channel.name(), new Lane(channel, policy, channelMetrics));
+        lanes = next;
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    public synchronized void removeChannel(String name) {
+        if (!lanes.containsKey(name)) {
+            return;
+        }
+        Map<String, Lane> next = new LinkedHashMap<>(lanes);
+        next.remove(name).shutdown();
+        lanes = next;
+    }
+
+    public Collection<ChannelMetrics> getMetrics() {
+        return new ArrayList<>(metrics.values());
+    }
+
+    @Override
+    public void handle(List<OutboundQueue.Entry> batch, Runnable done) {
+        List<Lane> targets = targetsOf(batch.get(0));
+        AtomicInteger remaining = new AtomicInteger(targets.size() + 1);
+        // 没有可用通道时不能确认出队，留在队列里等配置补全
+        AtomicBoolean failed = new AtomicBoolean(targets.isEmpty());
+        Runnable settle = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                finish(batch, failed.get());
+                done.run();
+            }
+        };
+        boolean express = batch.size() == 1 && batch.get(0).isHighPriority();
+        for (Lane lane : targets) {
+            List<OutboundQueue.Entry> pending = new ArrayList<>(batch.size());
+            for (OutboundQueue.Entry entry : batch) {
+                if (!entry.isDeliveredTo(lane.channel.name())) {
+                    pending.add(entry);
+                }
+            }
+            if (pending.isEmpty()) {
+                settle.run();
+                continue;
+            }
+            dispatch(lane, pending, express, targets.size() > 1, ok -> {
+                if (!ok) {
+                    failed.set(true);
+                }
+                settle.run();
+            });
+        }
+        settle.run();
+    }
+
+    private interface Outcome {
+        void accept(boolean ok);
+    }
+
+    // 在通道自己的线程上发送，超时后不再等待，但迟到的成功仍会记为已送达
+    private void dispatch(Lane lane, List<OutboundQueue.Entry> batch, boolean express, boolean recordDelivery,
+                          Outcome outcome) {
+        AtomicBoolean reported = new AtomicBoolean();
+        ScheduledFuture<?> timeout = watchdog.schedule(() -> {
+            if (reported.compareAndSet(false, true)) {
+                lane.metrics.recordFailure();
+                notifyFailed(lane, batch, new TimeoutException("超过 " + lane.policy.timeoutMillis + " ms 未完成"));
+                outcome.accept(false);
+            }
+        }, lane.policy.timeoutMillis, TimeUnit.MILLISECONDS);
+        try {
+            (express ? lane.expressExecutor : lane.executor).execute(() -> {
+                Exception error = deliver(lane, batch, recordDelivery);
+                timeout.cancel(false);
+                if (error == null && !recordDelivery && reported.get()) {
+                    // 已按超时处理的批次迟到成功：记为已送达，重试时不会再发一次
+                    markDelivered(lane, batch);
+                }
+                if (reported.compareAndSet(false, true)) {
+                    if (error != null) {
+                        lane.metrics.recordFailure();
+                        notifyFailed(lane, batch, error);
+                    }
+                    outcome.accept(error == null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            timeout.cancel(false);
+            if (reported.compareAndSet(false, true)) {
+                lane.metrics.recordFailure();
+                notifyFailed(lane, batch, e);
+                outcome.accept(false);
+            }
+        }
+    }
+
+    // 按通道的重试策略发送，成功返回 null，否则返回最后一次的异常
+    private Exception deliver(Lane lane, List<OutboundQueue.Entry> batch, boolean recordDelivery) {
+        Exception last = null;
+        for (int attempt = 1; attempt <= lane.policy.maxAttempts; attempt++) {
+            if (attempt > 1) {
+                if (!isOnline()) {
+                    // 已经断网，不再原地重试
+                    break;
+                }
+                try {
+                    Thread.sleep(lane.policy.backoff.delayMillis(attempt - 1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return e;
+                }
+            }
+            lane.metrics.recordAttempt();
+            long start = System.nanoTime();
+            try {
+                lane.channel.send(batch);
+            } catch (Exception e) {
+                last = e;
+                continue;
+            }
+            long latency = System.nanoTime() - start;
+            lane.metrics.recordSuccess(latency);
+            if (recordDelivery) {
+                markDelivered(lane, batch);
+            }
+            Listener l = listener;
+            if (l != null) {
+                l.onDelivered(lane.channel.name(), batch, TimeUnit.NANOSECONDS.toMillis(latency));
+            }
+            return null;
+        }
+        return last;
+    }
+
+    private void markDelivered(Lane lane, List<OutboundQueue.Entry> batch) {
+        try {
+            for (OutboundQueue.Entry entry : batch) {
+                queue.markDelivered(entry.id, lane.channel.name());
+            }
+        } catch (IOException e) {
+            // 只影响重试时是否重复发往该通道
+        }
+    }
+
+    private void finish(List<OutboundQueue.Entry> batch, boolean failed) {
+        long now = System.currentTimeMillis();
+        if (failed) {
+            LatencyStats.countFailed(batch.size());
+        } else {
+            LatencyStats.countForwarded(batch.size());
+            for (OutboundQueue.Entry entry : batch) {
+                LatencyStats.recordSince(LatencyStats.Stage.END_TO_END, entry.receivedAtNanos, entry.createdAt);
+            }
+        }
+        boolean offline = failed && !isOnline();
+        try {
+            for (OutboundQueue.Entry entry : batch) {
+                if (offline) {
+                    queue.release(entry.id);
+                } else if (failed) {
+                    queue.fail(entry.id, now);
+                } else {
+                    queue.ack(entry.id);
+                }
+            }
+        } catch (IOException e) {
+            // 状态未写入时条目保持原样，重启后会再发一次
+            Listener l = listener;
+            if (l != null) {
+                l.onFailed("queue", batch, e);
+            }
+        }
+        Listener l = listener;
+        if (l != null) {
+            l.onFinished(batch, failed);
+        }
+    }
+
+    private boolean isOnline() {
+        ConnectivitySource source = connectivity;
+        return source == null || source.isOnline();
+    }
+
+    // 未指定路由时发往所有通道；mailto 只发邮件；指定的通道未配置时改用邮件
+    private List<Lane> targetsOf(OutboundQueue.Entry entry) {
+        Map<String, Lane> current = lanes;
+        List<Lane> targets = new ArrayList<>(current.size());
+        if (entry.route == null) {
+            targets.addAll(current.values());
+            return targets;
+        }
+        Lane lane = null;
+        if (entry.route.startsWith("channel:")) {
+            lane = current.get(entry.route.substring("channel:".length()));
+        }
+        if (lane == null) {
+            lane = current.get(ForwardChannel.EMAIL);
+        }
+        if (lane != null) {
+            targets.add(lane);
+        }
+        return targets;
+    }
+
+    private void notifyFailed(Lane lane, List<OutboundQueue.Entry> batch, Exception error) {
+        Listener l = listener;
+        if (l != null) {
+            l.onFailed(lane.channel.name(), batch, error);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.myapplication;
+
+import java.util.List;
+
+/**
+ * 转发通道：把一批短信送到某个目的地（邮件、Webhook、局域网 Socket 等）。
+ * <p>
+ * 实现需自行设置 I/O 超时，发送失败时抛出异常；同一通道的调用总是在该通道自己的线程上串行执行。
+ */
+public interface ForwardChannel {
+
+    String EMAIL = "email";
+    String WEBHOOK = "webhook";
+    String SOCKET = "socket";
+
+    String name();
+
+    void send(List<OutboundQueue.Entry> batch) throws Exception;
+}
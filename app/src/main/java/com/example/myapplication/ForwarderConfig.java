@@ -0,0 +1,214 @@
+package com.example.myapplication;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 转发配置的不可变快照：发件账号（含 SMTP 属性）、解析好的收件地址、编译好的主题/正文模板和转发规则，
+ * 以及发送线程数、积压阈值、合并窗口和 Webhook / 局域网 Socket 地址。
+ * <p>
+ * 快照从 SharedPreferences 构建一次，通过 volatile 引用整体发布；相关设置变化时由
+ * {@link SharedPreferences.OnSharedPreferenceChangeListener} 在主线程重建并替换，
+ * 正在发送的批次继续使用取到的旧快照。
+ * 发送路径只读取当前快照，不读配置、不解析地址和模板。
+ */
+public final class ForwarderConfig {
+
+    private static final String TAG = "ForwarderConfig";
+
+    // 主账号使用 QQ 邮箱的 SSL 端口，其他服务器通过备用账号配置
+    public static final String DEFAULT_SMTP_HOST = "smtp.qq.com";
+    public static final int DEFAULT_SMTP_PORT = 465;
+    public static final int DEFAULT_DIGEST_MAX_BATCH = 20;
+    // 队列超过这么多条时改为打包成附件发送
+    public static final int DEFAULT_BACKLOG_THRESHOLD = 1000;
+
+    // 影响快照的设置项，其他设置变化时不重建
+    private static final Set<String> KEYS = new HashSet<>(Arrays.asList(
+            "sender_email", "sender_password", "receiver_email", "smtp_rate_per_minute", "smtp_keepalive_seconds",
+            SmtpAccount.PREF_ACCOUNTS,
+            MessageTemplate.PREF_SUBJECT, MessageTemplate.PREF_BODY, RuleEngine.PREF_RULES,
+            "send_workers", "backlog_threshold", "digest_window_seconds", "digest_max_batch", "digest_bypass_senders",
+            "webhook_url", "socket_address"));
+
+    private static volatile ForwarderConfig current;
+    private static SharedPreferences watched;
+    // SharedPreferences 只弱引用监听器，必须在这里保持强引用
+    private static SharedPreferences.OnSharedPreferenceChangeListener listener;
+
+    public final EmailChannel.Settings email;
+    public final RuleEngine.Compiled rules;
+    public final int sendWorkers;
+    // 0 表示不打包
+    public final int backlogThreshold;
+    // 0 表示不合并
+    public final long digestWindowMillis;
+    public final int digestMaxBatch;
+    public final Set<String> digestBypassSenders;
+    // 未填写或格式有误时为 null
+    public final URL webhookUrl;
+    // "主机:端口"，未填写或格式有误时为 null
+    public final String socketAddress;
+    // 构建时忽略掉的无效配置，保存时已校验过，只有手工篡改的配置才会出现
+    public final List<String> problems;
+
+    ForwarderConfig(EmailChannel.Settings email, RuleEngine.Compiled rules, int sendWorkers, int backlogThreshold,
+                    long digestWindowMillis, int digestMaxBatch, Set<String> digestBypassSenders, URL webhookUrl,
+                    String socketAddress, List<String> problems) {
+        this.email = email;
+        this.rules = rules;
+        this.sendWorkers = sendWorkers;
+        this.backlogThreshold = backlogThreshold;
+        this.digestWindowMillis = digestWindowMillis;
+        this.digestMaxBatch = digestMaxBatch;
+        this.digestBypassSenders = digestBypassSenders;
+        this.webhookUrl = webhookUrl;
+        this.socketAddress = socketAddress;
+        this.problems = problems;
+    }
+
+    // 合并窗口设置相同时调度器保留正在等待的批次
+    boolean sameDigest(ForwarderConfig other) {
+        return digestWindowMillis == other.digestWindowMillis && digestMaxBatch == other.digestMaxBatch
+                && digestBypassSenders.equals(other.digestBypassSenders);
+    }
+
+    // URL.equals 会解析域名，这里按文本比较
+    boolean sameChannels(ForwarderConfig other) {
+        return String.valueOf(webhookUrl).equals(String.valueOf(other.webhookUrl))
+                && Objects.equals(socketAddress, other.socketAddress);
+    }
+
+    /**
+     * 返回当前快照。进程内第一次调用时从 SharedPreferences 构建并开始监听设置变化。
+     */
+    public static ForwarderConfig get(Context context) {
+        ForwarderConfig config = current;
+        if (config == null) {
+            synchronized (ForwarderConfig.class) {
+                if (current == null) {
+                    watch(context.getApplicationContext()
+                            .getSharedPreferences(MainActivity.PREFS_NAME, Context.MODE_PRIVATE));
+                }
+                config = current;
+            }
+        }
+        return config;
+    }
+
+    // 单元测试中每个用例使用新的 Application，用例开始前丢弃上一个用例的快照和监听器
+    static synchronized void reset() {
+        if (watched != null) {
+            watched.unregisterOnSharedPreferenceChangeListener(listener);
+        }
+        watched = null;
+        listener = null;
+        current = null;
+    }
+
+    private static void watch(SharedPreferences prefs) {
+        listener = (p, key) -> {
+            if (key == null || KEYS.contains(key)) {
+                publish(from(p, current));
+            }
+        };
+        prefs.registerOnSharedPreferenceChangeListener(listener);
+        watched = prefs;
+        publish(from(prefs, null));
+    }
+
+    private static void publish(ForwarderConfig config) {
+        current = config;
+        for (String problem : config.problems) {
+            AppLog.w(LogRing.Stage.APP, TAG, "转发配置有误，已忽略: " + problem);
+        }
+    }
+
+    /**
+     * 从已保存的设置构建快照。无效的备用账号、模板、规则和通道地址被忽略并记入 {@link #problems}，不会抛出异常。
+     */
+    static ForwarderConfig from(SharedPreferences prefs) {
+        return from(prefs, null);
+    }
+
+    // previous 不为 null 时，未改动的规则行复用上一个快照中编译好的规则
+    private static ForwarderConfig from(SharedPreferences prefs, ForwarderConfig previous) {
+        List<String> problems = new ArrayList<>();
+        List<SmtpAccount> accounts = new ArrayList<>();
+        String user = prefs.getString("sender_email", "");
+        String password = prefs.getString("sender_password", "");
+        if (!user.isEmpty() && !password.isEmpty()) {
+            // 备用账号排在主账号之后
+            accounts.add(new SmtpAccount(DEFAULT_SMTP_HOST, DEFAULT_SMTP_PORT, SmtpAccount.Tls.SSL, user, password,
+                    prefs.getInt("smtp_rate_per_minute", SmtpAccount.DEFAULT_RATE_PER_MINUTE)));
+        }
+        try {
+            accounts.addAll(SmtpAccount.parse(prefs.getString(SmtpAccount.PREF_ACCOUNTS, "")));
+        } catch (IllegalArgumentException e) {
+            problems.add("备用发件账号: " + e.getMessage());
+        }
+        String recipient = prefs.getString("receiver_email", "");
+        long keepAliveSeconds = prefs.getLong("smtp_keepalive_seconds", SmtpTransportHolder.DEFAULT_IDLE_MILLIS / 1000);
+        MessageTemplate subject = template(prefs, MessageTemplate.PREF_SUBJECT, problems);
+        MessageTemplate body = template(prefs, MessageTemplate.PREF_BODY, problems);
+        RuleEngine.Compiled rules;
+        try {
+            rules = RuleEngine.compile(prefs.getString(RuleEngine.PREF_RULES, ""),
+                    previous != null ? previous.rules : null);
+        } catch (IllegalArgumentException e) {
+            problems.add("转发规则: " + e.getMessage());
+            rules = RuleEngine.compile("");
+        }
+        EmailChannel.Settings email = new EmailChannel.Settings(Collections.unmodifiableList(accounts), recipient,
+                keepAliveSeconds * 1000, subject, body, rules);
+        if (!recipient.isEmpty() && email.recipients == null) {
+            problems.add("收件邮箱格式有误: " + recipient);
+        }
+        Set<String> bypassSenders = new HashSet<>();
+        for (String sender : prefs.getString("digest_bypass_senders", "").split("[,，\\s]+")) {
+            if (!sender.isEmpty()) {
+                bypassSenders.add(sender);
+            }
+        }
+        URL webhookUrl = null;
+        String webhook = prefs.getString("webhook_url", "").trim();
+        if (!webhook.isEmpty()) {
+            try {
+                webhookUrl = new URL(webhook);
+            } catch (MalformedURLException e) {
+                problems.add("Webhook 地址无效: " + webhook);
+            }
+        }
+        String socketAddress = prefs.getString("socket_address", "").trim();
+        if (socketAddress.isEmpty()) {
+            socketAddress = null;
+        } else if (LanSocketChannel.parse(socketAddress, 0) == null) {
+            problems.add("局域网地址格式应为 主机:端口，当前为 " + socketAddress);
+            socketAddress = null;
+        }
+        return new ForwarderConfig(email, rules, Math.max(1, prefs.getInt("send_workers", 1)),
+                Math.max(0, prefs.getInt("backlog_threshold", DEFAULT_BACKLOG_THRESHOLD)),
+                Math.max(0, prefs.getInt("digest_window_seconds", 0)) * 1000L,
+                prefs.getInt("digest_max_batch", DEFAULT_DIGEST_MAX_BATCH), Collections.unmodifiableSet(bypassSenders),
+                webhookUrl, socketAddress, Collections.unmodifiableList(problems));
+    }
+
+    private static MessageTemplate template(SharedPreferences prefs, String key, List<String> problems) {
+        try {
+            return MessageTemplate.compile(prefs.getString(key, ""));
+        } catch (IllegalArgumentException e) {
+            problems.add((MessageTemplate.PREF_SUBJECT.equals(key) ? "主题模板: " : "正文模板: ") + e.getMessage());
+            return null;
+        }
+    }
+}
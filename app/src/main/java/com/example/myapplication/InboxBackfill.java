@@ -0,0 +1,180 @@
+package com.example.myapplication;
+
+import android.Manifest;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.Telephony;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 补发应用未运行期间（被强行停止、被系统拦截广播）收件箱里新增的短信。
+ * <p>
+ * 以 _id 为水位线按固定条数分页读取收件箱，每页处理完立即保存水位线，中途被打断下次从断点继续；
+ * 第一次运行只记录当前的最大 _id，不会把历史短信全部转发一遍。实时转发过的短信由调用方
+ * 按去重缓存和转发记录跳过。写入发送队列的速率受令牌桶限制，积压很多时不会一下子塞满队列。
+ */
+public class InboxBackfill {
+
+    public static final String PREFS_NAME = "inbox_backfill";
+    public static final int DEFAULT_BATCH_SIZE = 50;
+    public static final int DEFAULT_RATE_PER_MINUTE = 120;
+
+    private static final String KEY_LAST_ID = "last_id";
+    private static final String KEY_LAST_DATE = "last_date";
+    private static final String[] PROJECTION = {
+            Telephony.Sms._ID, Telephony.Sms.ADDRESS, Telephony.Sms.BODY, Telephony.Sms.DATE};
+
+    /**
+     * 接收补发的短信，写入发送队列时返回 true。
+     */
+    public interface Sink {
+        boolean accept(String sender, String body, long date) throws IOException;
+    }
+
+    /**
+     * 一次补发的结果。
+     */
+    public static final class Result {
+        public final int scanned;
+        public final int skipped;
+        public final int enqueued;
+        // 是否读到了收件箱末尾，被中断或出错时为 false
+        public final boolean complete;
+
+        Result(int scanned, int skipped, int enqueued, boolean complete) {
+            this.scanned = scanned;
+            this.skipped = skipped;
+            this.enqueued = enqueued;
+            this.complete = complete;
+        }
+
+        @Override
+        public String toString() {
+            return "读取 " + scanned + " 条，跳过 " + skipped + " 条，补发 " + enqueued + " 条";
+        }
+    }
+
+    private final ContentResolver resolver;
+    private final Uri uri;
+    private final SharedPreferences prefs;
+    private final int batchSize;
+    private final TokenBucket bucket;
+
+    public InboxBackfill(ContentResolver resolver, Uri uri, SharedPreferences prefs, int batchSize,
+                         int ratePerMinute) {
+        this.resolver = resolver;
+        this.uri = uri;
+        this.prefs = prefs;
+        this.batchSize = batchSize;
+        this.bucket = TokenBucket.perMinute(ratePerMinute, System.nanoTime());
+    }
+
+    public static InboxBackfill create(Context context) {
+        return new InboxBackfill(context.getContentResolver(), Telephony.Sms.Inbox.CONTENT_URI,
+                context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE), DEFAULT_BATCH_SIZE,
+                DEFAULT_RATE_PER_MINUTE);
+    }
+
+    public static boolean hasPermission(Context context) {
+        return context.checkSelfPermission(Manifest.permission.READ_SMS) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    /**
+     * 从水位线开始读到收件箱末尾。onBatch 在每页写入队列后调用，用于唤醒发送线程；线程被中断时在当前页结束后返回。
+     */
+    public Result run(Sink sink, Runnable onBatch) throws IOException, InterruptedException {
+        long lastId = prefs.getLong(KEY_LAST_ID, -1);
+        long lastDate = prefs.getLong(KEY_LAST_DATE, 0);
+        long maxId = maxId();
+        if (lastId < 0) {
+            // 第一次运行，从现在开始
+            saveWatermark(maxId, System.currentTimeMillis());
+            return new Result(0, 0, 0, true);
+        }
+        long minDate = 0;
+        if (maxId < lastId) {
+            // 短信数据库被重建，_id 从头编号；只补发水位线时间之后的
+            lastId = 0;
+            minDate = lastDate;
+        }
+
+        int scanned = 0;
+        int skipped = 0;
+        int enqueued = 0;
+        while (true) {
+            int rows = 0;
+            int batchEnqueued = 0;
+            try (Cursor cursor = resolver.query(uri, PROJECTION,
+                    Telephony.Sms._ID + " > ? AND " + Telephony.Sms.DATE + " > ?",
+                    new String[]{Long.toString(lastId), Long.toString(minDate)},
+                    Telephony.Sms._ID + " ASC LIMIT " + batchSize)) {
+                if (cursor == null) {
+                    return new Result(scanned, skipped, enqueued, false);
+                }
+                int idColumn = cursor.getColumnIndexOrThrow(Telephony.Sms._ID);
+                int addressColumn = cursor.getColumnIndexOrThrow(Telephony.Sms.ADDRESS);
+                int bodyColumn = cursor.getColumnIndexOrThrow(Telephony.Sms.BODY);
+                int dateColumn = cursor.getColumnIndexOrThrow(Telephony.Sms.DATE);
+                while (cursor.moveToNext()) {
+                    rows++;
+                    String sender = cursor.getString(addressColumn);
+                    String body = cursor.getString(bodyColumn);
+                    long date = cursor.getLong(dateColumn);
+                    if (sender == null || body == null) {
+                        skipped++;
+                    } else if (sink.accept(sender, body, date)) {
+                        batchEnqueued++;
+                        // 只有写入队列的才占用令牌，跳过的不限速
+                        acquire();
+                    } else {
+                        skipped++;
+                    }
+                    lastId = cursor.getLong(idColumn);
+                    lastDate = Math.max(lastDate, date);
+                }
+            }
+            scanned += rows;
+            enqueued += batchEnqueued;
+            if (rows > 0) {
+                saveWatermark(lastId, lastDate);
+            }
+            if (batchEnqueued > 0 && onBatch != null) {
+                onBatch.run();
+            }
+            if (rows < batchSize) {
+                return new Result(scanned, skipped, enqueued, true);
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return new Result(scanned, skipped, enqueued, false);
+            }
+        }
+    }
+
+    public long getLastId() {
+        return prefs.getLong(KEY_LAST_ID, -1);
+    }
+
+    private long maxId() {
+        try (Cursor cursor = resolver.query(uri, new String[]{Telephony.Sms._ID}, null, null,
+                Telephony.Sms._ID + " DESC LIMIT 1")) {
+            return cursor != null && cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    private void acquire() throws InterruptedException {
+        while (!bucket.tryAcquire(System.nanoTime())) {
+            TimeUnit.NANOSECONDS.sleep(Math.max(bucket.nanosUntilAvailable(System.nanoTime()), 1_000_000));
+        }
+    }
+
+    private void saveWatermark(long id, long date) {
+        // commit 而不是 apply：进程随后可能被杀，水位线必须先落盘
+        prefs.edit().putLong(KEY_LAST_ID, id).putLong(KEY_LAST_DATE, date).commit();
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.myapplication;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * 预编译的多关键词匹配器（Aho-Corasick 自动机）。
+ * <p>
+ * 构建时把所有关键词编译成扁平数组，匹配时只做数组访问和二分查找，不分配对象，
+ * 一次扫描即可找出文本中出现的全部关键词。英文字母不区分大小写。
+ */
+public final class KeywordMatcher {
+
+    // 每个状态的出边在 edgeChars/edgeTargets 中的区间为 [edgeStart[s], edgeStart[s + 1])，按字符排序
+    private final int[] edgeStart;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+    private final int[] fail;
+    // 该状态结束的关键词编号（没有则为 -1），以及沿失败链能到达的下一个输出状态
+    private final int[] output;
+    private final int[] outputLink;
+    private final int[] patternLength;
+
+    public KeywordMatcher(List<String> keywords) {
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<Integer> outs = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        outs.add(-1);
+        patternLength = new int[keywords.size()];
+        for (int p = 0; p < keywords.size(); p++) {
+            String keyword = keywords.get(p);
+            patternLength[p] = keyword.length();
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = fold(keyword.charAt(i));
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    outs.add(-1);
+                    trie.get(state).put(c, next);
+                }
+                state = next;
+            }
+            if (!keyword.isEmpty() && outs.get(state) < 0) {
+                outs.set(state, p);
+            }
+        }
+
+        int states = trie.size();
+        int edges = 0;
+        for (TreeMap<Character, Integer> node : trie) {
+            edges += node.size();
+        }
+        edgeStart = new int[states + 1];
+        edgeChars = new char[edges];
+        edgeTargets = new int[edges];
+        output = new int[states];
+        int e = 0;
+        for (int s = 0; s < states; s++) {
+            edgeStart[s] = e;
+            for (java.util.Map.Entry<Character, Integer> edge : trie.get(s).entrySet()) {
+                edgeChars[e] = edge.getKey();
+                edgeTargets[e] = edge.getValue();
+                e++;
+            }
+            output[s] = outs.get(s);
+        }
+        edgeStart[states] = e;
+
+        // 广度优先计算失败链
+        fail = new int[states];
+        outputLink = new int[states];
+        Arrays.fill(outputLink, -1);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int i = edgeStart[0]; i < edgeStart[1]; i++) {
+            queue.add(edgeTargets[i]);
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            for (int i = edgeStart[s]; i < edgeStart[s + 1]; i++) {
+                int child = edgeTargets[i];
+                char c = edgeChars[i];
+                int f = fail[s];
+                int target;
+                while ((target = step(f, c)) < 0 && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = target >= 0 && target != child ? target : 0;
+                int fc = fail[child];
+                outputLink[child] = output[fc] >= 0 ? fc : outputLink[fc];
+                queue.add(child);
+            }
+        }
+    }
+
+    public int getPatternLength(int pattern) {
+        return patternLength[pattern];
+    }
+
+    /**
+     * 返回最早结束的关键词匹配的结束位置（不含），没有匹配时返回 -1。
+     */
+    public int firstMatchEnd(CharSequence text) {
+        int state = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            state = next(state, fold(text.charAt(i)));
+            if (output[state] >= 0 || outputLink[state] >= 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 把文本中出现的所有关键词编号写入 hits（调用方负责清空以便复用），返回是否有匹配。
+     */
+    public boolean matchAll(CharSequence text, BitSet hits) {
+        boolean found = false;
+        int state = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            state = next(state, fold(text.charAt(i)));
+            for (int s = output[state] >= 0 ? state : outputLink[state]; s >= 0; s = outputLink[s]) {
+                hits.set(output[s]);
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    private int next(int state, char c) {
+        int target;
+        while ((target = step(state, c)) < 0 && state != 0) {
+            state = fail[state];
+        }
+        return target >= 0 ? target : 0;
+    }
+
+    private int step(int state, char c) {
+        int lo = edgeStart[state];
+        int hi = edgeStart[state + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char m = edgeChars[mid];
+            if (m < c) {
+                lo = mid + 1;
+            } else if (m > c) {
+                hi = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+        return -1;
+    }
+
+    private static char fold(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.myapplication;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 局域网 Socket 通道：连接监听端，每条短信写一行 JSON，收到一行 "OK" 视为成功。
+ */
+public class LanSocketChannel implements ForwardChannel {
+
+    private final String host;
+    private final int port;
+    private final int timeoutMillis;
+
+    public LanSocketChannel(String host, int port, int timeoutMillis) {
+        this.host = host;
+        this.port = port;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    // 解析 "host:port" 格式的地址，格式不对时返回 null
+    public static LanSocketChannel parse(String address, int timeoutMillis) {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            return null;
+        }
+        try {
+            int port = Integer.parseInt(address.substring(colon + 1).trim());
+            return new LanSocketChannel(address.substring(0, colon).trim(), port, timeoutMillis);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String name() {
+        return SOCKET;
+    }
+
+    @Override
+    public void send(List<OutboundQueue.Entry> batch) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            StringBuilder lines = new StringBuilder();
+            for (OutboundQueue.Entry entry : batch) {
+                lines.append(MessageFormatter.toJson(entry)).append('\n');
+            }
+            OutputStream out = socket.getOutputStream();
+            out.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            socket.shutdownOutput();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String reply = in.readLine();
+            if (reply == null || !reply.trim().equalsIgnoreCase("OK")) {
+                throw new IOException("监听端未确认: " + reply);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.myapplication;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定桶的延迟直方图，以微秒为单位，思路与 HdrHistogram 相同：
+ * 每个 2 的幂区间再线性分成 8 个子桶，相对误差不超过 12.5%，最大约 9.5 小时。
+ * 记录只做几次原子加，不分配对象，可以在任意线程上调用。
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_MAGNITUDE = 35;
+    private static final int BUCKETS = (MAX_MAGNITUDE - SUB_BITS + 2) * SUB_BUCKETS;
+    private static final long MAX_VALUE = (1L << (MAX_MAGNITUDE + 1)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    public void recordMicros(long micros) {
+        long value = Math.max(0, Math.min(micros, MAX_VALUE));
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+            // 重试 CAS
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMaxMicros() {
+        return max.get();
+    }
+
+    public long getMeanMicros() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    /**
+     * 返回不小于 fraction（0~1）比例样本的最小桶上界，没有样本时返回 0。
+     */
+    public long percentileMicros(double fraction) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.myapplication;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程级的分阶段延迟统计和吞吐计数。时间一律取 System.nanoTime()，不受系统时间调整影响。
+ */
+public final class LatencyStats {
+
+    public enum Stage {
+        PARSE("解析短信"),
+        ENQUEUE("写入队列"),
+        // 进程为这条短信冷启动时从进程创建算起，否则从 onReceive 算起，到写入队列为止
+        INTAKE_COLD("冷启动接收"),
+        INTAKE_WARM("热启动接收"),
+        SERVICE_START("启动服务"),
+        QUEUE_WAIT("排队等待"),
+        SMTP_SESSION("创建 Session"),
+        SMTP_CONNECT("SMTP 连接认证"),
+        SMTP_SEND("SMTP 发送"),
+        END_TO_END("端到端");
+
+        public final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final LatencyHistogram[] HISTOGRAMS = new LatencyHistogram[STAGES.length];
+    private static final AtomicLong received = new AtomicLong();
+    private static final AtomicLong forwarded = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+    private static final long startedAtNanos = System.nanoTime();
+
+    static {
+        for (int i = 0; i < HISTOGRAMS.length; i++) {
+            HISTOGRAMS[i] = new LatencyHistogram();
+        }
+    }
+
+    private LatencyStats() {
+    }
+
+    public static LatencyHistogram get(Stage stage) {
+        return HISTOGRAMS[stage.ordinal()];
+    }
+
+    public static void record(Stage stage, long nanos) {
+        HISTOGRAMS[stage.ordinal()].recordNanos(nanos);
+    }
+
+    /**
+     * 记录从 startNanos 到现在的耗时。startNanos 可能来自设备重启前（单调时钟会归零），
+     * 与墙上时间差距过大时改用墙上时间。
+     */
+    public static void recordSince(Stage stage, long startNanos, long startWallMillis) {
+        long elapsed = System.nanoTime() - startNanos;
+        long wallElapsed = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - startWallMillis);
+        if (elapsed < 0 || Math.abs(elapsed - wallElapsed) > TimeUnit.MINUTES.toNanos(1)) {
+            elapsed = Math.max(0, wallElapsed);
+        }
+        record(stage, elapsed);
+    }
+
+    public static void countReceived() {
+        received.incrementAndGet();
+    }
+
+    public static void countForwarded(int n) {
+        forwarded.addAndGet(n);
+    }
+
+    public static void countFailed(int n) {
+        failed.addAndGet(n);
+    }
+
+    public static long getReceived() {
+        return received.get();
+    }
+
+    public static long getForwarded() {
+        return forwarded.get();
+    }
+
+    public static long getFailed() {
+        return failed.get();
+    }
+
+    // 进程启动以来平均每分钟转发条数
+    public static double forwardedPerMinute() {
+        double minutes = (System.nanoTime() - startedAtNanos) / 60e9;
+        return minutes <= 0 ? 0 : forwarded.get() / minutes;
+    }
+
+    public static String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "接收 %d 条，转发 %d 条，失败 %d 次，%.1f 条/分钟%n",
+                received.get(), forwarded.get(), failed.get(), forwardedPerMinute()));
+        for (Stage stage : STAGES) {
+            LatencyHistogram h = get(stage);
+            if (h.getCount() == 0) {
+                continue;
+            }
+            sb.append(String.format(Locale.ROOT, "%s: n=%d p50=%s p95=%s p99=%s max=%s%n", stage.label, h.getCount(),
+                    formatMicros(h.percentileMicros(0.50)), formatMicros(h.percentileMicros(0.95)),
+                    formatMicros(h.percentileMicros(0.99)), formatMicros(h.getMaxMicros())));
+        }
+        return sb.toString();
+    }
+
+    public static void writeJson(Writer out) throws IOException {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("{\"received\":").append(received.get());
+        sb.append(",\"forwarded\":").append(forwarded.get());
+        sb.append(",\"failed\":").append(failed.get());
+        sb.append(",\"stages\":{");
+        boolean first = true;
+        for (Stage stage : STAGES) {
+            LatencyHistogram h = get(stage);
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append('"').append(stage.name().toLowerCase(Locale.ROOT)).append("\":{");
+            sb.append("\"count\":").append(h.getCount());
+            sb.append(",\"p50_us\":").append(h.percentileMicros(0.50));
+            sb.append(",\"p95_us\":").append(h.percentileMicros(0.95));
+            sb.append(",\"p99_us\":").append(h.percentileMicros(0.99));
+            sb.append(",\"max_us\":").append(h.getMaxMicros());
+            sb.append('}');
+        }
+        sb.append("}}\n");
+        out.write(sb.toString());
+    }
+
+    static String formatMicros(long micros) {
+        if (micros < 1000) {
+            return micros + "µs";
+        }
+        if (micros < 1_000_000) {
+            return String.format(Locale.ROOT, "%.1fms", micros / 1000.0);
+        }
+        return String.format(Locale.ROOT, "%.2fs", micros / 1_000_000.0);
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.myapplication;
+
+/**
+ * 发送队列清空后前台服务继续保留的时长。近期短信到达越密集保留越久，
+ * 接连到达的短信可以共用一次前台会话，不必反复创建和停止服务。
+ * <p>
+ * 到达强度用指数衰减计数表示：每到达一条加 1，每经过一个半衰期减半，
+ * 保留时长为 最短时长 + 强度 × 步长，且不超过上限。上限远小于系统对 dataSync 前台服务的累计时长限制。
+ */
+public class LingerPolicy {
+
+    public static final long DEFAULT_MIN_MILLIS = 2_000;
+    public static final long DEFAULT_STEP_MILLIS = 1_000;
+    public static final long DEFAULT_MAX_MILLIS = 60_000;
+    public static final long DEFAULT_HALF_LIFE_MILLIS = 60_000;
+
+    private final long minMillis;
+    private final long stepMillis;
+    private final long maxMillis;
+    private final long halfLifeMillis;
+    private double score;
+    private long updatedAt = -1;
+
+    public LingerPolicy() {
+        this(DEFAULT_MIN_MILLIS, DEFAULT_STEP_MILLIS, DEFAULT_MAX_MILLIS, DEFAULT_HALF_LIFE_MILLIS);
+    }
+
+    public LingerPolicy(long minMillis, long stepMillis, long maxMillis, long halfLifeMillis) {
+        this.minMillis = minMillis;
+        this.stepMillis = stepMillis;
+        this.maxMillis = Math.max(minMillis, maxMillis);
+        this.halfLifeMillis = halfLifeMillis;
+    }
+
+    // now 使用单调时钟，例如 SystemClock.elapsedRealtime()
+    public synchronized void onArrival(long now) {
+        decay(now);
+        score += 1;
+    }
+
+    public synchronized long lingerMillis(long now) {
+        decay(now);
+        return Math.min(maxMillis, minMillis + (long) (score * stepMillis));
+    }
+
+    // 近期到达强度，约等于最近 1.44 个半衰期内到达的条数
+    public synchronized double getScore(long now) {
+        decay(now);
+        return score;
+    }
+
+    private void decay(long now) {
+        if (updatedAt >= 0 && now > updatedAt) {
+            score *= Math.pow(0.5, (double) (now - updatedAt) / halfLifeMillis);
+        }
+        if (now > updatedAt) {
+            updatedAt = now;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.myapplication;
+
+import android.content.res.ColorStateList;
+import android.graphics.Color;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 日志列表适配器。打开界面时回放 {@link AppLog} 缓冲区中的历史日志，
+ * 之后每帧最多刷新一次，一帧内写入的多条日志合并为一次 notifyDataSetChanged。
+ */
+public class LogListAdapter extends BaseAdapter implements AppLog.Listener, Choreographer.FrameCallback, LogRing.Sink {
+
+    // 列表最多显示的条数，超出后覆盖最旧的行
+    private static final int DISPLAY_LIMIT = 200;
+
+    private final LayoutInflater inflater;
+    private final Choreographer choreographer;
+    private final AtomicBoolean frameScheduled = new AtomicBoolean();
+    private final String[] rows = new String[DISPLAY_LIMIT];
+    private final int[] levels = new int[DISPLAY_LIMIT];
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss", Locale.getDefault());
+    private final Date date = new Date();
+    private ColorStateList defaultColors;
+    // rows 中最旧一行的位置和总行数
+    private int first;
+    private int count;
+    private long nextSeq;
+    private boolean changed;
+
+    // 必须在主线程创建
+    public LogListAdapter(LayoutInflater inflater) {
+        this.inflater = inflater;
+        this.choreographer = Choreographer.getInstance();
+    }
+
+    public void attach() {
+        AppLog.setListener(this);
+        doFrame(0);
+    }
+
+    public void detach() {
+        AppLog.setListener(null);
+        choreographer.removeFrameCallback(this);
+        frameScheduled.set(false);
+    }
+
+    @Override
+    public void onAppended() {
+        if (frameScheduled.compareAndSet(false, true)) {
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled.set(false);
+        nextSeq = AppLog.ring().drain(nextSeq, this);
+        if (changed) {
+            changed = false;
+            notifyDataSetChanged();
+        }
+    }
+
+    @Override
+    public void accept(long seq, long timeMillis, int level, LogRing.Stage stage, String message) {
+        date.setTime(timeMillis);
+        int index = (first + count) % DISPLAY_LIMIT;
+        if (count == DISPLAY_LIMIT) {
+            first = (first + 1) % DISPLAY_LIMIT;
+        } else {
+            count++;
+        }
+        rows[index] = timeFormat.format(date) + ": " + message;
+        levels[index] = level;
+        changed = true;
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String getItem(int position) {
+        return rows[(first + position) % DISPLAY_LIMIT];
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView view = (TextView) (convertView != null ? convertView
+                : inflater.inflate(android.R.layout.simple_list_item_1, parent, false));
+        view.setText(getItem(position));
+        if (defaultColors == null) {
+            defaultColors = view.getTextColors();
+        }
+        int level = levels[(first + position) % DISPLAY_LIMIT];
+        if (level >= Log.ERROR) {
+            view.setTextColor(Color.RED);
+        } else if (level == Log.WARN) {
+            view.setTextColor(0xFFE65100);
+        } else {
+            view.setTextColor(defaultColors);
+        }
+        return view;
+    }
+}
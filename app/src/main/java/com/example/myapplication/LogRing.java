@@ -0,0 +1,97 @@
+package com.example.myapplication;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 定长无锁环形日志缓冲区，多个线程可同时写入，写满后覆盖最旧的记录。
+ * <p>
+ * 每个槽位预先分配，写入只做一次 getAndIncrement 和几次数组赋值，不分配对象。
+ * 槽位的序号数组充当顺序锁：写入前置为 -1，写完再发布序号；读取前后序号一致才算有效，
+ * 因此读者永远不会看到写了一半的记录，被覆盖的记录直接跳过。
+ * 槽位数据也用原子数组读写：普通数组的读写可能被重排到序号读写的另一侧，顺序锁就失效了。
+ * VarHandle 的内存屏障要到 Android 13 才有，这里用原子数组的 volatile 读写保证顺序。
+ */
+public class LogRing {
+
+    public enum Stage {
+        APP, RECEIVE, RULE, QUEUE, DISPATCH, CHANNEL, SERVICE
+    }
+
+    public interface Sink {
+        void accept(long seq, long timeMillis, int level, Stage stage, String message);
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLongArray published;
+    private final AtomicLongArray times;
+    // 低 8 位是阶段，其余是级别
+    private final AtomicIntegerArray kinds;
+    private final AtomicReferenceArray<String> messages;
+
+    // capacity 向上取整为 2 的幂
+    public LogRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        published = new AtomicLongArray(size);
+        times = new AtomicLongArray(size);
+        kinds = new AtomicIntegerArray(size);
+        messages = new AtomicReferenceArray<>(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    // 下一条记录的序号，也就是至今写入的总条数
+    public long head() {
+        return head.get();
+    }
+
+    public long add(long timeMillis, int level, Stage stage, String message) {
+        long seq = head.getAndIncrement();
+        int slot = (int) seq & mask;
+        published.set(slot, -1);
+        times.set(slot, timeMillis);
+        kinds.set(slot, level << 8 | stage.ordinal());
+        messages.set(slot, message);
+        published.set(slot, seq);
+        return seq;
+    }
+
+    /**
+     * 按顺序读出序号不小于 fromSeq 且仍在缓冲区中的记录，返回下次读取的起始序号。
+     * 尚未写完或已被覆盖的记录会被跳过。
+     */
+    public long drain(long fromSeq, Sink sink) {
+        long end = head.get();
+        long seq = Math.max(fromSeq, end - capacity());
+        for (; seq < end; seq++) {
+            int slot = (int) seq & mask;
+            long current = published.get(slot);
+            if (current != seq) {
+                if (current < seq && seq >= head.get() - capacity()) {
+                    // 该记录还在写入，后面的留到下次再读，保证顺序
+                    return seq;
+                }
+                continue;
+            }
+            long time = times.get(slot);
+            int kind = kinds.get(slot);
+            String message = messages.get(slot);
+            if (published.get(slot) != seq) {
+                continue;
+            }
+            sink.accept(seq, time, kind >> 8, STAGES[kind & 0xff], message);
+        }
+        return seq;
+    }
+}
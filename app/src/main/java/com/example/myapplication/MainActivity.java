@@ -1,18 +1,23 @@
 package com.example.myapplication;
 
 import android.Manifest;
+import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.content.Context;
+import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Build;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Environment;
 import android.os.Handler;
 import android.os.Looper;
-import android.os.Message;
-import android.widget.ArrayAdapter;
+import android.provider.MediaStore;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ListView;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -20,45 +25,47 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
-import java.lang.ref.WeakReference;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 public class MainActivity extends AppCompatActivity {
 
+    private static final String TAG = "MainActivity";
     private static final int PERMISSIONS_REQUEST_CODE = 101;
+    private static final long STATS_REFRESH_MILLIS = 1000;
     public static final String PREFS_NAME = "SmsForwarderPrefs";
 
-    private EditText etSenderEmail, etSenderPassword, etReceiverEmail;
-    private Button btnSave;
+    private EditText etSenderEmail, etSenderPassword, etReceiverEmail, etKeepAliveSeconds, etSendWorkers;
+    private EditText etDigestWindowSeconds, etDigestMaxBatch, etDigestBypassSenders, etForwardRules;
+    private EditText etBacklogThreshold, etSubjectTemplate, etBodyTemplate;
+    private EditText etWebhookUrl, etSocketAddress, etSmtpRatePerMinute, etSmtpAccounts;
+    private Button btnSave, btnExportLog, btnBackfill, btnArchive;
     private ListView lvLogs;
-
-    private ArrayAdapter<String> logAdapter;
-    private ArrayList<String> logMessages;
-
-    public static Handler logHandler;
-
-    private static class LogHandler extends Handler {
-        private final WeakReference<MainActivity> mActivity;
-
-        LogHandler(MainActivity activity) {
-            super(Looper.getMainLooper());
-            mActivity = new WeakReference<>(activity);
-        }
-
+    private TextView tvLatency;
+    private final Handler statsHandler = new Handler(Looper.getMainLooper());
+    private final Runnable statsRefresher = new Runnable() {
         @Override
-        public void handleMessage(@NonNull Message msg) {
-            MainActivity activity = mActivity.get();
-            if (activity != null) {
-                if (msg.obj instanceof String) {
-                    activity.addLogMessage((String) msg.obj);
-                }
-            }
+        public void run() {
+            tvLatency.setText(statsText());
+            statsHandler.postDelayed(this, STATS_REFRESH_MILLIS);
         }
-    }
+    };
+
+    private LogListAdapter logAdapter;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -69,16 +76,30 @@ public class MainActivity extends AppCompatActivity {
         etSenderEmail = findViewById(R.id.et_sender_email);
         etSenderPassword = findViewById(R.id.et_sender_password);
         etReceiverEmail = findViewById(R.id.et_receiver_email);
+        etSubjectTemplate = findViewById(R.id.et_subject_template);
+        etBodyTemplate = findViewById(R.id.et_body_template);
+        etSmtpRatePerMinute = findViewById(R.id.et_smtp_rate_per_minute);
+        etSmtpAccounts = findViewById(R.id.et_smtp_accounts);
+        etKeepAliveSeconds = findViewById(R.id.et_keepalive_seconds);
+        etSendWorkers = findViewById(R.id.et_send_workers);
+        etDigestWindowSeconds = findViewById(R.id.et_digest_window_seconds);
+        etDigestMaxBatch = findViewById(R.id.et_digest_max_batch);
+        etDigestBypassSenders = findViewById(R.id.et_digest_bypass_senders);
+        etBacklogThreshold = findViewById(R.id.et_backlog_threshold);
+        etWebhookUrl = findViewById(R.id.et_webhook_url);
+        etSocketAddress = findViewById(R.id.et_socket_address);
+        etForwardRules = findViewById(R.id.et_forward_rules);
         btnSave = findViewById(R.id.btn_save);
+        btnExportLog = findViewById(R.id.btn_export_log);
+        btnBackfill = findViewById(R.id.btn_backfill);
+        btnArchive = findViewById(R.id.btn_archive);
         lvLogs = findViewById(R.id.lv_logs);
+        tvLatency = findViewById(R.id.tv_latency);
 
-        // 初始化日志列表
-        logMessages = new ArrayList<>();
-        logAdapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, logMessages);
+        // 初始化日志列表，先回放界面关闭期间的日志
+        logAdapter = new LogListAdapter(getLayoutInflater());
         lvLogs.setAdapter(logAdapter);
-
-        // 初始化Handler
-        logHandler = new LogHandler(this);
+        logAdapter.attach();
 
         // 加载配置
         loadSavedPreferences();
@@ -86,26 +107,55 @@ public class MainActivity extends AppCompatActivity {
 
         // 设置按钮点击事件
         btnSave.setOnClickListener(v -> savePreferences());
+        btnExportLog.setOnClickListener(v -> exportJournal(false));
+        btnExportLog.setOnLongClickListener(v -> {
+            exportJournal(true);
+            return true;
+        });
+        btnBackfill.setOnClickListener(v -> {
+            QueueRetryJobService.scheduleBackfill(this, 0);
+            addLogMessage("正在检查收件箱中未转发的短信...");
+        });
+        btnArchive.setOnClickListener(v -> startActivity(new Intent(this, ArchiveActivity.class)));
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // 界面可见时每秒刷新一次延迟统计
+        statsHandler.post(statsRefresher);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        statsHandler.removeCallbacks(statsRefresher);
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        // 移除回调和消息，防止内存泄漏
-        if (logHandler != null) {
-            logHandler.removeCallbacksAndMessages(null);
-            logHandler = null;
+        // 取消订阅，防止内存泄漏
+        logAdapter.detach();
+    }
+
+    private static String statsText() {
+        StringBuilder sb = new StringBuilder(LatencyStats.summary());
+        for (ChannelMetrics metrics : EmailService.channelMetrics()) {
+            sb.append(metrics).append('\n');
         }
+        for (SmtpAccountPool.Account account : EmailService.accountStats()) {
+            sb.append("账号 ").append(account).append('\n');
+        }
+        DedupCache dedup = DedupCache.current();
+        if (dedup != null) {
+            sb.append(dedup).append('\n');
+        }
+        return sb.toString().trim();
     }
 
     private void addLogMessage(String message) {
-        String timestamp = new SimpleDateFormat("HH:mm:ss", Locale.getDefault()).format(new Date());
-        logAdapter.add(timestamp + ": " + message);
-        // 保持日志列表最多显示100条
-        if (logAdapter.getCount() > 100) {
-            logAdapter.remove(logAdapter.getItem(0));
-        }
-        logAdapter.notifyDataSetChanged();
+        AppLog.i(LogRing.Stage.APP, TAG, message);
     }
 
     private void loadSavedPreferences() {
@@ -113,18 +163,175 @@ public class MainActivity extends AppCompatActivity {
         etSenderEmail.setText(prefs.getString("sender_email", ""));
         etSenderPassword.setText(prefs.getString("sender_password", ""));
         etReceiverEmail.setText(prefs.getString("receiver_email", ""));
+        etSubjectTemplate.setText(prefs.getString(MessageTemplate.PREF_SUBJECT, ""));
+        etBodyTemplate.setText(prefs.getString(MessageTemplate.PREF_BODY, ""));
+        etSmtpRatePerMinute.setText(String.valueOf(prefs.getInt("smtp_rate_per_minute", SmtpAccount.DEFAULT_RATE_PER_MINUTE)));
+        etSmtpAccounts.setText(prefs.getString(SmtpAccount.PREF_ACCOUNTS, ""));
+        etKeepAliveSeconds.setText(String.valueOf(prefs.getLong("smtp_keepalive_seconds", SmtpTransportHolder.DEFAULT_IDLE_MILLIS / 1000)));
+        etSendWorkers.setText(String.valueOf(prefs.getInt("send_workers", 1)));
+        etDigestWindowSeconds.setText(String.valueOf(prefs.getInt("digest_window_seconds", 0)));
+        etDigestMaxBatch.setText(String.valueOf(prefs.getInt("digest_max_batch", ForwarderConfig.DEFAULT_DIGEST_MAX_BATCH)));
+        etDigestBypassSenders.setText(prefs.getString("digest_bypass_senders", ""));
+        etBacklogThreshold.setText(String.valueOf(prefs.getInt("backlog_threshold", ForwarderConfig.DEFAULT_BACKLOG_THRESHOLD)));
+        etWebhookUrl.setText(prefs.getString("webhook_url", ""));
+        etSocketAddress.setText(prefs.getString("socket_address", ""));
+        etForwardRules.setText(prefs.getString(RuleEngine.PREF_RULES, ""));
         addLogMessage("配置已加载。");
     }
 
     private void savePreferences() {
+        // 规则在保存时编译校验，有语法错误则不保存；全部校验通过并写入配置后才生效
+        String rules = etForwardRules.getText().toString();
+        String webhookUrl = etWebhookUrl.getText().toString().trim();
+        String socketAddress = etSocketAddress.getText().toString().trim();
+        // 邮件通道总是启用，Webhook 和局域网 Socket 填写了地址才启用
+        Set<String> channels = new HashSet<>(Collections.singleton(ForwardChannel.EMAIL));
+        if (!webhookUrl.isEmpty()) {
+            channels.add(ForwardChannel.WEBHOOK);
+        }
+        if (!socketAddress.isEmpty()) {
+            channels.add(ForwardChannel.SOCKET);
+        }
+        RuleEngine.Compiled compiled;
+        try {
+            compiled = RuleEngine.compile(rules);
+            compiled.checkChannels(channels);
+        } catch (IllegalArgumentException e) {
+            rejectSave(e);
+            return;
+        }
+
+        // 地址、备用账号和模板都在保存时校验，有误则不保存，发送时不再解析
+        String senderEmail = etSenderEmail.getText().toString().trim();
+        String receiverEmail = etReceiverEmail.getText().toString().trim();
+        String accounts = etSmtpAccounts.getText().toString().trim();
+        String subjectTemplate = etSubjectTemplate.getText().toString().trim();
+        String bodyTemplate = etBodyTemplate.getText().toString();
+        List<SmtpAccount> parsedAccounts;
+        try {
+            if (!senderEmail.isEmpty()) {
+                SmtpAccount.parseAddress(senderEmail);
+            }
+            if (!receiverEmail.isEmpty()) {
+                EmailChannel.parseRecipients(receiverEmail);
+            }
+            parsedAccounts = SmtpAccount.parse(accounts);
+            MessageTemplate.compile(subjectTemplate);
+            MessageTemplate.compile(bodyTemplate);
+        } catch (IllegalArgumentException e) {
+            rejectSave(e);
+            return;
+        }
+
         SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
         SharedPreferences.Editor editor = prefs.edit();
-        editor.putString("sender_email", etSenderEmail.getText().toString().trim());
+        editor.putString("sender_email", senderEmail);
         editor.putString("sender_password", etSenderPassword.getText().toString().trim());
-        editor.putString("receiver_email", etReceiverEmail.getText().toString().trim());
+        editor.putString("receiver_email", receiverEmail);
+        editor.putString(MessageTemplate.PREF_SUBJECT, subjectTemplate);
+        editor.putString(MessageTemplate.PREF_BODY, bodyTemplate.trim().isEmpty() ? "" : bodyTemplate);
+        putInt(editor, "smtp_rate_per_minute", etSmtpRatePerMinute, 0, 10_000);
+        editor.putString(SmtpAccount.PREF_ACCOUNTS, accounts);
+        try {
+            editor.putLong("smtp_keepalive_seconds", Long.parseLong(etKeepAliveSeconds.getText().toString().trim()));
+        } catch (NumberFormatException e) {
+            editor.remove("smtp_keepalive_seconds");
+        }
+        putInt(editor, "send_workers", etSendWorkers, 1, 16);
+        putInt(editor, "digest_window_seconds", etDigestWindowSeconds, 0, 30);
+        putInt(editor, "digest_max_batch", etDigestMaxBatch, 1, 200);
+        editor.putString("digest_bypass_senders", etDigestBypassSenders.getText().toString().trim());
+        putInt(editor, "backlog_threshold", etBacklogThreshold, 0, 100_000);
+        editor.putString("webhook_url", webhookUrl);
+        editor.putString("socket_address", socketAddress);
+        editor.putString(RuleEngine.PREF_RULES, rules);
+        // 写入后由 ForwarderConfig 的监听器重新编译并发布
         editor.apply();
         Toast.makeText(this, "配置已保存", Toast.LENGTH_SHORT).show();
-        addLogMessage("配置已保存，等待新短信...");
+        addLogMessage("配置已保存，已启用 " + compiled.size() + " 条转发规则、" + parsedAccounts.size()
+                + " 个备用发件账号，等待新短信...");
+        requeueDeadLetters();
+    }
+
+    // 配置修改后把停止重试的短信放回队列，用新配置再发一次
+    private void requeueDeadLetters() {
+        new Thread(() -> {
+            try {
+                int count = OutboundQueue.getInstance(this).requeueDeadLetters(System.currentTimeMillis());
+                if (count > 0) {
+                    addLogMessage("已将 " + count + " 条多次转发失败的短信重新加入发送队列。");
+                    SmsIntake.wakeSender(this);
+                }
+            } catch (IOException e) {
+                AppLog.e(LogRing.Stage.APP, TAG, "重新发送失败短信时出错: " + e.getMessage(), e);
+            }
+        }, "dead-letter-requeue").start();
+    }
+
+    // 在后台线程解码事件日志并保存到 Downloads 目录
+    private void exportJournal(boolean json) {
+        String fileName = "sms_forwarder_events_"
+                + new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss", Locale.getDefault()).format(new Date())
+                + (json ? ".jsonl" : ".txt");
+        new Thread(() -> {
+            try {
+                EventJournal journal = EventJournal.getInstance(this);
+                try (Writer out = new BufferedWriter(new OutputStreamWriter(openDownload(fileName, json),
+                        StandardCharsets.UTF_8))) {
+                    // 先写当前的延迟统计，再写事件日志
+                    if (json) {
+                        LatencyStats.writeJson(out);
+                        EventJournalExporter.writeJson(journal, out);
+                    } else {
+                        out.write(statsText());
+                        out.write("\n\n");
+                        EventJournalExporter.writeText(journal, out);
+                    }
+                }
+                addLogMessage("诊断日志已导出到 Downloads/" + fileName);
+            } catch (IOException e) {
+                AppLog.e(LogRing.Stage.APP, TAG, "导出诊断日志失败: " + e.getMessage(), e);
+            }
+        }, "journal-export").start();
+    }
+
+    private OutputStream openDownload(String fileName, boolean json) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            // 安卓10及以上版本：使用 MediaStore API，无需权限即可保存到 Downloads
+            ContentResolver resolver = getContentResolver();
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(MediaStore.MediaColumns.DISPLAY_NAME, fileName);
+            contentValues.put(MediaStore.MediaColumns.MIME_TYPE, json ? "application/json" : "text/plain");
+            contentValues.put(MediaStore.MediaColumns.RELATIVE_PATH, Environment.DIRECTORY_DOWNLOADS);
+            Uri fileUri = resolver.insert(MediaStore.Downloads.EXTERNAL_CONTENT_URI, contentValues);
+            OutputStream os = fileUri != null ? resolver.openOutputStream(fileUri) : null;
+            if (os == null) {
+                throw new IOException("MediaStore 无法创建文件");
+            }
+            return os;
+        }
+        // 安卓9：使用传统方式，需要 WRITE_EXTERNAL_STORAGE 权限
+        File logDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
+        if (!logDir.exists()) {
+            logDir.mkdirs();
+        }
+        return new FileOutputStream(new File(logDir, fileName));
+    }
+
+    // 校验失败时提示原因，已保存的配置保持不变
+    private void rejectSave(IllegalArgumentException e) {
+        Toast.makeText(this, e.getMessage(), Toast.LENGTH_LONG).show();
+        addLogMessage("保存失败：" + e.getMessage());
+    }
+
+    // 数字配置项：超出范围时截断到边界，留空或非法时恢复默认值
+    private static void putInt(SharedPreferences.Editor editor, String key, EditText field, int min, int max) {
+        try {
+            int value = Integer.parseInt(field.getText().toString().trim());
+            editor.putInt(key, Math.max(min, Math.min(max, value)));
+        } catch (NumberFormatException e) {
+            editor.remove(key);
+        }
     }
 
     private void checkAndRequestPermissions() {
@@ -158,6 +365,8 @@ public class MainActivity extends AppCompatActivity {
             addLogMessage("正在请求权限...");
         } else {
             addLogMessage("权限检测通过，服务已就绪。");
+            // 补发应用未运行期间收到的短信
+            QueueRetryJobService.scheduleBackfill(this, 0);
         }
     }
 
@@ -175,6 +384,7 @@ public class MainActivity extends AppCompatActivity {
 
             if (allGranted) {
                 addLogMessage("权限申请成功，服务已就绪。");
+                QueueRetryJobService.scheduleBackfill(this, 0);
             } else {
                 addLogMessage("警告：部分权限被拒绝，功能可能无法正常使用。");
                 Toast.makeText(this, "部分权限被拒绝，功能可能无法正常使用", Toast.LENGTH_LONG).show();
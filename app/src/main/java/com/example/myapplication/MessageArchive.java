@@ -0,0 +1,407 @@
+package com.example.myapplication;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 已转发短信的本地存档：每条短信的内容、路由结果、各通道的发送尝试和最终状态，支持按号码和正文全文搜索。
+ * <p>
+ * 发送链路只把记录放进内存队列，由单独的写线程攒成一批在一个事务里写入，不在收发短信的线程上等待磁盘。
+ * 全文索引使用 FTS4 表，索引词由 {@link SearchTokens} 切分。超过保留期或条数上限的旧记录由写线程
+ * 每次删除一小批，空闲时再继续，不会一次长时间锁住数据库。
+ */
+public class MessageArchive {
+
+    private static final String TAG = "MessageArchive";
+
+    public static final String DB_NAME = "archive.db";
+    private static final int DB_VERSION = 1;
+
+    public static final int STATUS_QUEUED = 0;
+    public static final int STATUS_DELIVERED = 1;
+    public static final int STATUS_RETRYING = 2;
+    public static final int STATUS_FAILED = 3;
+    public static final int STATUS_DROPPED = 4;
+
+    public static final long DEFAULT_RETENTION_MILLIS = 90L * 24 * 60 * 60_000;
+    public static final int DEFAULT_MAX_ROWS = 200_000;
+
+    // 单个事务最多写入的记录数
+    private static final int MAX_BATCH = 256;
+    // 每次清理删除的条数和两次清理的间隔
+    private static final int PRUNE_STEP = 500;
+    private static final long PRUNE_INTERVAL_MILLIS = 60_000;
+    // 列表中正文预览的长度
+    private static final int PREVIEW_CHARS = 200;
+
+    /**
+     * 列表中的一行。
+     */
+    public static final class Row {
+        public final long id;
+        public final String sender;
+        public final String preview;
+        public final long receivedAt;
+        public final int status;
+        public final int attempts;
+        public final String route;
+
+        Row(long id, String sender, String preview, long receivedAt, int status, int attempts, String route) {
+            this.id = id;
+            this.sender = sender;
+            this.preview = preview;
+            this.receivedAt = receivedAt;
+            this.status = status;
+            this.attempts = attempts;
+            this.route = route;
+        }
+    }
+
+    /**
+     * 某个通道的一次发送尝试，error 为 null 表示成功。
+     */
+    public static final class Attempt {
+        public final long at;
+        public final String channel;
+        public final long latencyMillis;
+        public final String error;
+
+        Attempt(long at, String channel, long latencyMillis, String error) {
+            this.at = at;
+            this.channel = channel;
+            this.latencyMillis = latencyMillis;
+            this.error = error;
+        }
+    }
+
+    private interface Op {
+        void apply(SQLiteDatabase db);
+    }
+
+    private static final class Helper extends SQLiteOpenHelper {
+        Helper(Context context, String name) {
+            super(context, name, null, DB_VERSION);
+            setWriteAheadLoggingEnabled(true);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE messages (id INTEGER PRIMARY KEY AUTOINCREMENT, trace_id INTEGER NOT NULL UNIQUE,"
+                    + " sender TEXT NOT NULL, body TEXT NOT NULL, received_at INTEGER NOT NULL, route TEXT,"
+                    + " status INTEGER NOT NULL, attempts INTEGER NOT NULL DEFAULT 0, updated_at INTEGER NOT NULL)");
+            db.execSQL("CREATE INDEX messages_received_at ON messages (received_at)");
+            db.execSQL("CREATE TABLE attempts (message_id INTEGER NOT NULL, at INTEGER NOT NULL,"
+                    + " channel TEXT NOT NULL, latency_ms INTEGER NOT NULL, error TEXT)");
+            db.execSQL("CREATE INDEX attempts_message_id ON attempts (message_id)");
+            // docid 与 messages.id 相同，存的是切分后的索引词
+            db.execSQL("CREATE VIRTUAL TABLE messages_fts USING fts4 (sender, body)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+
+    private static MessageArchive instance;
+
+    private final Helper helper;
+    private final long retentionMillis;
+    private final int maxRows;
+    private final BlockingQueue<Op> ops = new LinkedBlockingQueue<>();
+    private Thread writer;
+    private long lastPruneAt;
+
+    public static synchronized MessageArchive getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessageArchive(context.getApplicationContext(), DB_NAME, DEFAULT_RETENTION_MILLIS,
+                    DEFAULT_MAX_ROWS);
+        }
+        return instance;
+    }
+
+    // name 为 null 时使用内存数据库；构造时不打开数据库，第一次读写时才打开
+    public MessageArchive(Context context, String name, long retentionMillis, int maxRows) {
+        this.helper = new Helper(context, name);
+        this.retentionMillis = retentionMillis;
+        this.maxRows = maxRows;
+        // 进程刚启动时不清理，第一次清理在一个间隔之后
+        this.lastPruneAt = System.currentTimeMillis();
+    }
+
+    public void recordQueued(OutboundQueue.Entry entry) {
+        insert(entry.traceId, entry.sender, entry.content, entry.createdAt, entry.route, STATUS_QUEUED);
+    }
+
+    // 被转发规则丢弃的短信，rule 为规则序号
+    public void recordDropped(long traceId, String sender, String body, long receivedAt, int rule) {
+        insert(traceId, sender, body, receivedAt, "drop:" + (rule + 1), STATUS_DROPPED);
+    }
+
+    public void recordAttempt(List<OutboundQueue.Entry> batch, String channel, long latencyMillis, Exception error) {
+        long now = System.currentTimeMillis();
+        long[] traceIds = traceIds(batch);
+        String message = error == null ? null
+                : error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName();
+        submit(db -> {
+            SQLiteStatement insert = db.compileStatement(
+                    "INSERT INTO attempts (message_id, at, channel, latency_ms, error) VALUES (?, ?, ?, ?, ?)");
+            for (long traceId : traceIds) {
+                long id = messageId(db, traceId);
+                if (id < 0) {
+                    continue;
+                }
+                insert.bindLong(1, id);
+                insert.bindLong(2, now);
+                insert.bindString(3, channel);
+                insert.bindLong(4, latencyMillis);
+                if (message != null) {
+                    insert.bindString(5, message);
+                } else {
+                    insert.bindNull(5);
+                }
+                insert.executeInsert();
+            }
+            insert.close();
+        });
+    }
+
+    // 一批短信处理结束后的状态；失败时按已重试次数区分仍在重试还是已放弃
+    public void recordFinished(List<OutboundQueue.Entry> batch, boolean failed) {
+        long now = System.currentTimeMillis();
+        long[] traceIds = traceIds(batch);
+        int[] statuses = new int[batch.size()];
+        int[] attempts = new int[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            OutboundQueue.Entry entry = batch.get(i);
+            attempts[i] = entry.getAttempts();
+            statuses[i] = !failed ? STATUS_DELIVERED
+                    : attempts[i] >= OutboundQueue.MAX_ATTEMPTS ? STATUS_FAILED : STATUS_RETRYING;
+        }
+        submit(db -> {
+            SQLiteStatement update = db.compileStatement(
+                    "UPDATE messages SET status = ?, attempts = ?, updated_at = ? WHERE trace_id = ?");
+            for (int i = 0; i < traceIds.length; i++) {
+                update.bindLong(1, statuses[i]);
+                update.bindLong(2, attempts[i]);
+                update.bindLong(3, now);
+                update.bindLong(4, traceIds[i]);
+                update.executeUpdateDelete();
+            }
+            update.close();
+        });
+    }
+
+    /**
+     * 按时间倒序取一页，beforeId 为上一页最后一行的 id（第一页传 Long.MAX_VALUE）。
+     * query 非空时只返回号码或正文匹配的记录。需在后台线程调用。
+     */
+    public List<Row> page(String query, long beforeId, int limit) {
+        String match = query != null ? SearchTokens.query(query) : null;
+        String sql = "SELECT id, sender, substr(body, 1, " + PREVIEW_CHARS + "), received_at, status, attempts, route"
+                + " FROM messages WHERE id < ?"
+                + (match != null ? " AND id IN (SELECT docid FROM messages_fts WHERE messages_fts MATCH ?)" : "")
+                + " ORDER BY id DESC LIMIT " + limit;
+        String[] args = match != null
+                ? new String[]{Long.toString(beforeId), match}
+                : new String[]{Long.toString(beforeId)};
+        List<Row> rows = new ArrayList<>(limit);
+        try (Cursor cursor = helper.getReadableDatabase().rawQuery(sql, args)) {
+            while (cursor.moveToNext()) {
+                rows.add(new Row(cursor.getLong(0), cursor.getString(1), cursor.getString(2), cursor.getLong(3),
+                        cursor.getInt(4), cursor.getInt(5), cursor.getString(6)));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 是否存档过号码和正文相同、接收时间在 receivedAt 前后 windowMillis 以内的短信，包括被规则丢弃的。
+     * 只查已写入的记录，需要时先 {@link #flush}。需在后台线程调用。
+     */
+    public boolean contains(String sender, String body, long receivedAt, long windowMillis) {
+        try (Cursor cursor = helper.getReadableDatabase().rawQuery(
+                "SELECT 1 FROM messages WHERE received_at BETWEEN ? AND ? AND sender = ? AND body = ? LIMIT 1",
+                new String[]{Long.toString(receivedAt - windowMillis), Long.toString(receivedAt + windowMillis),
+                        sender, body})) {
+            return cursor.moveToFirst();
+        }
+    }
+
+    // 完整正文，记录已被清理时返回 null
+    public String body(long id) {
+        try (Cursor cursor = helper.getReadableDatabase().rawQuery(
+                "SELECT body FROM messages WHERE id = ?", new String[]{Long.toString(id)})) {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        }
+    }
+
+    public List<Attempt> attempts(long id) {
+        List<Attempt> attempts = new ArrayList<>();
+        try (Cursor cursor = helper.getReadableDatabase().rawQuery(
+                "SELECT at, channel, latency_ms, error FROM attempts WHERE message_id = ? ORDER BY rowid",
+                new String[]{Long.toString(id)})) {
+            while (cursor.moveToNext()) {
+                attempts.add(new Attempt(cursor.getLong(0), cursor.getString(1), cursor.getLong(2),
+                        cursor.getString(3)));
+            }
+        }
+        return attempts;
+    }
+
+    /**
+     * 等待此前提交的记录全部写入。
+     */
+    public boolean flush(long timeoutMillis) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        submit(db -> latch.countDown());
+        return latch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 删除一批过期或超出条数上限的记录，返回删除的条数；返回 PRUNE_STEP 说明可能还有。
+     */
+    int pruneStep(long now) {
+        SQLiteDatabase db = helper.getWritableDatabase();
+        List<Long> ids = new ArrayList<>(PRUNE_STEP);
+        String[] cutoff = {Long.toString(now - retentionMillis)};
+        try (Cursor cursor = db.rawQuery("SELECT id FROM messages WHERE received_at < ? ORDER BY received_at LIMIT "
+                + PRUNE_STEP, cutoff)) {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        }
+        if (ids.size() < PRUNE_STEP) {
+            // 过期的删完后仍超出上限，再删未过期中最旧的
+            long excess = DatabaseUtils.queryNumEntries(db, "messages") - ids.size() - maxRows;
+            if (excess > 0) {
+                try (Cursor cursor = db.rawQuery("SELECT id FROM messages WHERE received_at >= ? ORDER BY id LIMIT "
+                        + Math.min(excess, PRUNE_STEP - ids.size()), cutoff)) {
+                    while (cursor.moveToNext()) {
+                        ids.add(cursor.getLong(0));
+                    }
+                }
+            }
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        StringBuilder in = new StringBuilder();
+        for (long id : ids) {
+            in.append(in.length() > 0 ? "," : "").append(id);
+        }
+        db.beginTransaction();
+        try {
+            db.execSQL("DELETE FROM attempts WHERE message_id IN (" + in + ")");
+            db.execSQL("DELETE FROM messages_fts WHERE docid IN (" + in + ")");
+            db.execSQL("DELETE FROM messages WHERE id IN (" + in + ")");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return ids.size();
+    }
+
+    private void insert(long traceId, String sender, String body, long receivedAt, String route, int status) {
+        long now = System.currentTimeMillis();
+        submit(db -> {
+            ContentValues values = new ContentValues();
+            values.put("trace_id", traceId);
+            values.put("sender", sender);
+            values.put("body", body);
+            values.put("received_at", receivedAt);
+            values.put("route", route);
+            values.put("status", status);
+            values.put("updated_at", now);
+            long id = db.insertWithOnConflict("messages", null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            if (id < 0) {
+                return;
+            }
+            ContentValues terms = new ContentValues();
+            terms.put("docid", id);
+            terms.put("sender", SearchTokens.index(sender));
+            terms.put("body", SearchTokens.index(body));
+            db.insert("messages_fts", null, terms);
+        });
+    }
+
+    private void submit(Op op) {
+        ops.add(op);
+        synchronized (this) {
+            if (writer == null) {
+                writer = new Thread(this::writeLoop, "sms-archive");
+                writer.setDaemon(true);
+                writer.start();
+            }
+        }
+    }
+
+    private void writeLoop() {
+        List<Op> batch = new ArrayList<>(MAX_BATCH);
+        boolean pruneMore = false;
+        while (true) {
+            try {
+                // 清理还没做完时不等待，队列空闲就接着删下一批
+                Op first = pruneMore ? ops.poll() : ops.poll(PRUNE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    ops.drainTo(batch, MAX_BATCH - 1);
+                    write(batch);
+                    batch.clear();
+                }
+                long now = System.currentTimeMillis();
+                if (pruneMore || now - lastPruneAt >= PRUNE_INTERVAL_MILLIS) {
+                    lastPruneAt = now;
+                    pruneMore = pruneStep(now) == PRUNE_STEP;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // 存档失败不影响转发，丢弃这一批
+                Log.w(TAG, "写入转发记录失败", e);
+                batch.clear();
+                pruneMore = false;
+            }
+        }
+    }
+
+    private void write(List<Op> batch) {
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Op op : batch) {
+                op.apply(db);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static long messageId(SQLiteDatabase db, long traceId) {
+        try (Cursor cursor = db.rawQuery("SELECT id FROM messages WHERE trace_id = ?",
+                new String[]{Long.toString(traceId)})) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        }
+    }
+
+    private static long[] traceIds(List<OutboundQueue.Entry> batch) {
+        long[] ids = new long[batch.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = batch.get(i).traceId;
+        }
+        return ids;
+    }
+}
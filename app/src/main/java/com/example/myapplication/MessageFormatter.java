@@ -0,0 +1,209 @@
+package com.example.myapplication;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 生成转发邮件的主题和正文。单条短信保持原有格式，多条短信生成摘要；设置了 {@link MessageTemplate}
+ * 时，单条短信的主题和每条短信的正文按模板生成。超过 {@link #MAX_INLINE_BATCH} 条的积压批次正文只放统计，短信本身放在附件里。
+ */
+public final class MessageFormatter {
+
+    // 摘要主题中最多列出的发件人数
+    private static final int MAX_SUBJECT_SENDERS = 3;
+    // 正文中直接列出的最大条数，与合并窗口的批次上限一致；更大的批次只来自积压模式，改用附件
+    public static final int MAX_INLINE_BATCH = 200;
+    // 积压摘要中列出的发件人数
+    private static final int MAX_SUMMARY_SENDERS = 10;
+
+    private MessageFormatter() {
+    }
+
+    public static String subject(List<OutboundQueue.Entry> batch) {
+        return subject(batch, null);
+    }
+
+    public static String subject(List<OutboundQueue.Entry> batch, MessageTemplate template) {
+        if (batch.size() == 1) {
+            OutboundQueue.Entry entry = batch.get(0);
+            if (template != null) {
+                return template.render(entry);
+            }
+            if (entry.code != null) {
+                // 验证码放在主题最前面，通知栏里不用点开就能看到
+                return "验证码 " + entry.code + " - 来自 [" + entry.sender + "]";
+            }
+            return "收到来自 [" + entry.sender + "] 的新短信";
+        }
+        Set<String> senders = new LinkedHashSet<>();
+        for (OutboundQueue.Entry entry : batch) {
+            senders.add(entry.sender);
+        }
+        StringBuilder sb = new StringBuilder("收到 ").append(batch.size())
+                .append(isBacklog(batch) ? " 条积压短信（见附件） [" : " 条新短信 [");
+        int i = 0;
+        for (String sender : senders) {
+            if (i == MAX_SUBJECT_SENDERS) {
+                sb.append(" 等").append(senders.size()).append("个号码");
+                break;
+            }
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(sender);
+            i++;
+        }
+        return sb.append(']').toString();
+    }
+
+    public static String body(List<OutboundQueue.Entry> batch) {
+        return body(batch, null);
+    }
+
+    public static String body(List<OutboundQueue.Entry> batch, MessageTemplate template) {
+        if (batch.size() == 1) {
+            OutboundQueue.Entry entry = batch.get(0);
+            if (template != null) {
+                return template.render(entry);
+            }
+            return "发件人: " + entry.sender + "\n\n" + "短信内容:\n" + entry.content;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss", Locale.getDefault());
+        StringBuilder sb = new StringBuilder();
+        sb.append("共 ").append(batch.size()).append(" 条短信:\n");
+        for (int i = 0; i < batch.size(); i++) {
+            OutboundQueue.Entry entry = batch.get(i);
+            sb.append("\n----- ").append(i + 1).append('/').append(batch.size()).append(" -----\n");
+            if (template != null) {
+                template.render(entry, sb);
+                sb.append('\n');
+                continue;
+            }
+            sb.append("发件人: ").append(entry.sender).append('\n');
+            sb.append("时间: ").append(format.format(new Date(entry.createdAt))).append('\n');
+            sb.append("短信内容:\n").append(entry.content).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static boolean isBacklog(List<OutboundQueue.Entry> batch) {
+        return batch.size() > MAX_INLINE_BATCH;
+    }
+
+    /**
+     * 积压批次的正文：条数、时间范围、验证码条数和发件人排行，只遍历一遍，不复制短信内容。
+     */
+    public static String backlogSummary(List<OutboundQueue.Entry> batch, String attachmentName) {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        int codes = 0;
+        Map<String, Integer> counts = new HashMap<>();
+        for (OutboundQueue.Entry entry : batch) {
+            first = Math.min(first, entry.createdAt);
+            last = Math.max(last, entry.createdAt);
+            if (entry.code != null) {
+                codes++;
+            }
+            counts.merge(entry.sender, 1, Integer::sum);
+        }
+        List<Map.Entry<String, Integer>> senders = new ArrayList<>(counts.entrySet());
+        senders.sort((a, b) -> b.getValue() - a.getValue());
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+        StringBuilder sb = new StringBuilder();
+        sb.append("网络中断期间积压了较多短信，共 ").append(batch.size()).append(" 条，已打包为附件 ")
+                .append(attachmentName).append("（gzip 压缩的 JSON Lines，每行一条）。\n\n");
+        sb.append("时间范围: ").append(format.format(new Date(first))).append(" ~ ")
+                .append(format.format(new Date(last))).append('\n');
+        sb.append("验证码短信: ").append(codes).append(" 条\n");
+        sb.append("发件号码: ").append(senders.size()).append(" 个\n\n");
+        sb.append("条数最多的号码:\n");
+        for (int i = 0; i < senders.size() && i < MAX_SUMMARY_SENDERS; i++) {
+            sb.append("  ").append(senders.get(i).getKey()).append("  ").append(senders.get(i).getValue())
+                    .append(" 条\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 一批短信的幂等键：由各条短信的跟踪 id 决定，同一批重发时不变。
+     * 用作邮件的 Message-ID 和 Webhook 的 Idempotency-Key，接收端据此丢弃重复投递。
+     */
+    public static String idempotencyKey(List<OutboundQueue.Entry> batch) {
+        if (batch.size() == 1) {
+            return Long.toHexString(batch.get(0).traceId);
+        }
+        long h = 0;
+        for (OutboundQueue.Entry entry : batch) {
+            h = Long.rotateLeft(h, 31) ^ entry.traceId;
+            h *= 0x9e3779b97f4a7c15L;
+        }
+        return Long.toHexString(h);
+    }
+
+    // Webhook 和局域网 Socket 使用的 JSON 格式，一条短信一个对象；key 是该短信的幂等键
+    public static String toJson(OutboundQueue.Entry entry) {
+        StringBuilder sb = new StringBuilder(96 + entry.content.length());
+        sb.append("{\"id\":").append(entry.id);
+        sb.append(",\"key\":\"").append(Long.toHexString(entry.traceId)).append('"');
+        sb.append(",\"sender\":");
+        appendJsonString(sb, entry.sender);
+        sb.append(",\"content\":");
+        appendJsonString(sb, entry.content);
+        sb.append(",\"receivedAt\":").append(entry.createdAt);
+        if (entry.code != null) {
+            sb.append(",\"code\":");
+            appendJsonString(sb, entry.code);
+        }
+        return sb.append('}').toString();
+    }
+
+    public static String toJson(List<OutboundQueue.Entry> batch) {
+        StringBuilder sb = new StringBuilder("{\"messages\":[");
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(toJson(batch.get(i)));
+        }
+        return sb.append("]}").toString();
+    }
+
+    static void appendJsonString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.myapplication;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 用户自定义的邮件主题或正文模板，保存时编译一次，发送时只按编译好的片段拼接。
+ * <p>
+ * 可用的占位符：{sender} 号码、{content} 短信内容、{code} 验证码（没有时为空）、
+ * {time} 接收时间（yyyy-MM-dd HH:mm:ss）。"{{" 和 "}}" 表示字面的花括号。
+ * <pre>
+ * [{code}] {sender}
+ * {time} 收到来自 {sender} 的短信：{content}
+ * </pre>
+ */
+public final class MessageTemplate {
+
+    public static final String PREF_SUBJECT = "subject_template";
+    public static final String PREF_BODY = "body_template";
+
+    private static final String[] NAMES = {"sender", "content", "code", "time"};
+    private static final int SENDER = 0;
+    private static final int CONTENT = 1;
+    private static final int CODE = 2;
+    private static final int TIME = 3;
+
+    private static final ThreadLocal<SimpleDateFormat> TIME_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+        }
+    };
+
+    public final String text;
+    // 字面文本和占位符交替：literals[i] 之后是 fields[i]，最后一段字面文本没有对应的占位符
+    private final String[] literals;
+    private final int[] fields;
+
+    private MessageTemplate(String text, String[] literals, int[] fields) {
+        this.text = text;
+        this.literals = literals;
+        this.fields = fields;
+    }
+
+    /**
+     * 编译模板，空白文本返回 null 表示使用默认格式。占位符拼错时抛出 IllegalArgumentException。
+     */
+    public static MessageTemplate compile(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return null;
+        }
+        List<String> literals = new ArrayList<>();
+        List<Integer> fields = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if ((c == '{' || c == '}') && i + 1 < text.length() && text.charAt(i + 1) == c) {
+                literal.append(c);
+                i += 2;
+            } else if (c == '{') {
+                int end = text.indexOf('}', i);
+                if (end < 0) {
+                    throw new IllegalArgumentException("模板中的 { 没有对应的 }");
+                }
+                literals.add(literal.toString());
+                literal.setLength(0);
+                fields.add(field(text.substring(i + 1, end)));
+                i = end + 1;
+            } else {
+                literal.append(c);
+                i++;
+            }
+        }
+        literals.add(literal.toString());
+        int[] indices = new int[fields.size()];
+        for (int j = 0; j < indices.length; j++) {
+            indices[j] = fields.get(j);
+        }
+        return new MessageTemplate(text, literals.toArray(new String[0]), indices);
+    }
+
+    private static int field(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("未知的占位符 {" + name + "}，可用 {sender} {content} {code} {time}");
+    }
+
+    public String render(OutboundQueue.Entry entry) {
+        StringBuilder sb = new StringBuilder(text.length() + entry.content.length());
+        render(entry, sb);
+        return sb.toString();
+    }
+
+    public void render(OutboundQueue.Entry entry, StringBuilder sb) {
+        for (int i = 0; i < fields.length; i++) {
+            sb.append(literals[i]);
+            switch (fields[i]) {
+                case SENDER:
+                    sb.append(entry.sender);
+                    break;
+                case CONTENT:
+                    sb.append(entry.content);
+                    break;
+                case CODE:
+                    if (entry.code != null) {
+                        sb.append(entry.code);
+                    }
+                    break;
+                case TIME:
+                    sb.append(TIME_FORMAT.get().format(new Date(entry.createdAt)));
+                    break;
+                default:
+                    throw new AssertionError(fields[i]);
+            }
+        }
+        sb.append(literals[fields.length]);
+    }
+}
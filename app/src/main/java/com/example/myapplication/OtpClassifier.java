@@ -0,0 +1,90 @@
+package com.example.myapplication;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 识别验证码短信并提取验证码，在 SmsReceiver 交给发送队列之前调用。
+ * <p>
+ * 先用 {@link KeywordMatcher} 查找"验证码/code/OTP"等关键词，再在正文中找离关键词最近的
+ * 4~8 位连续数字。{@link #classify} 的返回值把验证码位置打包在一个 long 中，整个过程不分配对象。
+ */
+public final class OtpClassifier {
+
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_HIGH = 1;
+
+    public static final long NO_CODE = -1L;
+
+    private static final int MIN_CODE_LENGTH = 4;
+    private static final int MAX_CODE_LENGTH = 8;
+
+    public static final OtpClassifier DEFAULT = new OtpClassifier(Arrays.asList(
+            "验证码", "校验码", "动态码", "动态密码", "确认码", "激活码", "安全码", "认证码", "短信码",
+            "code", "otp", "passcode", "verification", "one-time"));
+
+    private final KeywordMatcher matcher;
+
+    public OtpClassifier(List<String> keywords) {
+        this.matcher = new KeywordMatcher(keywords);
+    }
+
+    /**
+     * 返回验证码在正文中的位置，高 32 位为起始下标、低 32 位为结束下标（不含）；
+     * 不是验证码短信时返回 {@link #NO_CODE}。
+     */
+    public long classify(CharSequence text) {
+        int keywordEnd = matcher.firstMatchEnd(text);
+        if (keywordEnd < 0) {
+            return NO_CODE;
+        }
+        long best = NO_CODE;
+        int bestDistance = Integer.MAX_VALUE;
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            if (!isDigit(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < n && isDigit(text.charAt(i))) {
+                i++;
+            }
+            int length = i - start;
+            // 排除金额、卡号之类紧挨着字母或小数点的数字，句末的句点不算
+            boolean bounded = (start == 0 || !isWordChar(text.charAt(start - 1))
+                    && !(text.charAt(start - 1) == '.' && start >= 2 && isDigit(text.charAt(start - 2))))
+                    && (i == n || !isWordChar(text.charAt(i))
+                    && !(text.charAt(i) == '.' && i + 1 < n && isDigit(text.charAt(i + 1))));
+            if (length >= MIN_CODE_LENGTH && length <= MAX_CODE_LENGTH && bounded) {
+                int distance = start >= keywordEnd ? start - keywordEnd : keywordEnd - i;
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = ((long) start << 32) | i;
+                }
+            }
+        }
+        return best;
+    }
+
+    public static int priorityOf(long classification) {
+        return classification == NO_CODE ? PRIORITY_NORMAL : PRIORITY_HIGH;
+    }
+
+    // 仅在确实需要时才截取验证码字符串
+    public static String extractCode(CharSequence text, long classification) {
+        if (classification == NO_CODE) {
+            return null;
+        }
+        return text.subSequence((int) (classification >>> 32), (int) classification).toString();
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWordChar(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
@@ -0,0 +1,549 @@
+package com.example.myapplication;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * 持久化的待发送队列，基于追加写日志文件实现。
+ * <p>
+ * 每条短信在 {@link #enqueue} 返回前已写入并 fsync，只有发送成功后才 {@link #ack}。
+ * 进程被杀后重新打开时按入队顺序恢复所有未确认的条目。
+ * 重试 {@link #MAX_ATTEMPTS} 次仍失败的条目转为死信，不再自动发送，也不删除，
+ * 修改配置后由 {@link #requeueDeadLetters} 重新投递。
+ * 记录格式：[长度 int][CRC32 int][类型 byte][id long][正文...]，尾部写了一半的记录在恢复时被截掉。
+ */
+public class OutboundQueue {
+
+    public static final String JOURNAL_FILE = "outbound_queue.journal";
+
+    // 超过该次数仍失败的条目转为死信，防止单条异常消息无限重试
+    public static final int MAX_ATTEMPTS = 20;
+    // 最多保留的死信条数，超出时丢弃最早的；短信内容仍在转发记录中
+    static final int MAX_DEAD_LETTERS = 1000;
+
+    private static final byte REC_ENQUEUE = 1;
+    private static final byte REC_ACK = 2;
+    private static final byte REC_RETRY = 3;
+    private static final byte REC_DELIVERED = 4;
+    private static final byte REC_DEAD = 5;
+    private static final byte REC_REVIVE = 6;
+
+    // 入队记录中的字段标签，未知标签在读取时跳过，便于以后追加字段
+    private static final byte TAG_SENDER = 1;
+    private static final byte TAG_CONTENT = 2;
+    private static final byte TAG_PRIORITY = 3;
+    private static final byte TAG_CODE = 4;
+    private static final byte TAG_ROUTE = 5;
+    private static final byte TAG_TRACE = 6;
+    private static final byte TAG_RECEIVED_NANOS = 7;
+
+    private static final int COMPACT_THRESHOLD = 256;
+
+    private static OutboundQueue instance;
+
+    public static class Entry {
+        public final long id;
+        public final long createdAt;
+        public final String sender;
+        public final String content;
+        // OtpClassifier.PRIORITY_*，以及提取出的验证码（没有则为 null）
+        public final int priority;
+        public final String code;
+        // 规则引擎给出的路由（mailto:地址 或 channel:通道名），null 表示默认收件人
+        public final String route;
+        // 跟踪 id 和接收时的单调时钟，用于分阶段统计延迟
+        public final long traceId;
+        public final long receivedAtNanos;
+        int attempts;
+        long nextAttemptAt;
+        boolean inFlight;
+        // 已成功送达的转发通道，重试时跳过
+        Set<String> delivered = Collections.emptySet();
+
+        Entry(long id, long createdAt, String sender, String content, int priority, String code, String route,
+              long traceId, long receivedAtNanos) {
+            this.id = id;
+            this.createdAt = createdAt;
+            this.sender = sender;
+            this.content = content;
+            this.priority = priority;
+            this.code = code;
+            this.route = route;
+            this.traceId = traceId;
+            this.receivedAtNanos = receivedAtNanos;
+        }
+
+        public boolean isHighPriority() {
+            return priority >= OtpClassifier.PRIORITY_HIGH;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public long getNextAttemptAt() {
+            return nextAttemptAt;
+        }
+
+        public boolean isDeliveredTo(String channel) {
+            return delivered.contains(channel);
+        }
+    }
+
+    private final File file;
+    private final RetryBackoff backoff;
+    private final LinkedHashMap<Long, Entry> pending = new LinkedHashMap<>();
+    // 放弃自动重试的条目，按转为死信的先后排列
+    private final LinkedHashMap<Long, Entry> deadLetters = new LinkedHashMap<>();
+    private FileChannel channel;
+    private long nextId = 1;
+    private int deadRecords;
+
+    public static synchronized OutboundQueue getInstance(Context context) throws IOException {
+        if (instance == null) {
+            File file = new File(context.getApplicationContext().getFilesDir(), JOURNAL_FILE);
+            instance = new OutboundQueue(file, new RetryBackoff(5_000L, 30 * 60_000L));
+        }
+        return instance;
+    }
+
+    public OutboundQueue(File file, RetryBackoff backoff) throws IOException {
+        this.file = file;
+        this.backoff = backoff;
+        long validLength = replay();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (channel.size() > validLength) {
+            // 崩溃时写了一半的记录
+            channel.truncate(validLength);
+            channel.force(false);
+        }
+        channel.position(validLength);
+    }
+
+    public Entry enqueue(String sender, String content, long now) throws IOException {
+        return enqueue(sender, content, OtpClassifier.PRIORITY_NORMAL, null, null, now);
+    }
+
+    public Entry enqueue(String sender, String content, int priority, String code, String route, long now)
+            throws IOException {
+        return enqueue(sender, content, priority, code, route, 0, System.nanoTime(), now);
+    }
+
+    // traceId 为 0 时使用条目 id
+    public synchronized Entry enqueue(String sender, String content, int priority, String code, String route,
+                                      long traceId, long receivedAtNanos, long now) throws IOException {
+        long id = nextId++;
+        Entry entry = new Entry(id, now, sender, content, priority, code, route, traceId != 0 ? traceId : id,
+                receivedAtNanos);
+        entry.nextAttemptAt = now;
+        append(encodeEnqueue(entry));
+        pending.put(entry.id, entry);
+        return entry;
+    }
+
+    /**
+     * 按入队顺序取出第一条已到重试时间且未在发送中的条目，并标记为发送中。
+     */
+    public Entry claimNext(long now) {
+        return claimNext(now, false);
+    }
+
+    // highOnly 为 true 时只取高优先级（验证码）条目，供快速通道使用
+    public synchronized Entry claimNext(long now, boolean highOnly) {
+        for (Entry entry : pending.values()) {
+            if (!entry.inFlight && entry.nextAttemptAt <= now && (!highOnly || entry.isHighPriority())) {
+                entry.inFlight = true;
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    // 放回尚未尝试发送的条目（例如发送线程池已满），不计入失败次数
+    public synchronized void release(long id) {
+        Entry entry = pending.get(id);
+        if (entry != null) {
+            entry.inFlight = false;
+        }
+    }
+
+    public synchronized void ack(long id) throws IOException {
+        if (pending.remove(id) == null) {
+            return;
+        }
+        append(encodeSimple(REC_ACK, id, null));
+        deadRecords++;
+        maybeCompact();
+    }
+
+    /**
+     * 记录条目已通过某个通道送达。条目仍留在队列中，直到所有目标通道都成功后再 {@link #ack}。
+     */
+    public synchronized void markDelivered(long id, String channel) throws IOException {
+        Entry entry = pending.get(id);
+        if (entry == null || entry.delivered.contains(channel)) {
+            return;
+        }
+        addDelivered(entry, channel);
+        append(encodeDelivered(id, channel));
+        deadRecords++;
+    }
+
+    /**
+     * 记录一次发送失败。返回下一次重试的时间，达到重试上限转为死信时返回 -1。
+     */
+    public synchronized long fail(long id, long now) throws IOException {
+        Entry entry = pending.get(id);
+        if (entry == null) {
+            return -1;
+        }
+        entry.inFlight = false;
+        entry.attempts++;
+        if (entry.attempts >= MAX_ATTEMPTS) {
+            pending.remove(id);
+            deadLetters.put(id, entry);
+            append(encodeSimple(REC_DEAD, id, ByteBuffer.allocate(4).putInt(entry.attempts).array()));
+            trimDeadLetters();
+            return -1;
+        }
+        entry.nextAttemptAt = now + backoff.delayMillis(entry.attempts);
+        ByteBuffer extra = ByteBuffer.allocate(12).putInt(entry.attempts).putLong(entry.nextAttemptAt);
+        append(encodeSimple(REC_RETRY, id, extra.array()));
+        deadRecords++;
+        return entry.nextAttemptAt;
+    }
+
+    /**
+     * 让所有仍在退避中的条目立即可取，例如网络恢复后。只改内存中的时间，返回受影响的条数。
+     */
+    public synchronized int retryNow(long now) {
+        int count = 0;
+        for (Entry entry : pending.values()) {
+            if (!entry.inFlight && entry.nextAttemptAt > now) {
+                entry.nextAttemptAt = now;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 把所有死信放回队列立即发送，重试次数清零，已送达的通道仍然跳过。返回放回的条数。
+     */
+    public synchronized int requeueDeadLetters(long now) throws IOException {
+        int count = 0;
+        for (Entry entry : new ArrayList<>(deadLetters.values())) {
+            deadLetters.remove(entry.id);
+            entry.attempts = 0;
+            entry.nextAttemptAt = now;
+            pending.put(entry.id, entry);
+            append(encodeSimple(REC_REVIVE, entry.id, ByteBuffer.allocate(8).putLong(now).array()));
+            deadRecords++;
+            count++;
+        }
+        return count;
+    }
+
+    // 待发送的条数，不含死信
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    public synchronized int deadLetterCount() {
+        return deadLetters.size();
+    }
+
+    public synchronized List<Entry> deadLetters() {
+        return new ArrayList<>(deadLetters.values());
+    }
+
+    public synchronized boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    // 最早的下一次重试时间，队列为空时返回 -1
+    public synchronized long nextAttemptAt() {
+        long earliest = -1;
+        for (Entry entry : pending.values()) {
+            if (!entry.inFlight && (earliest < 0 || entry.nextAttemptAt < earliest)) {
+                earliest = entry.nextAttemptAt;
+            }
+        }
+        return earliest;
+    }
+
+    public synchronized List<Entry> snapshot() {
+        return new ArrayList<>(pending.values());
+    }
+
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private long replay() throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > 1 << 20) {
+                    break;
+                }
+                int checksum;
+                byte[] body = new byte[length];
+                try {
+                    checksum = in.readInt();
+                    in.readFully(body);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(body, 0, body.length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                apply(body);
+                valid += 8 + length;
+            }
+        }
+        return valid;
+    }
+
+    private void apply(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        byte type = in.readByte();
+        long id = in.readLong();
+        nextId = Math.max(nextId, id + 1);
+        switch (type) {
+            case REC_ENQUEUE: {
+                long createdAt = in.readLong();
+                String sender = "";
+                String content = "";
+                int priority = OtpClassifier.PRIORITY_NORMAL;
+                String code = null;
+                String route = null;
+                long traceId = id;
+                long receivedAtNanos = 0;
+                while (in.available() > 0) {
+                    byte tag = in.readByte();
+                    String value = in.readUTF();
+                    if (tag == TAG_SENDER) {
+                        sender = value;
+                    } else if (tag == TAG_CONTENT) {
+                        content = value;
+                    } else if (tag == TAG_PRIORITY) {
+                        priority = Integer.parseInt(value);
+                    } else if (tag == TAG_CODE) {
+                        code = value;
+                    } else if (tag == TAG_ROUTE) {
+                        route = value;
+                    } else if (tag == TAG_TRACE) {
+                        traceId = Long.parseLong(value);
+                    } else if (tag == TAG_RECEIVED_NANOS) {
+                        receivedAtNanos = Long.parseLong(value);
+                    }
+                }
+                Entry entry = new Entry(id, createdAt, sender, content, priority, code, route, traceId,
+                        receivedAtNanos);
+                entry.nextAttemptAt = createdAt;
+                pending.put(id, entry);
+                break;
+            }
+            case REC_ACK:
+                if (pending.remove(id) == null) {
+                    deadLetters.remove(id);
+                }
+                deadRecords++;
+                break;
+            case REC_RETRY: {
+                Entry entry = pending.get(id);
+                if (entry != null) {
+                    entry.attempts = in.readInt();
+                    entry.nextAttemptAt = in.readLong();
+                }
+                deadRecords++;
+                break;
+            }
+            case REC_DEAD: {
+                Entry entry = pending.remove(id);
+                if (entry != null) {
+                    entry.attempts = in.readInt();
+                    deadLetters.put(id, entry);
+                }
+                break;
+            }
+            case REC_REVIVE: {
+                Entry entry = deadLetters.remove(id);
+                if (entry != null) {
+                    entry.attempts = 0;
+                    entry.nextAttemptAt = in.readLong();
+                    pending.put(id, entry);
+                }
+                deadRecords++;
+                break;
+            }
+            case REC_DELIVERED: {
+                Entry entry = pending.get(id);
+                if (entry != null) {
+                    addDelivered(entry, in.readUTF());
+                }
+                deadRecords++;
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    // 死信超过上限时确认掉最早的
+    private void trimDeadLetters() throws IOException {
+        while (deadLetters.size() > MAX_DEAD_LETTERS) {
+            long eldest = deadLetters.keySet().iterator().next();
+            deadLetters.remove(eldest);
+            append(encodeSimple(REC_ACK, eldest, null));
+            deadRecords++;
+        }
+        maybeCompact();
+    }
+
+    private static void addDelivered(Entry entry, String channel) {
+        if (entry.delivered.isEmpty()) {
+            entry.delivered = new HashSet<>(4);
+        }
+        entry.delivered.add(channel);
+    }
+
+    private byte[] encodeEnqueue(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + entry.content.length() * 3);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(REC_ENQUEUE);
+        out.writeLong(entry.id);
+        out.writeLong(entry.createdAt);
+        out.writeByte(TAG_SENDER);
+        out.writeUTF(entry.sender);
+        out.writeByte(TAG_CONTENT);
+        out.writeUTF(entry.content);
+        if (entry.priority != OtpClassifier.PRIORITY_NORMAL) {
+            out.writeByte(TAG_PRIORITY);
+            out.writeUTF(String.valueOf(entry.priority));
+        }
+        if (entry.code != null) {
+            out.writeByte(TAG_CODE);
+            out.writeUTF(entry.code);
+        }
+        if (entry.route != null) {
+            out.writeByte(TAG_ROUTE);
+            out.writeUTF(entry.route);
+        }
+        if (entry.traceId != entry.id) {
+            out.writeByte(TAG_TRACE);
+            out.writeUTF(String.valueOf(entry.traceId));
+        }
+        out.writeByte(TAG_RECEIVED_NANOS);
+        out.writeUTF(String.valueOf(entry.receivedAtNanos));
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeSimple(byte type, long id, byte[] extra) {
+        ByteBuffer buffer = ByteBuffer.allocate(9 + (extra != null ? extra.length : 0));
+        buffer.put(type).putLong(id);
+        if (extra != null) {
+            buffer.put(extra);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] encodeDelivered(long id, String channel) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + channel.length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(REC_DELIVERED);
+        out.writeLong(id);
+        out.writeUTF(channel);
+        return bytes.toByteArray();
+    }
+
+    private void append(byte[] body) throws IOException {
+        writeRecord(channel, body);
+        channel.force(false);
+    }
+
+    private static void writeRecord(FileChannel target, byte[] body) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + body.length);
+        buffer.putInt(body.length).putInt((int) crc.getValue()).put(body);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    // 已确认的记录过多时，把仍待发送的条目重写到新文件并原子替换
+    private void maybeCompact() throws IOException {
+        if (deadRecords < COMPACT_THRESHOLD || deadRecords < pending.size() + deadLetters.size()) {
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // 保留 id 水位，避免重启后复用已发送条目的 id
+            writeRecord(out, encodeSimple(REC_ACK, nextId - 1, null));
+            for (Entry entry : pending.values()) {
+                writeEntry(out, entry);
+            }
+            for (Entry entry : deadLetters.values()) {
+                writeEntry(out, entry);
+                writeRecord(out, encodeSimple(REC_DEAD, entry.id,
+                        ByteBuffer.allocate(4).putInt(entry.attempts).array()));
+            }
+            out.force(true);
+        }
+        // 先替换再关闭旧文件：替换失败时旧文件和 channel 都原样保留，之后的写入照常追加
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("无法替换队列日志文件: " + file);
+        }
+        channel.close();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        deadRecords = 0;
+    }
+
+    private void writeEntry(FileChannel out, Entry entry) throws IOException {
+        writeRecord(out, encodeEnqueue(entry));
+        if (entry.attempts > 0) {
+            ByteBuffer extra = ByteBuffer.allocate(12).putInt(entry.attempts).putLong(entry.nextAttemptAt);
+            writeRecord(out, encodeSimple(REC_RETRY, entry.id, extra.array()));
+        }
+        for (String delivered : entry.delivered) {
+            writeRecord(out, encodeDelivered(entry.id, delivered));
+        }
+    }
+}
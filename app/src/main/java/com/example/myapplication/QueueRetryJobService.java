@@ -0,0 +1,106 @@
+package com.example.myapplication;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 发送失败后按退避时间唤醒的重试任务。由 JobScheduler 调度，联网后才会执行，设备重启后依然有效。
+ * 另有两个不要求联网的任务：长短信片段等待超时后发出已收到的部分，以及补发收件箱中漏转的短信。
+ */
+public class QueueRetryJobService extends JobService {
+
+    private static final String TAG = "QueueRetryJobService";
+    private static final int JOB_ID = 1001;
+    private static final int FRAGMENT_JOB_ID = 1002;
+    private static final int BACKFILL_JOB_ID = 1003;
+    // 系统给单次任务的执行时间有限，提前结束，剩余条目由发送线程继续处理
+    private static final long MAX_RUN_MILLIS = 5 * 60_000L;
+
+    // 三种任务可能同时执行，按任务 id 分别记录各自的工作线程
+    private final Map<Integer, Thread> workers = new ConcurrentHashMap<>();
+
+    // 以同一个 JOB_ID 调度，后一次调用会替换之前尚未执行的任务
+    public static void schedule(Context context, long delayMillis) {
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, QueueRetryJobService.class))
+                .setMinimumLatency(Math.max(delayMillis, 0))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setPersisted(true)
+                .build();
+        JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+        if (scheduler != null) {
+            scheduler.schedule(job);
+        }
+    }
+
+    // 长短信片段的超时检查，同样以固定 id 调度，只保留最近一次
+    public static void scheduleFragmentFlush(Context context, long delayMillis) {
+        JobInfo job = new JobInfo.Builder(FRAGMENT_JOB_ID, new ComponentName(context, QueueRetryJobService.class))
+                .setMinimumLatency(Math.max(delayMillis, 0))
+                .setPersisted(true)
+                .build();
+        JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+        if (scheduler != null) {
+            scheduler.schedule(job);
+        }
+    }
+
+    // 收件箱补发，启动应用、发送会话结束或手动触发时调度；重启后最容易漏收短信，任务需保留到重启之后
+    public static void scheduleBackfill(Context context, long delayMillis) {
+        JobInfo job = new JobInfo.Builder(BACKFILL_JOB_ID, new ComponentName(context, QueueRetryJobService.class))
+                .setMinimumLatency(Math.max(delayMillis, 0))
+                .setPersisted(true)
+                .build();
+        JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+        if (scheduler != null) {
+            scheduler.schedule(job);
+        }
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        Log.d(TAG, "开始重试发送队列中的短信。");
+        int jobId = params.getJobId();
+        Thread worker = new Thread(() -> {
+            try {
+                // 先把等待超时的长短信片段写入队列，随后和其他条目一起发送
+                SmsIntake.flushExpiredFragments(this);
+                // 与 EmailService 共用同一个发送线程池，避免并发重复发送
+                SendDispatcher dispatcher = EmailService.getDispatcher(this);
+                if (jobId == BACKFILL_JOB_ID) {
+                    // 每写入一页就唤醒发送线程，边读边发
+                    SmsIntake.backfillInbox(this, dispatcher::pump);
+                }
+                dispatcher.pump();
+                dispatcher.awaitIdle(MAX_RUN_MILLIS);
+            } catch (IOException e) {
+                Log.e(TAG, "打开发送队列失败", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            workers.remove(jobId, Thread.currentThread());
+            jobFinished(params, false);
+        });
+        workers.put(jobId, worker);
+        worker.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // 被系统中断时队列中的条目和补发水位线都已保存，交给下一次调度
+        Thread worker = workers.remove(params.getJobId());
+        if (worker != null) {
+            worker.interrupt();
+        }
+        return true;
+    }
+}
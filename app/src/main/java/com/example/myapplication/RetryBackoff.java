@@ -0,0 +1,30 @@
+package com.example.myapplication;
+
+import java.util.Random;
+
+/**
+ * 指数退避加随机抖动：第 n 次失败后的等待时间在 [d/2, d] 之间，d = base * 2^(n-1)，上限为 max。
+ */
+public class RetryBackoff {
+
+    private final long baseMillis;
+    private final long maxMillis;
+    private final Random random;
+
+    public RetryBackoff(long baseMillis, long maxMillis) {
+        this(baseMillis, maxMillis, new Random());
+    }
+
+    public RetryBackoff(long baseMillis, long maxMillis, Random random) {
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+        this.random = random;
+    }
+
+    public long delayMillis(int attempts) {
+        int shift = Math.min(Math.max(attempts - 1, 0), 30);
+        long delay = Math.min(baseMillis << shift, maxMillis);
+        long half = delay / 2;
+        return half + (long) (random.nextDouble() * (delay - half));
+    }
+}
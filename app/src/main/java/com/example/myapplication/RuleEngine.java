@@ -0,0 +1,433 @@
+package com.example.myapplication;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.mail.internet.InternetAddress;
+
+/**
+ * 短信转发规则引擎。
+ * <p>
+ * 规则以文本保存，每行一条，格式为"条件 条件 ... => 动作"，条件之间是"并且"关系，按顺序取第一条命中的规则：
+ * <pre>
+ * # 注释
+ * sender:1069* keyword:退订 => drop
+ * sender:95588,95555 => forward:bank@example.com
+ * keyword:快递,取件 time:08:00-22:00 => channel:webhook
+ * regex:(?i)unsubscribe => drop
+ * </pre>
+ * 条件：sender（号码，可用 * ? 通配，逗号分隔表示任一）、keyword（正文包含任一关键词）、
+ * regex（正文匹配正则）、time（时间段，可跨午夜）。动作：drop、forward:邮箱、channel:通道名。
+ * <p>
+ * 规则只在保存时编译一次：所有关键词合并进一个 {@link KeywordMatcher}，精确号码建立哈希索引，
+ * 编译结果随 {@link ForwarderConfig} 快照整体发布。未改动的行复用上次编译好的规则对象。
+ */
+public class RuleEngine {
+
+    public static final String PREF_RULES = "forward_rules";
+
+    public enum Action {
+        FORWARD_DEFAULT, DROP, FORWARD_TO, CHANNEL
+    }
+
+    public static final class Decision {
+        public static final Decision DEFAULT = new Decision(Action.FORWARD_DEFAULT, null, null, -1);
+
+        public final Action action;
+        // FORWARD_TO 时为邮箱地址，CHANNEL 时为通道名
+        public final String target;
+        // FORWARD_TO 时为编译时解析好的收件地址，其他动作为 null
+        public final InternetAddress[] recipients;
+        // 命中的规则行号（从 0 开始），默认转发时为 -1
+        public final int ruleIndex;
+
+        Decision(Action action, String target, InternetAddress[] recipients, int ruleIndex) {
+            this.action = action;
+            this.target = target;
+            this.recipients = recipients;
+            this.ruleIndex = ruleIndex;
+        }
+
+        // 写入发送队列的路由，默认转发时为 null
+        public String toRoute() {
+            switch (action) {
+                case FORWARD_TO:
+                    return "mailto:" + target;
+                case CHANNEL:
+                    return "channel:" + target;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private static final class Rule {
+        final String source;
+        final String[] exactSenders;
+        // 只有"前缀*"形式的通配号码用前缀比较，其他通配编译成正则
+        final String[] senderPrefixes;
+        final Pattern senderPattern;
+        final String[] keywords;
+        final Pattern contentPattern;
+        // 分钟数，-1 表示不限时间
+        final int fromMinute;
+        final int toMinute;
+        final Action action;
+        final String target;
+        final InternetAddress[] recipients;
+
+        Rule(String source, String[] exactSenders, String[] senderPrefixes, Pattern senderPattern, String[] keywords,
+             Pattern contentPattern, int fromMinute, int toMinute, Action action, String target,
+             InternetAddress[] recipients) {
+            this.source = source;
+            this.exactSenders = exactSenders;
+            this.senderPrefixes = senderPrefixes;
+            this.senderPattern = senderPattern;
+            this.keywords = keywords;
+            this.contentPattern = contentPattern;
+            this.fromMinute = fromMinute;
+            this.toMinute = toMinute;
+            this.action = action;
+            this.target = target;
+            this.recipients = recipients;
+        }
+
+        boolean matchesSender(String sender) {
+            if (senderPrefixes != null) {
+                for (String prefix : senderPrefixes) {
+                    if (sender.startsWith(prefix)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return senderPattern == null || senderPattern.matcher(sender).matches();
+        }
+
+        boolean matchesTime(int minuteOfDay) {
+            if (fromMinute < 0) {
+                return true;
+            }
+            return fromMinute <= toMinute
+                    ? minuteOfDay >= fromMinute && minuteOfDay < toMinute
+                    : minuteOfDay >= fromMinute || minuteOfDay < toMinute;
+        }
+    }
+
+    /**
+     * 编译后的规则集，不可变。
+     */
+    public static final class Compiled {
+        final Rule[] rules;
+        final Decision[] decisions;
+        final KeywordMatcher keywordMatcher;
+        // 每条规则需要命中的关键词编号集合，null 表示没有关键词条件
+        final BitSet[] ruleKeywords;
+        // 精确号码 -> 只限定该号码的规则；openRules 为没有精确号码条件的规则
+        final Map<String, BitSet> rulesBySender;
+        final BitSet openRules;
+        // mailto 路由 -> 解析好的收件地址，发送时按条目的路由查找
+        final Map<String, InternetAddress[]> recipientsByRoute;
+        final String text;
+
+        private Compiled(String text, Rule[] rules) {
+            this.text = text;
+            this.rules = rules;
+            decisions = new Decision[rules.length];
+            Map<String, Integer> keywordIds = new LinkedHashMap<>();
+            ruleKeywords = new BitSet[rules.length];
+            rulesBySender = new HashMap<>();
+            openRules = new BitSet(rules.length);
+            recipientsByRoute = new HashMap<>();
+            for (int i = 0; i < rules.length; i++) {
+                Rule rule = rules[i];
+                decisions[i] = new Decision(rule.action, rule.target, rule.recipients, i);
+                if (rule.recipients != null) {
+                    recipientsByRoute.put(decisions[i].toRoute(), rule.recipients);
+                }
+                if (rule.keywords != null) {
+                    BitSet ids = new BitSet();
+                    for (String keyword : rule.keywords) {
+                        Integer id = keywordIds.get(keyword.toLowerCase());
+                        if (id == null) {
+                            id = keywordIds.size();
+                            keywordIds.put(keyword.toLowerCase(), id);
+                        }
+                        ids.set(id);
+                    }
+                    ruleKeywords[i] = ids;
+                }
+                if (rule.exactSenders != null) {
+                    for (String sender : rule.exactSenders) {
+                        BitSet set = rulesBySender.get(sender);
+                        if (set == null) {
+                            set = new BitSet(rules.length);
+                            rulesBySender.put(sender, set);
+                        }
+                        set.set(i);
+                    }
+                } else {
+                    openRules.set(i);
+                }
+            }
+            keywordMatcher = keywordIds.isEmpty() ? null : new KeywordMatcher(new ArrayList<>(keywordIds.keySet()));
+        }
+
+        public int size() {
+            return rules.length;
+        }
+
+        /**
+         * 检查 channel 动作指定的通道都已配置，否则抛出 IllegalArgumentException 并列出所有未配置的通道。
+         * 转发时未配置的通道会改用邮件，保存时不检查的话拼错的通道名不会有任何提示。
+         */
+        public void checkChannels(Set<String> configured) {
+            List<String> unknown = new ArrayList<>();
+            for (Rule rule : rules) {
+                if (rule.action == Action.CHANNEL && !configured.contains(rule.target)) {
+                    unknown.add(rule.target + "（" + rule.source + "）");
+                }
+            }
+            if (!unknown.isEmpty()) {
+                throw new IllegalArgumentException("规则指定的通道未配置: " + String.join("、", unknown)
+                        + "，已配置的通道: " + String.join(", ", new TreeSet<>(configured)));
+            }
+        }
+
+        /**
+         * 返回 mailto 路由在编译时解析好的收件地址；路由不来自当前规则（例如规则修改前写入队列的条目）时返回 null。
+         */
+        public InternetAddress[] recipientsFor(String route) {
+            return recipientsByRoute.get(route);
+        }
+
+        public Decision evaluate(String sender, CharSequence content, int minuteOfDay) {
+            if (rules.length == 0) {
+                return Decision.DEFAULT;
+            }
+            Scratch scratch = SCRATCH.get();
+            BitSet candidates = scratch.candidates;
+            candidates.clear();
+            candidates.or(openRules);
+            BitSet exact = rulesBySender.get(sender);
+            if (exact != null) {
+                candidates.or(exact);
+            }
+            BitSet hits = scratch.keywordHits;
+            hits.clear();
+            boolean scanned = false;
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                Rule rule = rules[i];
+                if (!rule.matchesSender(sender)) {
+                    continue;
+                }
+                if (!rule.matchesTime(minuteOfDay)) {
+                    continue;
+                }
+                if (ruleKeywords[i] != null) {
+                    // 关键词只在第一次需要时扫描一遍正文，结果供所有规则共用
+                    if (!scanned) {
+                        keywordMatcher.matchAll(content, hits);
+                        scanned = true;
+                    }
+                    if (!ruleKeywords[i].intersects(hits)) {
+                        continue;
+                    }
+                }
+                if (rule.contentPattern != null && !rule.contentPattern.matcher(content).find()) {
+                    continue;
+                }
+                return decisions[i];
+            }
+            return Decision.DEFAULT;
+        }
+    }
+
+    private static final class Scratch {
+        final BitSet candidates = new BitSet();
+        final BitSet keywordHits = new BitSet();
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private RuleEngine() {
+    }
+
+    /**
+     * 编译规则文本，规则有语法错误时抛出 IllegalArgumentException。
+     */
+    public static Compiled compile(String text) {
+        return compile(text, null);
+    }
+
+    // previous 不为 null 时，内容未变的行直接复用已编译的规则
+    static Compiled compile(String text, Compiled previous) {
+        if (previous != null && previous.text.equals(text)) {
+            return previous;
+        }
+        Map<String, Rule> reusable = new HashMap<>();
+        if (previous != null) {
+            for (Rule rule : previous.rules) {
+                reusable.put(rule.source, rule);
+            }
+        }
+        List<Rule> rules = new ArrayList<>();
+        String[] lines = text.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            Rule rule = reusable.get(line);
+            if (rule == null) {
+                try {
+                    rule = parse(line);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("第 " + (i + 1) + " 行规则有误: " + e.getMessage(), e);
+                }
+            }
+            rules.add(rule);
+        }
+        return new Compiled(text, rules.toArray(new Rule[0]));
+    }
+
+    private static Rule parse(String line) {
+        int arrow = line.indexOf("=>");
+        if (arrow < 0) {
+            throw new IllegalArgumentException("缺少 =>");
+        }
+        String[] exactSenders = null;
+        String[] senderPrefixes = null;
+        Pattern senderPattern = null;
+        String[] keywords = null;
+        Pattern contentPattern = null;
+        int from = -1;
+        int to = -1;
+        for (String token : line.substring(0, arrow).trim().split("\\s+")) {
+            if (token.isEmpty() || token.equals("*")) {
+                continue;
+            }
+            int colon = token.indexOf(':');
+            if (colon <= 0 || colon == token.length() - 1) {
+                throw new IllegalArgumentException("无法识别的条件 " + token);
+            }
+            String key = token.substring(0, colon);
+            String value = token.substring(colon + 1);
+            switch (key) {
+                case "sender":
+                    String[] senders = value.split(",");
+                    boolean wildcard = value.indexOf('*') >= 0 || value.indexOf('?') >= 0;
+                    if (wildcard && allPrefixGlobs(senders)) {
+                        senderPrefixes = new String[senders.length];
+                        for (int i = 0; i < senders.length; i++) {
+                            senderPrefixes[i] = senders[i].substring(0, senders[i].length() - 1);
+                        }
+                    } else if (wildcard) {
+                        senderPattern = Pattern.compile(globsToRegex(senders));
+                    } else {
+                        exactSenders = senders;
+                    }
+                    break;
+                case "keyword":
+                    keywords = value.split(",");
+                    break;
+                case "regex":
+                    try {
+                        contentPattern = Pattern.compile(value);
+                    } catch (PatternSyntaxException e) {
+                        throw new IllegalArgumentException("正则表达式无效 " + value);
+                    }
+                    break;
+                case "time":
+                    String[] range = value.split("-");
+                    if (range.length != 2) {
+                        throw new IllegalArgumentException("时间段格式应为 HH:mm-HH:mm");
+                    }
+                    from = parseMinute(range[0]);
+                    to = parseMinute(range[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知条件 " + key);
+            }
+        }
+
+        String actionText = line.substring(arrow + 2).trim();
+        Action action;
+        String target = null;
+        InternetAddress[] recipients = null;
+        if (actionText.equals("drop")) {
+            action = Action.DROP;
+        } else if (actionText.startsWith("forward:") && actionText.length() > 8) {
+            action = Action.FORWARD_TO;
+            target = actionText.substring(8);
+            if (target.indexOf('@') <= 0) {
+                throw new IllegalArgumentException("邮箱地址无效 " + target);
+            }
+            // 收件地址只在编译时解析一次，发送时直接使用
+            recipients = EmailChannel.parseRecipients(target);
+        } else if (actionText.startsWith("channel:") && actionText.length() > 8) {
+            action = Action.CHANNEL;
+            target = actionText.substring(8);
+        } else {
+            throw new IllegalArgumentException("未知动作 " + actionText);
+        }
+        return new Rule(line, exactSenders, senderPrefixes, senderPattern, keywords, contentPattern, from, to, action, target,
+                recipients);
+    }
+
+    private static boolean allPrefixGlobs(String[] globs) {
+        for (String glob : globs) {
+            int star = glob.indexOf('*');
+            if (star != glob.length() - 1 || glob.indexOf('?') >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String globsToRegex(String[] globs) {
+        StringBuilder sb = new StringBuilder();
+        for (String glob : globs) {
+            if (sb.length() > 0) {
+                sb.append('|');
+            }
+            for (String part : glob.split("(?=[*?])|(?<=[*?])")) {
+                if (part.equals("*")) {
+                    sb.append(".*");
+                } else if (part.equals("?")) {
+                    sb.append('.');
+                } else if (!part.isEmpty()) {
+                    sb.append(Pattern.quote(part));
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int parseMinute(String hhmm) {
+        String[] parts = hhmm.split(":");
+        try {
+            int hour = Integer.parseInt(parts[0]);
+            int minute = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            if (parts.length > 2 || hour < 0 || hour > 24 || minute < 0 || minute > 59) {
+                throw new IllegalArgumentException("时间无效 " + hhmm);
+            }
+            return hour * 60 + minute;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("时间无效 " + hhmm);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.myapplication;
+
+import java.util.Locale;
+
+/**
+ * 为 SQLite FTS4 的 simple 分词器准备索引词和查询语句。
+ * <p>
+ * simple 分词器只按 ASCII 标点和空白切分，一整句中文会成为一个词，无法搜索其中的片段。
+ * 这里先自行切分：英文和数字按连续的一段作为一个词；中文等其他文字切成相邻两字一组（二元组），
+ * 每段最后一个字再单独作为一个词。查询时两个字以上的中文转成相邻二元组组成的短语，
+ * 单个字和英文数字按前缀匹配。这样中文可以搜任意片段，英文和号码按词的开头搜。
+ */
+public final class SearchTokens {
+
+    private SearchTokens() {
+    }
+
+    /**
+     * 写入 FTS 表的索引文本，词之间以空格分隔。
+     */
+    public static String index(String text) {
+        StringBuilder out = new StringBuilder(text.length() * 3);
+        split(text, new Emitter() {
+            @Override
+            public void word(String word) {
+                append(out, word);
+            }
+
+            @Override
+            public void run(int[] run) {
+                for (int i = 0; i + 1 < run.length; i++) {
+                    append(out, new String(run, i, 2));
+                }
+                append(out, new String(run, run.length - 1, 1));
+            }
+        });
+        return out.toString();
+    }
+
+    /**
+     * 用户输入转成 MATCH 表达式，各部分之间是“与”的关系。没有可搜索的内容时返回 null。
+     */
+    public static String query(String input) {
+        StringBuilder out = new StringBuilder();
+        split(input, new Emitter() {
+            @Override
+            public void word(String word) {
+                append(out, word + '*');
+            }
+
+            @Override
+            public void run(int[] run) {
+                if (run.length == 1) {
+                    append(out, new String(run, 0, 1) + '*');
+                    return;
+                }
+                // 二元组按顺序组成短语，要求在原文中连续出现
+                StringBuilder phrase = new StringBuilder("\"");
+                for (int i = 0; i + 1 < run.length; i++) {
+                    phrase.append(i > 0 ? " " : "").append(new String(run, i, 2));
+                }
+                append(out, phrase.append('"').toString());
+            }
+        });
+        return out.length() > 0 ? out.toString() : null;
+    }
+
+    private interface Emitter {
+        // 连续的 ASCII 字母数字，已转小写
+        void word(String word);
+
+        // 连续的其他文字，按码点
+        void run(int[] run);
+    }
+
+    private static void split(String text, Emitter emitter) {
+        int i = 0;
+        int n = text.length();
+        while (i < n) {
+            int c = text.codePointAt(i);
+            if (isAsciiWord(c)) {
+                int start = i;
+                while (i < n && isAsciiWord(text.codePointAt(i))) {
+                    i++;
+                }
+                emitter.word(text.substring(start, i).toLowerCase(Locale.ROOT));
+            } else if (Character.isLetterOrDigit(c)) {
+                int start = i;
+                while (i < n) {
+                    int d = text.codePointAt(i);
+                    if (isAsciiWord(d) || !Character.isLetterOrDigit(d)) {
+                        break;
+                    }
+                    i += Character.charCount(d);
+                }
+                emitter.run(text.substring(start, i).codePoints().toArray());
+            } else {
+                i += Character.charCount(c);
+            }
+        }
+    }
+
+    private static boolean isAsciiWord(int c) {
+        return c < 0x80 && Character.isLetterOrDigit(c);
+    }
+
+    private static void append(StringBuilder out, String token) {
+        if (out.length() > 0) {
+            out.append(' ');
+        }
+        out.append(token);
+    }
+}
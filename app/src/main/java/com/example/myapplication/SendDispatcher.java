@@ -0,0 +1,403 @@
+package com.example.myapplication;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 从 {@link OutboundQueue} 取出待发送条目，交给固定数量的发送线程处理。
+ * <p>
+ * 内存中的工作队列有上限，满了之后剩余条目留在持久化队列里，等有空位时再取，
+ * 因此突发大量短信时不会无限创建线程，也不会同时发起大量 SMTP 登录。
+ * 默认只有一个发送线程，保证按入队顺序发送。
+ * 设置了 {@link DigestCoalescer} 时，窗口内的多条短信会作为一批交给处理器。
+ * 验证码等高优先级条目走独立的快速通道线程，不参与合并，也不用排在普通短信后面。
+ * 处理器可以异步完成（例如交给各转发通道自己的线程），已取出未完成的条目数同样受上限约束。
+ * 设置了 {@link ConnectivitySource} 时，离线期间条目留在持久化队列里，不去尝试连接；
+ * 网络恢复后逐条发送积压的条目，同一时间只有一批在途，上一批完成后至少间隔 drainPaceMillis 才发下一批，
+ * 邮件通道因此只用一条保持的连接，也不会因为瞬间大量发送被服务器限流。
+ * 设置了积压阈值时，队列深度超过阈值即进入打包模式：每次取出最多 {@link #BACKLOG_BATCH} 条作为一批
+ * （由邮件通道打包成附件），上一批完成后再取下一批；队列降到 {@link MessageFormatter#MAX_INLINE_BATCH} 条
+ * 以下时恢复逐条发送。
+ */
+public class SendDispatcher {
+
+    public static final int DEFAULT_CAPACITY = 32;
+    public static final long DEFAULT_DRAIN_PACE_MILLIS = 500;
+    private static final int EXPRESS_CAPACITY = 16;
+    // 打包模式下一批最多的条数
+    public static final int BACKLOG_BATCH = 2000;
+
+    public interface Handler {
+        // 负责发送一批条目（通常只有一条），调用 ack 或 fail 之后再调用 done，可以在其他线程上调用
+        void handle(List<OutboundQueue.Entry> batch, Runnable done);
+    }
+
+    public interface IdleListener {
+        void onIdle();
+    }
+
+    private final OutboundQueue queue;
+    private final Handler handler;
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor expressExecutor;
+    // 普通条目已取出但尚未完成的上限，处理器异步完成时防止一次取空持久化队列
+    private final int maxOutstanding;
+    // 合并窗口到期和积压限速共用的定时线程
+    private final ScheduledExecutorService flushTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sms-digest-timer");
+        t.setDaemon(true);
+        return t;
+    });
+    // 已从持久化队列取出但尚未处理完的条目数，包括合并窗口中等待的条目
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private volatile IdleListener idleListener;
+    private DigestCoalescer coalescer;
+    private ScheduledFuture<?> pendingFlush;
+    private long pendingFlushAt = -1;
+    private volatile ConnectivitySource connectivity;
+    private volatile long drainPaceMillis = DEFAULT_DRAIN_PACE_MILLIS;
+    // 网络恢复后正在逐条发送积压条目
+    private boolean draining;
+    private volatile long lastDoneAt;
+    private ScheduledFuture<?> pendingDrain;
+    // 进入打包模式的队列深度，0 表示关闭
+    private volatile int backlogThreshold;
+    private boolean backlog;
+
+    public SendDispatcher(OutboundQueue queue, Handler handler, int workers, int capacity) {
+        this.queue = queue;
+        this.handler = handler;
+        this.maxOutstanding = workers + capacity;
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(capacity), r -> {
+                    Thread t = new Thread(r, "sms-sender-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        // 空闲时释放线程，进程常驻时不占资源
+        executor.allowCoreThreadTimeOut(true);
+        expressExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(EXPRESS_CAPACITY), r -> {
+                    Thread t = new Thread(r, "sms-sender-express");
+                    t.setDaemon(true);
+                    return t;
+                });
+        expressExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public void setIdleListener(IdleListener listener) {
+        this.idleListener = listener;
+    }
+
+    public void setWorkerCount(int workers) {
+        if (workers < 1 || workers == executor.getMaximumPoolSize()) {
+            return;
+        }
+        if (workers > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(workers);
+            executor.setCorePoolSize(workers);
+        } else {
+            executor.setCorePoolSize(workers);
+            executor.setMaximumPoolSize(workers);
+        }
+    }
+
+    /**
+     * 设置网络状态来源，传入 null 表示总是按在线处理。
+     */
+    public synchronized void setConnectivity(ConnectivitySource source) {
+        if (connectivity != null) {
+            connectivity.setListener(null);
+        }
+        connectivity = source;
+        if (source != null) {
+            source.setListener(this::onConnectivityChanged);
+        }
+    }
+
+    public boolean isOnline() {
+        ConnectivitySource source = connectivity;
+        return source == null || source.isOnline();
+    }
+
+    public void setDrainPaceMillis(long millis) {
+        drainPaceMillis = Math.max(0, millis);
+    }
+
+    public synchronized boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * 设置进入打包模式的队列深度，0 关闭打包模式；不低于恢复逐条发送的条数。
+     */
+    public void setBacklogThreshold(int threshold) {
+        backlogThreshold = threshold <= 0 ? 0 : Math.max(threshold, MessageFormatter.MAX_INLINE_BATCH);
+    }
+
+    public synchronized boolean isBacklogMode() {
+        return backlog;
+    }
+
+    /**
+     * 设置合并窗口，传入 null 关闭合并。窗口中尚未发出的条目会立即作为一批发出。
+     */
+    public synchronized void setCoalescer(DigestCoalescer coalescer) {
+        if (this.coalescer != null && this.coalescer.size() > 0) {
+            submit(this.coalescer.flushDue(Long.MAX_VALUE));
+        }
+        this.coalescer = coalescer;
+    }
+
+    /**
+     * 把持久化队列中已到期的条目尽量放入工作队列，直到工作队列满。
+     */
+    public synchronized void pump() {
+        if (!isOnline()) {
+            // 离线时不取条目，避免每条都等满连接超时
+            if (outstanding.get() == 0) {
+                notifyAll();
+                notifyIdle();
+            }
+            return;
+        }
+        OutboundQueue.Entry entry;
+        // 先把验证码送进快速通道
+        while (expressExecutor.getQueue().remainingCapacity() > 0
+                && (entry = queue.claimNext(System.currentTimeMillis(), true)) != null) {
+            outstanding.incrementAndGet();
+            if (!submit(expressExecutor, Collections.singletonList(entry))) {
+                break;
+            }
+        }
+        if (updateBacklog()) {
+            claimBacklog();
+        } else if (draining) {
+            drainNext();
+        }
+        while (!backlog && !draining && executor.getQueue().remainingCapacity() > 0 && outstanding.get() < maxOutstanding
+                && (entry = queue.claimNext(System.currentTimeMillis())) != null) {
+            outstanding.incrementAndGet();
+            // 指定了路由的条目收件方不同，不与默认收件人的短信合并
+            if (coalescer == null || coalescer.bypasses(entry) || entry.isHighPriority() || entry.route != null) {
+                if (!submit(Collections.singletonList(entry))) {
+                    break;
+                }
+                continue;
+            }
+            List<OutboundQueue.Entry> full = coalescer.offer(entry, System.currentTimeMillis());
+            if (full != null && !submit(full)) {
+                break;
+            }
+        }
+        scheduleFlush();
+        if (outstanding.get() == 0) {
+            notifyAll();
+            notifyIdle();
+        }
+    }
+
+    // 阻塞等待所有已取出的条目处理完毕，超时返回 false
+    public synchronized boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (outstanding.get() > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    public boolean isIdle() {
+        return outstanding.get() == 0;
+    }
+
+    // 已进入工作队列但尚未开始发送的批次数
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    public long getAverageWaitMillis() {
+        long count = batches.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / count);
+    }
+
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    private boolean submit(List<OutboundQueue.Entry> batch) {
+        return submit(executor, batch);
+    }
+
+    // 提交一批条目；工作队列已满时放回持久化队列稍后再取，返回 false
+    private boolean submit(ThreadPoolExecutor target, List<OutboundQueue.Entry> batch) {
+        final long submittedAt = System.nanoTime();
+        try {
+            target.execute(() -> run(batch, submittedAt));
+            return true;
+        } catch (RejectedExecutionException e) {
+            for (OutboundQueue.Entry entry : batch) {
+                queue.release(entry.id);
+            }
+            outstanding.addAndGet(-batch.size());
+            return false;
+        }
+    }
+
+    // 网络恢复：退避中的条目改为立即可取，然后逐批发出积压
+    private void onConnectivityChanged(boolean online) {
+        if (!online) {
+            return;
+        }
+        synchronized (this) {
+            queue.retryNow(System.currentTimeMillis());
+            draining = !queue.isEmpty();
+        }
+        pump();
+    }
+
+    // 积压模式下上一批完成且到了间隔时间才取下一条；取不到说明积压已清空，恢复正常模式
+    private void drainNext() {
+        if (outstanding.get() > 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long dueAt = lastDoneAt + drainPaceMillis;
+        if (now < dueAt) {
+            if (pendingDrain == null || pendingDrain.isDone()) {
+                pendingDrain = flushTimer.schedule(this::pump, dueAt - now, TimeUnit.MILLISECONDS);
+            }
+            return;
+        }
+        OutboundQueue.Entry entry = queue.claimNext(now);
+        if (entry == null) {
+            draining = false;
+            return;
+        }
+        outstanding.incrementAndGet();
+        submit(Collections.singletonList(entry));
+    }
+
+    // 按队列深度进入或退出打包模式；退出的界限低于进入的阈值，避免在阈值附近来回切换
+    private boolean updateBacklog() {
+        int threshold = backlogThreshold;
+        int depth = queue.size();
+        if (threshold <= 0) {
+            backlog = false;
+        } else if (!backlog && depth > threshold) {
+            backlog = true;
+        } else if (backlog && depth <= MessageFormatter.MAX_INLINE_BATCH) {
+            backlog = false;
+        }
+        return backlog;
+    }
+
+    // 上一批完成后再取下一批积压；指定了路由、验证码和不参与合并的号码仍然单独发送
+    private void claimBacklog() {
+        if (outstanding.get() > 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<OutboundQueue.Entry> batch = new ArrayList<>();
+        OutboundQueue.Entry entry;
+        while (batch.size() < BACKLOG_BATCH && (entry = queue.claimNext(now)) != null) {
+            outstanding.incrementAndGet();
+            if (entry.route != null || entry.isHighPriority() || (coalescer != null && coalescer.bypasses(entry))) {
+                if (!submit(Collections.singletonList(entry))) {
+                    break;
+                }
+            } else {
+                batch.add(entry);
+            }
+        }
+        if (!batch.isEmpty()) {
+            submit(batch);
+        }
+    }
+
+    private void scheduleFlush() {
+        long flushAt = coalescer != null ? coalescer.nextFlushAt() : -1;
+        if (flushAt < 0 || flushAt == pendingFlushAt) {
+            return;
+        }
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
+        }
+        pendingFlushAt = flushAt;
+        pendingFlush = flushTimer.schedule(this::flush,
+                Math.max(0, flushAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void flush() {
+        pendingFlush = null;
+        pendingFlushAt = -1;
+        if (coalescer == null) {
+            return;
+        }
+        List<OutboundQueue.Entry> batch = coalescer.flushDue(System.currentTimeMillis());
+        if (batch != null) {
+            submit(batch);
+        }
+        pump();
+    }
+
+    private void run(List<OutboundQueue.Entry> batch, long submittedAt) {
+        long waited = System.nanoTime() - submittedAt;
+        LatencyStats.record(LatencyStats.Stage.QUEUE_WAIT, waited);
+        totalWaitNanos.addAndGet(waited);
+        long max;
+        while (waited > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, waited)) {
+            // 重试 CAS
+        }
+        AtomicBoolean finished = new AtomicBoolean();
+        Runnable done = () -> {
+            if (finished.compareAndSet(false, true)) {
+                batches.incrementAndGet();
+                completed.addAndGet(batch.size());
+                outstanding.addAndGet(-batch.size());
+                lastDoneAt = System.currentTimeMillis();
+                pump();
+            }
+        };
+        try {
+            handler.handle(batch, done);
+        } catch (RuntimeException e) {
+            done.run();
+            throw e;
+        }
+    }
+
+    private void notifyIdle() {
+        IdleListener listener = idleListener;
+        if (listener != null) {
+            listener.onIdle();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.myapplication;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 一条完整短信进入发送队列前的公共处理：去重、转发规则、验证码识别，最后写入持久化队列。
+ * 广播直接收到的短信和拼接后的长短信都经过这里。
+ */
+public final class SmsIntake {
+
+    private static final String TAG = "SmsIntake";
+    // 广播、长短信超时和收件箱补发可能在不同线程同时送来同一条短信，去重查询到记下之间不能交错
+    private static final Object ACCEPT_LOCK = new Object();
+    // 收件箱里的时间由短信应用写入，有的机型用短信中心时间戳，与广播时记下的接收时间可能相差很久
+    private static final long BACKFILL_MATCH_MILLIS = 24 * 60 * 60_000L;
+    private static final long ARCHIVE_FLUSH_TIMEOUT_MILLIS = 5_000;
+
+    // 去重文件打不开时改用的内存缓存，只在 SmsIntake 的类锁内读写
+    private static DedupCache memoryDedup;
+
+    private SmsIntake() {
+    }
+
+    /**
+     * 处理一条短信，写入发送队列时返回 true。调用方负责随后唤醒 {@link EmailService}。
+     */
+    public static boolean accept(Context context, String sender, CharSequence content, long receivedAtNanos,
+                                 long receivedAtMillis) throws IOException {
+        long traceId = newTraceId();
+        AppLog.i(LogRing.Stage.RECEIVE, TAG, "成功接收到来自 " + sender + " 的短信 (trace "
+                + Long.toHexString(traceId) + ")。");
+        DedupCache dedup = dedup(context);
+        OutboundQueue.Entry entry;
+        synchronized (ACCEPT_LOCK) {
+            // 运营商重复投递或多个号码发来的同一条通知只转发一次；写入队列成功后才记入去重缓存
+            if (dedup.checkDuplicate(sender, content, receivedAtMillis)) {
+                AppLog.i(LogRing.Stage.RULE, TAG, "与最近收到的短信重复，已忽略。");
+                return false;
+            }
+            entry = enqueue(context, dedup, traceId, sender, content, receivedAtNanos, receivedAtMillis);
+        }
+        if (entry == null) {
+            return false;
+        }
+        // 存档由后台线程批量写入，这里不等待
+        MessageArchive.getInstance(context).recordQueued(entry);
+        return true;
+    }
+
+    // 按规则和验证码识别写入发送队列，被规则丢弃时返回 null
+    private static OutboundQueue.Entry enqueue(Context context, DedupCache dedup, long traceId, String sender,
+                                               CharSequence content, long receivedAtNanos, long receivedAtMillis)
+            throws IOException {
+        // 按转发规则决定丢弃、改发其他邮箱或其他通道；规则已预编译，这里不读配置
+        Calendar now = Calendar.getInstance();
+        RuleEngine.Decision decision = ForwarderConfig.get(context).rules.evaluate(sender, content,
+                now.get(Calendar.HOUR_OF_DAY) * 60 + now.get(Calendar.MINUTE));
+        if (decision.action == RuleEngine.Action.DROP) {
+            AppLog.i(LogRing.Stage.RULE, TAG, "命中第 " + (decision.ruleIndex + 1) + " 条规则，已丢弃该短信。");
+            MessageArchive.getInstance(context).recordDropped(traceId, sender, content.toString(), receivedAtMillis,
+                    decision.ruleIndex);
+            // 丢弃不会丢失什么，同样记下，重复投递时不再重复存档
+            remember(dedup, sender, content, receivedAtMillis);
+            return null;
+        }
+
+        // 识别验证码短信，交给快速通道优先发送
+        long classification = OtpClassifier.DEFAULT.classify(content);
+        int priority = OtpClassifier.priorityOf(classification);
+        String code = OtpClassifier.extractCode(content, classification);
+        if (code != null) {
+            AppLog.i(LogRing.Stage.RULE, TAG, "识别到验证码短信，将优先转发。");
+        }
+
+        // 先写入持久化队列再返回，即使进程随后被杀，短信也不会丢失
+        long start = System.nanoTime();
+        OutboundQueue.Entry entry = OutboundQueue.getInstance(context).enqueue(sender, content.toString(), priority,
+                code, decision.toRoute(), traceId, receivedAtNanos, receivedAtMillis);
+        LatencyStats.record(LatencyStats.Stage.ENQUEUE, System.nanoTime() - start);
+        remember(dedup, sender, content, receivedAtMillis);
+        return entry;
+    }
+
+    // 去重只是优化，去重文件读写失败不能影响写入队列、存档和唤醒发送；打不开时只在内存中去重
+    private static synchronized DedupCache dedup(Context context) {
+        try {
+            return DedupCache.getInstance(context);
+        } catch (IOException e) {
+            if (memoryDedup == null) {
+                AppLog.e(LogRing.Stage.RECEIVE, TAG, "打开去重文件失败，改为只在内存中去重: " + e.getMessage(), e);
+                memoryDedup = new DedupCache(DedupCache.DEFAULT_WINDOW_MILLIS, DedupCache.DEFAULT_MAX_ENTRIES);
+            }
+            return memoryDedup;
+        }
+    }
+
+    // 写文件失败时内存中已经记下，本进程内的重复投递仍会被拦截
+    private static void remember(DedupCache dedup, String sender, CharSequence content, long receivedAtMillis) {
+        try {
+            dedup.remember(sender, content, receivedAtMillis);
+        } catch (IOException e) {
+            AppLog.e(LogRing.Stage.RECEIVE, TAG, "写入去重记录失败: " + e.getMessage(), e);
+        }
+    }
+
+    // 处理拼接器交出的短信，不完整的会先记一条日志
+    static boolean acceptAll(Context context, List<ConcatReassembler.Message> messages) throws IOException {
+        boolean enqueued = false;
+        for (ConcatReassembler.Message message : messages) {
+            if (!message.isComplete()) {
+                AppLog.w(LogRing.Stage.RECEIVE, TAG, "长短信缓存已满，提前转发来自 " + message.sender + " 的 "
+                        + message.received + " / " + message.expected + " 段。");
+            }
+            enqueued |= accept(context, message.sender, message.body, message.firstReceivedNanos,
+                    message.firstReceivedAt);
+        }
+        return enqueued;
+    }
+
+    /**
+     * 发出已超时的不完整长短信，并按剩余缓存中最早的超时时间安排下一次检查。返回写入队列的条数。
+     */
+    public static int flushExpiredFragments(Context context) throws IOException {
+        ConcatReassembler reassembler = ConcatReassembler.getInstance(context);
+        int enqueued = 0;
+        for (ConcatReassembler.Message message : reassembler.flushExpired(System.currentTimeMillis())) {
+            AppLog.w(LogRing.Stage.RECEIVE, TAG, "来自 " + message.sender + " 的长短信等待超时，只收到 "
+                    + message.received + " / " + message.expected + " 段，先转发已收到的部分。");
+            if (accept(context, message.sender, message.body, message.firstReceivedNanos,
+                    message.firstReceivedAt)) {
+                enqueued++;
+            }
+        }
+        scheduleFragmentFlush(context, reassembler);
+        return enqueued;
+    }
+
+    static void scheduleFragmentFlush(Context context, ConcatReassembler reassembler) {
+        long deadline = reassembler.nextDeadline();
+        if (deadline > 0) {
+            QueueRetryJobService.scheduleFragmentFlush(context, deadline - System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 补发收件箱中水位线之后的短信，已实时转发过的跳过。没有读短信权限时返回 null。
+     * <p>
+     * 补发任务可能被系统推迟很久，去重缓存的窗口只有几分钟，所以还要查转发记录。
+     */
+    public static InboxBackfill.Result backfillInbox(Context context, Runnable onBatch)
+            throws IOException, InterruptedException {
+        if (!InboxBackfill.hasPermission(context)) {
+            AppLog.w(LogRing.Stage.RECEIVE, TAG, "没有读取短信权限，跳过收件箱补发。");
+            return null;
+        }
+        DedupCache dedup = dedup(context);
+        MessageArchive archive = MessageArchive.getInstance(context);
+        // 刚转发的短信可能还没写入存档
+        archive.flush(ARCHIVE_FLUSH_TIMEOUT_MILLIS);
+        InboxBackfill.Result result = InboxBackfill.create(context).run((sender, body, date) ->
+                !dedup.contains(sender, body, System.currentTimeMillis())
+                        && !archive.contains(sender, body, date, BACKFILL_MATCH_MILLIS)
+                        && accept(context, sender, body, System.nanoTime(), date), onBatch);
+        if (result.enqueued > 0 || !result.complete) {
+            AppLog.i(LogRing.Stage.RECEIVE, TAG, "收件箱补发：" + result + (result.complete ? "。" : "，未完成。"));
+        }
+        return result;
+    }
+
+    // 发送服务已在运行时直接在进程内唤醒，否则通过系统启动服务；短信已在队列里，只需要一个信号
+    static void wakeSender(Context context) {
+        if (EmailService.wakeRunning()) {
+            return;
+        }
+        Intent serviceIntent = new Intent(context, EmailService.class);
+        serviceIntent.putExtra(EmailService.EXTRA_START_NANOS, System.nanoTime());
+        // 从 Android 8.0 (API 26) 开始，后台启动服务必须使用 startForegroundService
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            context.startForegroundService(serviceIntent);
+        } else {
+            context.startService(serviceIntent);
+        }
+    }
+
+    // 非零的随机跟踪 id，日志和导出中以十六进制显示
+    private static long newTraceId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+}
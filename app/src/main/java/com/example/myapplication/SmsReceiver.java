@@ -4,66 +4,155 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
 import android.provider.Telephony;
 import android.telephony.SmsMessage;
-import android.os.Message;
-import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 接收 SMS_RECEIVED 广播。主线程上只调用 goAsync() 并把广播交给后台的单线程执行器，
+ * 解析、去重和写入持久化队列都在执行器上按到达顺序完成，写入后才结束广播；
+ * 之后只发一个唤醒信号，发送服务已在运行时直接在进程内唤醒，不再经过 startForegroundService。
+ */
 public class SmsReceiver extends BroadcastReceiver {
 
     private static final String TAG = "SmsReceiver";
+    // 进程启动后这么久内收到的第一条短信算作冷启动
+    private static final long COLD_START_WINDOW_MILLIS = 5_000;
+
+    // 单线程保证短信按广播顺序入队，长短信片段的拼接也无需加锁
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "sms-intake");
+        t.setDaemon(true);
+        return t;
+    });
+    private static volatile boolean handledAny;
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        if (Telephony.Sms.Intents.SMS_RECEIVED_ACTION.equals(intent.getAction())) {
-            Bundle bundle = intent.getExtras();
-            if (bundle != null) {
-                try {
-                    Object[] pdus = (Object[]) bundle.get("pdus");
-                    if (pdus == null) {
-                        return;
-                    }
-
-                    StringBuilder smsContent = new StringBuilder();
-                    String sender = "";
+        long receivedAtNanos = System.nanoTime();
+        if (!Telephony.Sms.Intents.SMS_RECEIVED_ACTION.equals(intent.getAction())) {
+            return;
+        }
+        Context appContext = context.getApplicationContext();
+        PendingResult pending = goAsync();
+        if (pending == null) {
+            // 不是由系统分发的广播（直接调用 onReceive），没有可以延长的广播，就地处理
+            handle(appContext, intent, receivedAtNanos);
+            return;
+        }
+        EXECUTOR.execute(() -> {
+            try {
+                handle(appContext, intent, receivedAtNanos);
+            } finally {
+                pending.finish();
+            }
+        });
+    }
 
-                    for (int i = 0; i < pdus.length; i++) {
-                        String format = bundle.getString("format");
-                        SmsMessage message = SmsMessage.createFromPdu((byte[]) pdus[i], format);
-                        smsContent.append(message.getMessageBody());
-                        if (sender.isEmpty()) {
-                            sender = message.getOriginatingAddress();
-                        }
-                    }
+    private static void handle(Context context, Intent intent, long receivedAtNanos) {
+        boolean cold = !handledAny && SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime()
+                < COLD_START_WINDOW_MILLIS;
+        handledAny = true;
+        Bundle bundle = intent.getExtras();
+        if (bundle == null) {
+            return;
+        }
+        try {
+            Object[] pdus = (Object[]) bundle.get("pdus");
+            if (pdus == null) {
+                return;
+            }
 
-                    log(context, "成功接收到来自 " + sender + " 的短信。");
+            String format = bundle.getString("format");
+            String[] bodies = new String[pdus.length];
+            ConcatReassembler.Header[] headers = new ConcatReassembler.Header[pdus.length];
+            String sender = "";
+            for (int i = 0; i < pdus.length; i++) {
+                SmsMessage message = SmsMessage.createFromPdu((byte[]) pdus[i], format);
+                bodies[i] = message.getMessageBody();
+                headers[i] = ConcatReassembler.parseHeader((byte[]) pdus[i], format);
+                if (sender.isEmpty()) {
+                    sender = message.getOriginatingAddress();
+                }
+            }
 
-                    // 将短信内容传递给正在运行的 EmailService 去处理
-                    Intent serviceIntent = new Intent(context, EmailService.class);
-                    serviceIntent.putExtra("sender", sender);
-                    serviceIntent.putExtra("content", smsContent.toString());
-                    // 从 Android 8.0 (API 26) 开始，后台启动服务必须使用 startForegroundService
-                    if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
-                        context.startForegroundService(serviceIntent);
-                    } else {
-                        context.startService(serviceIntent);
-                    }
+            long parsedAtNanos = System.nanoTime();
+            LatencyStats.record(LatencyStats.Stage.PARSE, parsedAtNanos - receivedAtNanos);
+            LatencyStats.countReceived();
+            long now = System.currentTimeMillis();
 
-                } catch (Exception e) {
-                    log(context, "解析短信失败: " + e.getMessage());
-                    Log.e(TAG, "解析短信异常详情", e);
+            boolean enqueued;
+            if (isWholeMessage(headers)) {
+                StringBuilder smsContent = new StringBuilder();
+                for (String body : bodies) {
+                    smsContent.append(body);
+                }
+                enqueued = SmsIntake.accept(context, sender, smsContent, receivedAtNanos, now);
+            } else {
+                // 长短信的各段分在几个广播里下发，先缓存，收齐后再作为一条处理
+                ConcatReassembler reassembler = ConcatReassembler.getInstance(context);
+                List<ConcatReassembler.Message> ready = new ArrayList<>();
+                for (int i = 0; i < pdus.length; i++) {
+                    ready.addAll(reassembler.offer(sender, headers[i], bodies[i], now, receivedAtNanos));
                 }
+                AppLog.i(LogRing.Stage.RECEIVE, TAG, "收到来自 " + sender + " 的长短信片段，已缓存 "
+                        + reassembler.getPendingGroups() + " 组等待拼接。");
+                enqueued = SmsIntake.acceptAll(context, ready);
+            }
+            if (enqueued) {
+                recordIntake(cold, receivedAtNanos);
             }
+            // 顺便发出等待超时的片段，并为仍在等待的片段安排检查
+            if (SmsIntake.flushExpiredFragments(context) > 0) {
+                enqueued = true;
+            }
+
+            // 唤醒 EmailService 发送队列中的短信
+            if (enqueued) {
+                SmsIntake.wakeSender(context);
+            }
+
+        } catch (Exception e) {
+            AppLog.e(LogRing.Stage.RECEIVE, TAG, "解析短信失败: " + e.getMessage(), e);
+        }
+    }
+
+    // 冷启动从进程创建算起，包括 Application.onCreate；热启动从 onReceive 算起
+    private static void recordIntake(boolean cold, long receivedAtNanos) {
+        if (cold) {
+            long sinceProcessStart = SystemClock.elapsedRealtimeNanos()
+                    - Process.getStartElapsedRealtime() * 1_000_000L;
+            LatencyStats.record(LatencyStats.Stage.INTAKE_COLD, sinceProcessStart);
+        } else {
+            LatencyStats.record(LatencyStats.Stage.INTAKE_WARM, System.nanoTime() - receivedAtNanos);
         }
     }
 
-    // 辅助方法，用于发送日志广播和打印Logcat
-    private void log(Context context, String message) {
-        Log.d(TAG, message);
-        if (MainActivity.logHandler != null) {
-            Message msg = MainActivity.logHandler.obtainMessage();
-            msg.obj = message;
-            MainActivity.logHandler.sendMessage(msg);
+    // 没有拼接头，或者一个广播里已经包含同一条长短信的全部分段
+    private static boolean isWholeMessage(ConcatReassembler.Header[] headers) {
+        ConcatReassembler.Header first = headers[0];
+        if (first == null) {
+            for (ConcatReassembler.Header header : headers) {
+                if (header != null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (first.count != headers.length) {
+            return false;
+        }
+        for (ConcatReassembler.Header header : headers) {
+            if (header == null || header.reference != first.reference || header.count != first.count) {
+                return false;
+            }
         }
+        return true;
     }
-}
\ No newline at end of file
+}
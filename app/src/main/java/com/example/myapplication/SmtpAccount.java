@@ -0,0 +1,156 @@
+package com.example.myapplication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+
+/**
+ * 一个发件账号的 SMTP 配置。
+ * <p>
+ * 备用账号以文本保存，每行一个，格式为"用户名 密码 服务器[:端口] [ssl|starttls|plain] [rate=每分钟封数]"：
+ * <pre>
+ * # 注释
+ * backup@163.com 授权码 smtp.163.com ssl rate=20
+ * me@outlook.com 密码 smtp.office365.com:587 starttls
+ * </pre>
+ * 省略端口时按加密方式取 465、587 或 25；省略加密方式时为 ssl；rate 为 0 表示不限速。
+ * <p>
+ * SMTP 属性和发件地址在构造时生成，发送时直接使用，两者都不应修改。
+ */
+public final class SmtpAccount {
+
+    public static final String PREF_ACCOUNTS = "smtp_accounts";
+    public static final int DEFAULT_RATE_PER_MINUTE = 20;
+
+    public enum Tls {
+        // 连接即加密（465）
+        SSL(465),
+        // 明文连接后升级为 TLS（587），服务器不支持时放弃发送
+        STARTTLS(587),
+        // 不加密，仅用于本地测试服务器
+        PLAIN(25);
+
+        final int defaultPort;
+
+        Tls(int defaultPort) {
+            this.defaultPort = defaultPort;
+        }
+    }
+
+    public final String host;
+    public final int port;
+    public final Tls tls;
+    public final String user;
+    public final String password;
+    public final int ratePerMinute;
+    final Properties properties;
+    // 用户名不是合法邮箱时为 null，发送时再报错
+    final InternetAddress from;
+
+    public SmtpAccount(String host, int port, Tls tls, String user, String password, int ratePerMinute) {
+        this.host = host;
+        this.port = port;
+        this.tls = tls;
+        this.user = user;
+        this.password = password;
+        this.ratePerMinute = Math.max(0, ratePerMinute);
+        this.properties = SmtpTransportHolder.smtpProperties(host, port, tls);
+        InternetAddress address;
+        try {
+            address = parseAddress(user);
+        } catch (IllegalArgumentException e) {
+            address = null;
+        }
+        this.from = address;
+    }
+
+    /**
+     * 严格解析一个邮箱地址，格式不对时抛出 IllegalArgumentException。
+     */
+    public static InternetAddress parseAddress(String text) {
+        try {
+            return new InternetAddress(text, true);
+        } catch (AddressException e) {
+            throw new IllegalArgumentException("邮箱地址格式有误: " + text, e);
+        }
+    }
+
+    // 服务器、凭据和限速都相同的账号视为同一个，配置重新加载时沿用其连接和统计
+    String key() {
+        return host + ":" + port + "\u0000" + tls + "\u0000" + user + "\u0000" + password + "\u0000" + ratePerMinute;
+    }
+
+    // 用于日志和统计，不含密码
+    public String label() {
+        return user + " (" + host + ":" + port + ")";
+    }
+
+    /**
+     * 解析备用账号文本。有语法错误时抛出 IllegalArgumentException，消息中带行号。
+     */
+    public static List<SmtpAccount> parse(String text) {
+        List<SmtpAccount> accounts = new ArrayList<>();
+        String[] lines = text.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                accounts.add(parseLine(line));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("第 " + (i + 1) + " 行账号有误: " + e.getMessage(), e);
+            }
+        }
+        return accounts;
+    }
+
+    private static SmtpAccount parseLine(String line) {
+        String[] tokens = line.split("\\s+");
+        if (tokens.length < 3) {
+            throw new IllegalArgumentException("格式应为 用户名 密码 服务器[:端口]");
+        }
+        Tls tls = Tls.SSL;
+        int rate = DEFAULT_RATE_PER_MINUTE;
+        for (int i = 3; i < tokens.length; i++) {
+            String token = tokens[i].toLowerCase(Locale.ROOT);
+            if (token.startsWith("rate=")) {
+                rate = parseNumber(token.substring("rate=".length()), 0, 10_000, "rate");
+            } else {
+                try {
+                    tls = Tls.valueOf(token.toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("无法识别的选项 " + tokens[i]);
+                }
+            }
+        }
+        String host = tokens[2];
+        int port = tls.defaultPort;
+        int colon = host.lastIndexOf(':');
+        if (colon >= 0) {
+            port = parseNumber(host.substring(colon + 1), 1, 65535, "端口");
+            host = host.substring(0, colon);
+        }
+        if (host.isEmpty()) {
+            throw new IllegalArgumentException("缺少服务器地址");
+        }
+        parseAddress(tokens[0]);
+        return new SmtpAccount(host, port, tls, tokens[0], tokens[1], rate);
+    }
+
+    private static int parseNumber(String value, int min, int max, String name) {
+        try {
+            int n = Integer.parseInt(value);
+            if (n >= min && n <= max) {
+                return n;
+            }
+        } catch (NumberFormatException ignored) {
+            // 统一在下面报错
+        }
+        throw new IllegalArgumentException(name + " 应为 " + min + " 到 " + max + " 之间的整数");
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.myapplication;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPSenderFailedException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+
+/**
+ * 多个发件账号组成的发送池。
+ * <p>
+ * 每个账号有自己的 SMTP 连接、令牌桶和熔断器。发送时从上次使用的账号之后轮流挑选
+ * 未熔断且有令牌的账号；全部没有令牌时等待最早补充令牌的那个。认证失败或服务器回复 4xx/5xx
+ * 计入熔断器，连续失败的账号暂时移出轮换。
+ */
+public class SmtpAccountPool {
+
+    /**
+     * 池中的一个账号及其运行状态。
+     */
+    public static final class Account {
+        final SmtpAccount config;
+        final SmtpTransportHolder transportHolder = new SmtpTransportHolder();
+        // 验证码快速通道使用独立连接，不必等待普通短信占用的连接
+        final SmtpTransportHolder expressTransportHolder = new SmtpTransportHolder();
+        final TokenBucket bucket;
+        final CircuitBreaker breaker;
+        final ChannelMetrics metrics;
+        private final AtomicLong throttled = new AtomicLong();
+
+        Account(SmtpAccount config, CircuitBreaker breaker, long now) {
+            this.config = config;
+            this.bucket = TokenBucket.perMinute(config.ratePerMinute, now);
+            this.breaker = breaker;
+            this.metrics = new ChannelMetrics(config.label());
+        }
+
+        public SmtpAccount getConfig() {
+            return config;
+        }
+
+        public ChannelMetrics getMetrics() {
+            return metrics;
+        }
+
+        public CircuitBreaker.State getState() {
+            return breaker.getState();
+        }
+
+        // 因没有令牌而等待的次数
+        public long getThrottledCount() {
+            return throttled.get();
+        }
+
+        void close() {
+            transportHolder.close();
+            expressTransportHolder.close();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s，限流等待 %d 次，熔断 %d 次，当前 %s",
+                    metrics, getThrottledCount(), breaker.getTrips(), breaker.getState());
+        }
+    }
+
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 20_000;
+
+    private final long maxWaitMillis;
+    private final Supplier<CircuitBreaker> breakers;
+    private List<Account> accounts = new ArrayList<>();
+    private String accountsKey = "";
+    private List<SmtpAccount> lastConfigs;
+    private int cursor;
+
+    public SmtpAccountPool() {
+        this(DEFAULT_MAX_WAIT_MILLIS, CircuitBreaker::new);
+    }
+
+    // maxWaitMillis 为所有账号都没有令牌时最多等待的时长，应小于通道超时
+    public SmtpAccountPool(long maxWaitMillis, Supplier<CircuitBreaker> breakers) {
+        this.maxWaitMillis = maxWaitMillis;
+        this.breakers = breakers;
+    }
+
+    /**
+     * 替换账号列表。未变化的账号沿用原有连接、令牌和统计，被移除的账号关闭连接。
+     */
+    public synchronized void update(List<SmtpAccount> configs) {
+        // 配置快照未变时是同一个列表，不用逐个比较
+        if (configs == lastConfigs) {
+            return;
+        }
+        lastConfigs = configs;
+        StringBuilder key = new StringBuilder();
+        for (SmtpAccount config : configs) {
+            key.append(config.key()).append('\n');
+        }
+        if (key.toString().equals(accountsKey)) {
+            return;
+        }
+        Map<String, Account> previous = new HashMap<>();
+        for (Account account : accounts) {
+            previous.put(account.config.key(), account);
+        }
+        long now = System.nanoTime();
+        List<Account> next = new ArrayList<>();
+        for (SmtpAccount config : configs) {
+            Account account = previous.remove(config.key());
+            next.add(account != null ? account : new Account(config, breakers.get(), now));
+        }
+        for (Account removed : previous.values()) {
+            removed.close();
+        }
+        accounts = next;
+        accountsKey = key.toString();
+        cursor = 0;
+    }
+
+    public synchronized List<Account> getAccounts() {
+        return new ArrayList<>(accounts);
+    }
+
+    /**
+     * 取一个可用账号并消耗它的一个令牌，跳过 exclude 中已经试过的账号。
+     * 所有账号都已熔断时立即失败；只是没有令牌时最多等待 maxWaitMillis。
+     */
+    public Account acquire(Set<Account> exclude) throws MessagingException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        boolean waited = false;
+        while (true) {
+            long waitNanos = Long.MAX_VALUE;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long nowMillis = TimeUnit.NANOSECONDS.toMillis(now);
+                Account soonest = null;
+                for (int i = 0; i < accounts.size(); i++) {
+                    Account account = accounts.get((cursor + i) % accounts.size());
+                    if (exclude.contains(account) || !account.breaker.isAvailable(nowMillis)) {
+                        continue;
+                    }
+                    long untilToken = account.bucket.nanosUntilAvailable(now);
+                    if (untilToken > 0) {
+                        if (untilToken < waitNanos) {
+                            waitNanos = untilToken;
+                            soonest = account;
+                        }
+                    } else if (account.breaker.tryAcquire(nowMillis)) {
+                        account.bucket.tryAcquire(now);
+                        cursor = (accounts.indexOf(account) + 1) % accounts.size();
+                        return account;
+                    }
+                }
+                if (soonest == null) {
+                    throw new MessagingException("没有可用的发件账号（均已熔断或已试过）");
+                }
+                if (now + waitNanos > deadline) {
+                    throw new MessagingException("所有发件账号均已达到发送速率上限");
+                }
+                if (!waited) {
+                    // 一次申请只计一次，记在最早有令牌的账号上
+                    waited = true;
+                    soonest.throttled.incrementAndGet();
+                }
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MessagingException("等待发送令牌时被中断", e);
+            }
+        }
+    }
+
+    // 记录一次发送结果并更新熔断器；error 为 null 表示成功
+    public void release(Account account, long latencyNanos, MessagingException error) {
+        account.metrics.recordAttempt();
+        if (error == null) {
+            account.metrics.recordSuccess(latencyNanos);
+            account.breaker.onSuccess();
+            return;
+        }
+        account.metrics.recordFailure();
+        if (isAccountFailure(error)) {
+            account.breaker.onFailure(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+        } else {
+            account.breaker.onIgnored();
+        }
+    }
+
+    /**
+     * 是否是账号本身的问题：认证失败，或服务器对发件人或邮件内容回复 4xx/5xx（如发送频率过高）。
+     * 收件人被拒换账号也没有用，网络错误与账号无关，二者都不计入。
+     */
+    static boolean isAccountFailure(MessagingException error) {
+        for (Exception e = error; e != null;
+             e = e instanceof MessagingException ? ((MessagingException) e).getNextException() : null) {
+            if (e instanceof AuthenticationFailedException) {
+                return true;
+            }
+            if (e instanceof SMTPAddressFailedException) {
+                return false;
+            }
+            int code = -1;
+            if (e instanceof SMTPSendFailedException) {
+                code = ((SMTPSendFailedException) e).getReturnCode();
+            } else if (e instanceof SMTPSenderFailedException) {
+                code = ((SMTPSenderFailedException) e).getReturnCode();
+            }
+            if (code >= 400 && code < 600) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.myapplication;
+
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * 进程内共享的 SMTP 连接持有者。
+ * <p>
+ * 保持一个已认证的 {@link Transport} 在空闲时间内不断开，连续发送时复用同一条 TLS 连接，
+ * 避免每条短信都重新握手和 AUTH。凭据或服务器变化时才重建 Session。
+ */
+public class SmtpTransportHolder {
+
+    public static final long DEFAULT_IDLE_MILLIS = 60_000L;
+
+    // 连接闲置超过该时间后，使用前先发 NOOP 探活；连续发送时省掉这一次往返
+    private static final long PROBE_AFTER_MILLIS = 3_000L;
+
+    private final ScheduledExecutorService idleReaper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "smtp-idle-reaper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile long idleMillis;
+
+    private String sessionKey;
+    private Session session;
+    private Transport transport;
+    private String user;
+    private String password;
+    private long lastUsedAt;
+    private ScheduledFuture<?> idleClose;
+    private int connectCount;
+
+    public SmtpTransportHolder() {
+        this(DEFAULT_IDLE_MILLIS);
+    }
+
+    public SmtpTransportHolder(long idleMillis) {
+        this.idleMillis = idleMillis;
+    }
+
+    // 构建与原先 EmailService 相同的 SMTP 属性；ssl 为 false 时使用明文连接（仅用于本地测试服务器）
+    public static Properties smtpProperties(String host, int port, boolean ssl) {
+        return smtpProperties(host, port, ssl ? SmtpAccount.Tls.SSL : SmtpAccount.Tls.PLAIN);
+    }
+
+    public static Properties smtpProperties(String host, int port, SmtpAccount.Tls tls) {
+        Properties props = new Properties();
+        props.put("mail.smtp.host", host);
+        props.put("mail.smtp.port", String.valueOf(port));
+        if (tls == SmtpAccount.Tls.SSL) {
+            props.put("mail.smtp.socketFactory.port", String.valueOf(port));
+            props.put("mail.smtp.socketFactory.class", "javax.net.ssl.SSLSocketFactory");
+        } else if (tls == SmtpAccount.Tls.STARTTLS) {
+            // 服务器不支持 STARTTLS 时直接失败，不退回明文发送密码
+            props.put("mail.smtp.starttls.enable", "true");
+            props.put("mail.smtp.starttls.required", "true");
+        }
+        props.put("mail.smtp.auth", "true");
+        // 添加超时设置，防止网络问题导致服务长时间运行无法停止
+        props.put("mail.smtp.connectiontimeout", "10000");
+        props.put("mail.smtp.timeout", "10000");
+        props.put("mail.smtp.writetimeout", "10000");
+        return props;
+    }
+
+    public void setIdleMillis(long idleMillis) {
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     * 返回与给定配置对应的 Session。配置（服务器或凭据）变化时关闭旧连接并重建。
+     */
+    public synchronized Session session(Properties props, String user, String password) {
+        String key = props.getProperty("mail.smtp.host") + ":" + props.getProperty("mail.smtp.port")
+                + "\u0000" + props.getProperty("mail.smtp.socketFactory.class")
+                + "\u0000" + props.getProperty("mail.smtp.starttls.enable") + "\u0000" + user + "\u0000" + password;
+        if (!key.equals(sessionKey)) {
+            closeTransport();
+            long start = System.nanoTime();
+            session = Session.getInstance(props);
+            LatencyStats.record(LatencyStats.Stage.SMTP_SESSION, System.nanoTime() - start);
+            sessionKey = key;
+            this.user = user;
+            this.password = password;
+        }
+        return session;
+    }
+
+    /**
+     * 通过保持的连接发送邮件。连接已断开时自动重连，发送途中断开则重连后重试一次。
+     */
+    public synchronized void send(MimeMessage message) throws MessagingException {
+        if (session == null) {
+            throw new IllegalStateException("session() must be called before send()");
+        }
+        message.saveChanges();
+        Transport t = acquire();
+        long start = System.nanoTime();
+        try {
+            t.sendMessage(message, message.getAllRecipients());
+            LatencyStats.record(LatencyStats.Stage.SMTP_SEND, System.nanoTime() - start);
+        } catch (MessagingException e) {
+            // 连接仍然可用说明是收件人被拒等业务错误，重试没有意义
+            if (t.isConnected()) {
+                touch();
+                throw e;
+            }
+            closeTransport();
+            acquire().sendMessage(message, message.getAllRecipients());
+        }
+        touch();
+    }
+
+    // 已建立的连接数，用于统计与测试
+    public synchronized int getConnectCount() {
+        return connectCount;
+    }
+
+    public synchronized void close() {
+        closeTransport();
+    }
+
+    private Transport acquire() throws MessagingException {
+        long now = System.currentTimeMillis();
+        if (transport != null && now - lastUsedAt > idleMillis) {
+            // 超过空闲期的连接很可能已被服务器单方面断开，直接换新的
+            closeTransport();
+        } else if (transport != null && now - lastUsedAt > PROBE_AFTER_MILLIS && !transport.isConnected()) {
+            // SMTPTransport.isConnected() 内部会发送 NOOP
+            closeTransport();
+        }
+        if (transport == null) {
+            long start = System.nanoTime();
+            Transport t = session.getTransport("smtp");
+            t.connect(user, password);
+            LatencyStats.record(LatencyStats.Stage.SMTP_CONNECT, System.nanoTime() - start);
+            transport = t;
+            connectCount++;
+        }
+        return transport;
+    }
+
+    private void touch() {
+        lastUsedAt = System.currentTimeMillis();
+        if (idleClose != null) {
+            idleClose.cancel(false);
+        }
+        idleClose = idleReaper.schedule(this::closeIfIdle, idleMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void closeIfIdle() {
+        if (System.currentTimeMillis() - lastUsedAt >= idleMillis) {
+            closeTransport();
+        }
+    }
+
+    private void closeTransport() {
+        if (idleClose != null) {
+            idleClose.cancel(false);
+            idleClose = null;
+        }
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (MessagingException ignored) {
+                // 连接本身可能已经断开
+            }
+            transport = null;
+        }
+    }
+}
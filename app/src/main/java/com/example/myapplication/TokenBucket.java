@@ -0,0 +1,56 @@
+package com.example.myapplication;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 令牌桶限速。令牌按固定速率补充，最多攒到容量上限，允许短时间的突发。
+ * 时间参数使用单调时钟的纳秒值，例如 System.nanoTime()。
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long refilledAt;
+
+    // ratePerMinute 为 0 时不限速
+    public TokenBucket(int ratePerMinute, int capacity, long now) {
+        this.capacity = Math.max(1, capacity);
+        this.tokensPerNano = ratePerMinute / (double) TimeUnit.MINUTES.toNanos(1);
+        this.tokens = this.capacity;
+        this.refilledAt = now;
+    }
+
+    // 按每分钟速率的四分之一作为突发容量，至少 1 个
+    public static TokenBucket perMinute(int ratePerMinute, long now) {
+        return new TokenBucket(ratePerMinute, Math.max(1, ratePerMinute / 4), now);
+    }
+
+    public synchronized boolean tryAcquire(long now) {
+        if (tokensPerNano == 0) {
+            return true;
+        }
+        refill(now);
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    // 距离下一个令牌可用还需等待的纳秒数，已有令牌时为 0
+    public synchronized long nanosUntilAvailable(long now) {
+        if (tokensPerNano == 0) {
+            return 0;
+        }
+        refill(now);
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    private void refill(long now) {
+        if (now > refilledAt) {
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+            refilledAt = now;
+        }
+    }
+}
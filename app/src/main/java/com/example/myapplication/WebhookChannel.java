@@ -0,0 +1,62 @@
+package com.example.myapplication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * HTTP Webhook 通道：以 JSON POST 到配置的地址，2xx 视为成功。每个请求带 Idempotency-Key 头。
+ */
+public class WebhookChannel implements ForwardChannel {
+
+    private final URL url;
+    private final int timeoutMillis;
+
+    public WebhookChannel(URL url, int timeoutMillis) {
+        this.url = url;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public String name() {
+        return WEBHOOK;
+    }
+
+    @Override
+    public void send(List<OutboundQueue.Entry> batch) throws IOException {
+        byte[] body = MessageFormatter.toJson(batch).getBytes(StandardCharsets.UTF_8);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            // 超时后重发的同一批短信带相同的键，接收端可以据此去重
+            connection.setRequestProperty("Idempotency-Key", MessageFormatter.idempotencyKey(batch));
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            int status = connection.getResponseCode();
+            // 读完响应体，让连接可以被复用
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (in != null) {
+                    byte[] buffer = new byte[512];
+                    while (in.read(buffer) >= 0) {
+                        // 丢弃
+                    }
+                }
+            }
+            if (status < 200 || status >= 300) {
+                throw new IOException("Webhook 返回 HTTP " + status);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
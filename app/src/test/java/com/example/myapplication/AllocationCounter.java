@@ -0,0 +1,38 @@
+package com.example.myapplication;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.IntConsumer;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 检查热路径在当前线程上不分配对象。耗时由 benchmark 模块的 JMH 基准测量，单元测试只看分配。
+ */
+public final class AllocationCounter {
+
+    private static final int WARMUP = 200_000;
+    private static final int ITERATIONS = 1_000_000;
+    // 允许 MXBean 调用本身产生的少量分配
+    private static final long TOLERANCE_BYTES = 64 * 1024;
+
+    private AllocationCounter() {
+    }
+
+    /**
+     * 预热后再执行 op 一百万次，分配的字节数超过容差则失败。op 的参数为循环序号。
+     */
+    public static void assertAllocationFree(IntConsumer op) {
+        for (int i = 0; i < WARMUP; i++) {
+            op.accept(i);
+        }
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < ITERATIONS; i++) {
+            op.accept(i);
+        }
+        long allocated = threads.getThreadAllocatedBytes(tid) - before;
+        assertTrue("allocated " + allocated + " bytes over " + ITERATIONS + " ops", allocated < TOLERANCE_BYTES);
+    }
+}
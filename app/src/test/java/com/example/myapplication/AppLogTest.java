@@ -0,0 +1,52 @@
+package com.example.myapplication;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppLogTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    // 持久化日志在后台打开，打开前写下的日志补写一次，之后的照常写入，都不重复
+    @Test
+    public void journalOpenedLateReceivesEarlierLinesOnce() throws Exception {
+        String marker = "late-journal-" + System.nanoTime();
+        AppLog.i(LogRing.Stage.APP, "AppLogTest", marker + " 1");
+        AppLog.w(LogRing.Stage.RECEIVE, "AppLogTest", marker + " 2");
+
+        EventJournal journal = new EventJournal(new File(tmp.getRoot(), "events"), 64 * 1024);
+        Thread opener = new Thread(() -> AppLog.setJournal(journal));
+        Thread writer = new Thread(() -> {
+            for (int i = 3; i <= 200; i++) {
+                AppLog.d(LogRing.Stage.QUEUE, "AppLogTest", marker + " " + i);
+            }
+        });
+        writer.start();
+        opener.start();
+        writer.join();
+        opener.join();
+        AppLog.i(LogRing.Stage.APP, "AppLogTest", marker + " 201");
+
+        List<String> lines = new ArrayList<>();
+        journal.read((time, kind, stage, text) -> {
+            if (text.startsWith(marker)) {
+                lines.add(text);
+            }
+        });
+        assertEquals(201, lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals(marker + " " + (i + 1), lines.get(i));
+        }
+    }
+}
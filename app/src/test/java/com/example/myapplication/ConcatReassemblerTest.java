@@ -0,0 +1,132 @@
+package com.example.myapplication;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConcatReassemblerTest {
+
+    private static final long TIMEOUT = 60_000;
+    private static final String LONG_TEXT = "【银行】您尾号1234的信用卡本期账单已出，请按时还款。".repeat(8);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void parsesConcatHeaderFromBothFormats() {
+        byte[][] gsm = SmsPduBuilder.gsm("95588", LONG_TEXT, 42, 0);
+        byte[][] cdma = SmsPduBuilder.cdma("95588", LONG_TEXT, 42);
+        assertTrue(gsm.length > 1);
+        for (String format : new String[]{SmsPduBuilder.FORMAT_3GPP, SmsPduBuilder.FORMAT_3GPP2}) {
+            byte[][] pdus = SmsPduBuilder.FORMAT_3GPP2.equals(format) ? cdma : gsm;
+            for (int i = 0; i < pdus.length; i++) {
+                ConcatReassembler.Header header = ConcatReassembler.parseHeader(pdus[i], format);
+                assertNotNull(format, header);
+                assertEquals(format, 42, header.reference);
+                assertEquals(format, pdus.length, header.count);
+                assertEquals(format, i + 1, header.seq);
+            }
+        }
+        // 单段短信没有拼接头
+        assertNull(ConcatReassembler.parseHeader(SmsPduBuilder.gsm("10086", "hello", 1, 0)[0],
+                SmsPduBuilder.FORMAT_3GPP));
+        assertNull(ConcatReassembler.parseHeader(SmsPduBuilder.cdma("10086", "hello", 1)[0],
+                SmsPduBuilder.FORMAT_3GPP2));
+        assertNull(ConcatReassembler.parseHeader(new byte[]{0x00, 0x44}, SmsPduBuilder.FORMAT_3GPP));
+    }
+
+    @Test
+    public void joinsPartsArrivingOutOfOrder() throws Exception {
+        ConcatReassembler reassembler = new ConcatReassembler(null, TIMEOUT, 8, 4096);
+        assertTrue(reassembler.offer("95588", header(7, 3, 3), "C", 0, 0).isEmpty());
+        assertTrue(reassembler.offer("95588", header(7, 3, 1), "A", 10, 10).isEmpty());
+        // 同一编号但来自其他号码的不会混在一起
+        assertTrue(reassembler.offer("10086", header(7, 3, 2), "x", 20, 20).isEmpty());
+        // 重复投递的同一段只算一次
+        assertTrue(reassembler.offer("95588", header(7, 3, 1), "A", 30, 30).isEmpty());
+
+        List<ConcatReassembler.Message> ready = reassembler.offer("95588", header(7, 3, 2), "B", 40, 40);
+        assertEquals(1, ready.size());
+        ConcatReassembler.Message message = ready.get(0);
+        assertTrue(message.isComplete());
+        assertEquals("95588", message.sender);
+        assertEquals("ABC", message.body);
+        assertEquals(0, message.firstReceivedAt);
+        assertEquals(1, reassembler.getPendingGroups());
+        assertEquals(1, reassembler.getBufferedChars());
+    }
+
+    @Test
+    public void flushesIncompleteGroupAfterTimeout() throws Exception {
+        ConcatReassembler reassembler = new ConcatReassembler(null, TIMEOUT, 8, 4096);
+        reassembler.offer("95588", header(9, 3, 1), "第一段", 1_000, 0);
+        reassembler.offer("95588", header(9, 3, 3), "第三段", 2_000, 0);
+        assertEquals(1_000 + TIMEOUT, reassembler.nextDeadline());
+        assertTrue(reassembler.flushExpired(TIMEOUT).isEmpty());
+
+        List<ConcatReassembler.Message> expired = reassembler.flushExpired(1_000 + TIMEOUT);
+        assertEquals(1, expired.size());
+        ConcatReassembler.Message message = expired.get(0);
+        assertFalse(message.isComplete());
+        assertEquals(2, message.received);
+        assertEquals(3, message.expected);
+        assertEquals("第一段[…]第三段\n[长短信不完整：共 3 段，未收到第 2 段]", message.body);
+        assertEquals(0, reassembler.getPendingGroups());
+        assertEquals(-1, reassembler.nextDeadline());
+    }
+
+    @Test
+    public void evictsOldestGroupWhenFull() throws Exception {
+        ConcatReassembler reassembler = new ConcatReassembler(null, TIMEOUT, 2, 10);
+        reassembler.offer("a", header(1, 2, 1), "1234", 0, 0);
+        reassembler.offer("b", header(2, 2, 1), "1234", 1, 1);
+        List<ConcatReassembler.Message> evicted = reassembler.offer("c", header(3, 2, 1), "1234", 2, 2);
+        assertEquals(1, evicted.size());
+        assertEquals("a", evicted.get(0).sender);
+        assertEquals(2, reassembler.getPendingGroups());
+
+        // 字符数超限同样从最早的一组开始发出
+        evicted = reassembler.offer("c", header(4, 2, 1), "12345678", 3, 3);
+        assertEquals(2, evicted.size());
+        assertEquals("b", evicted.get(0).sender);
+        assertEquals("c", evicted.get(1).sender);
+        assertTrue(reassembler.getBufferedChars() <= 10);
+    }
+
+    @Test
+    public void survivesRestart() throws Exception {
+        File file = new File(tmp.getRoot(), ConcatReassembler.FILE_NAME);
+        long now = System.currentTimeMillis();
+        byte[][] pdus = SmsPduBuilder.gsm("95588", LONG_TEXT, 200, now);
+        ConcatReassembler first = new ConcatReassembler(file, TIMEOUT, 8, 4096);
+        for (int i = 0; i < pdus.length - 1; i++) {
+            first.offer("95588", ConcatReassembler.parseHeader(pdus[i], SmsPduBuilder.FORMAT_3GPP),
+                    "P" + i, now, 0);
+        }
+        assertTrue(file.exists());
+
+        ConcatReassembler reopened = new ConcatReassembler(file, TIMEOUT, 8, 4096);
+        assertEquals(1, reopened.getPendingGroups());
+        int last = pdus.length - 1;
+        List<ConcatReassembler.Message> ready = reopened.offer("95588",
+                ConcatReassembler.parseHeader(pdus[last], SmsPduBuilder.FORMAT_3GPP), "P" + last, now, 0);
+        assertEquals(1, ready.size());
+        assertTrue(ready.get(0).isComplete());
+        assertTrue(ready.get(0).body.startsWith("P0P1"));
+        // 缓存清空后删除文件
+        assertFalse(file.exists());
+    }
+
+    private static ConcatReassembler.Header header(int reference, int count, int seq) {
+        return new ConcatReassembler.Header(reference, count, seq);
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.myapplication;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DedupCacheTest {
+
+    private static final long WINDOW = 60_000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void suppressesRepeatsWithinWindow() throws Exception {
+        DedupCache cache = new DedupCache(null, WINDOW, 64);
+        assertFalse(cache.isDuplicate("+8613800138000", "您的验证码是 123456", 0));
+        // 号码格式和空白不同也视为同一条
+        assertTrue(cache.isDuplicate("13800138000", "  您的验证码是  123456\n", 1_000));
+        assertTrue(cache.isDuplicate("0086 138-0013-8000", "您的验证码是 123456", 2_000));
+        // 不同的短信网关号码发来的同一条通知
+        assertFalse(cache.isDuplicate("1069012345", "【银行】您尾号1234的卡支出100元", 3_000));
+        assertTrue(cache.isDuplicate("10655012345", "【银行】您尾号1234的卡支出100元", 4_000));
+        assertFalse(cache.isDuplicate("13800138000", "您的验证码是 654321", 5_000));
+        assertEquals(3, cache.getSuppressedCount());
+
+        // 过了窗口再收到算新短信
+        assertFalse(cache.isDuplicate("13800138000", "您的验证码是 123456", WINDOW + 1));
+    }
+
+    @Test
+    public void checkDuplicateDoesNotRecord() throws Exception {
+        DedupCache cache = new DedupCache(null, WINDOW, 64);
+        // 写入队列失败时没有记下，同一条短信再次送来仍会处理
+        assertFalse(cache.checkDuplicate("95588", "余额变动提醒", 0));
+        assertFalse(cache.checkDuplicate("95588", "余额变动提醒", 1_000));
+        cache.remember("95588", "余额变动提醒", 2_000);
+        assertTrue(cache.checkDuplicate("95588", "余额变动提醒", 3_000));
+        assertEquals(1, cache.getSuppressedCount());
+    }
+
+    @Test
+    public void survivesRestart() throws Exception {
+        File file = new File(tmp.getRoot(), DedupCache.FILE_NAME);
+        long now = System.currentTimeMillis();
+        DedupCache cache = new DedupCache(file, WINDOW, 64);
+        assertFalse(cache.isDuplicate("95588", "余额变动提醒", now));
+        cache.close();
+
+        DedupCache reopened = new DedupCache(file, WINDOW, 64);
+        assertTrue(reopened.isDuplicate("95588", "余额变动提醒", now + 1_000));
+        reopened.close();
+    }
+
+    @Test
+    public void memoryStaysBoundedUnderFlood() throws Exception {
+        File file = new File(tmp.getRoot(), DedupCache.FILE_NAME);
+        DedupCache cache = new DedupCache(file, WINDOW, 1024);
+        long memory = cache.getMemoryBytes();
+        for (int i = 0; i < 50_000; i++) {
+            assertFalse(cache.isDuplicate("10086", "第 " + i + " 条", i));
+        }
+        assertEquals(memory, cache.getMemoryBytes());
+        int size = cache.size(50_000);
+        assertTrue("size " + size, size >= 768 && size <= 1024);
+        // 最新的仍能识别，被挤出的最旧的不能
+        assertTrue(cache.isDuplicate("10086", "第 49999 条", 50_000));
+        assertFalse(cache.isDuplicate("10086", "第 0 条", 50_000));
+        // 文件也会被重写，不随短信数量增长
+        assertTrue(file.length() <= 2 * 1024 * 16 + 16);
+        cache.close();
+    }
+
+    @Test
+    public void idempotencyKeyIsStablePerBatch() {
+        OutboundQueue.Entry a = entry(1, 0x1234L);
+        OutboundQueue.Entry b = entry(2, 0x5678L);
+        assertEquals("1234", MessageFormatter.idempotencyKey(Arrays.asList(a)));
+        assertEquals(MessageFormatter.idempotencyKey(Arrays.asList(a, b)),
+                MessageFormatter.idempotencyKey(Arrays.asList(entry(1, 0x1234L), entry(2, 0x5678L))));
+        assertNotEquals(MessageFormatter.idempotencyKey(Arrays.asList(a, b)),
+                MessageFormatter.idempotencyKey(Arrays.asList(b, a)));
+        assertEquals("<1234.sms@sms-forwarder.invalid>", EmailChannel.messageId(Arrays.asList(a)));
+    }
+
+    private static OutboundQueue.Entry entry(long id, long traceId) {
+        return new OutboundQueue.Entry(id, 0, "10086", "test", OtpClassifier.PRIORITY_NORMAL, null, null, traceId, 0);
+    }
+}
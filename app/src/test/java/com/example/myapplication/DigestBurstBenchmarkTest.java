@@ -0,0 +1,124 @@
+package com.example.myapplication;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import javax.mail.Message;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 合并窗口的基准：模拟几轮短信突发，统计每条短信对应的邮件数和端到端延迟。
+ * 窗口按比例缩小到毫秒级以便在单元测试中运行，断言失败时在消息中给出该组的统计。
+ */
+public class DigestBurstBenchmarkTest {
+
+    private static final int BURSTS = 3;
+    private static final int BURST_SIZE = 10;
+    private static final long INTRA_BURST_GAP_MILLIS = 20;
+    private static final long INTER_BURST_GAP_MILLIS = 600;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void coalescingReducesEmailsPerSms() throws Exception {
+        Result direct = run(0, 20);
+        Result small = run(100, 20);
+        Result large = run(400, 20);
+        Result capped = run(400, 4);
+
+        int total = BURSTS * BURST_SIZE;
+        assertEquals(direct.toString(), total, direct.emails);
+        assertTrue(small.toString(), small.emails < total);
+        assertTrue(large.toString(), large.emails <= BURSTS * 2);
+        assertTrue(capped.toString(), capped.emails >= total / 4);
+    }
+
+    private Result run(long windowMillis, int maxBatch) throws Exception {
+        File journal = new File(tmp.getRoot(), "queue-" + windowMillis + "-" + maxBatch);
+        OutboundQueue queue = new OutboundQueue(journal, new RetryBackoff(1_000, 60_000, new Random(1)));
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        try (FakeSmtpServer server = new FakeSmtpServer()) {
+            SmtpTransportHolder holder = new SmtpTransportHolder();
+            Properties props = SmtpTransportHolder.smtpProperties("127.0.0.1", server.getPort(), false);
+            SendDispatcher dispatcher = new SendDispatcher(queue, (batch, done) -> {
+                try {
+                    Session session = holder.session(props, "from@example.com", "secret");
+                    MimeMessage message = new MimeMessage(session);
+                    message.setFrom(new InternetAddress("from@example.com"));
+                    message.setRecipients(Message.RecipientType.TO, InternetAddress.parse("to@example.com"));
+                    message.setSubject(MessageFormatter.subject(batch));
+                    message.setText(MessageFormatter.body(batch));
+                    holder.send(message);
+                    long now = System.currentTimeMillis();
+                    for (OutboundQueue.Entry entry : batch) {
+                        latencies.add(now - entry.createdAt);
+                        queue.ack(entry.id);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    done.run();
+                }
+            }, 1, SendDispatcher.DEFAULT_CAPACITY);
+            if (windowMillis > 0) {
+                dispatcher.setCoalescer(new DigestCoalescer(windowMillis, maxBatch, null));
+            }
+
+            for (int b = 0; b < BURSTS; b++) {
+                for (int i = 0; i < BURST_SIZE; i++) {
+                    queue.enqueue("1069" + i, "第 " + b + " 轮第 " + i + " 条通知", System.currentTimeMillis());
+                    dispatcher.pump();
+                    Thread.sleep(INTRA_BURST_GAP_MILLIS);
+                }
+                Thread.sleep(INTER_BURST_GAP_MILLIS);
+            }
+            assertTrue(dispatcher.awaitIdle(10_000));
+            holder.close();
+
+            List<Long> sorted = new ArrayList<>(latencies);
+            Collections.sort(sorted);
+            return new Result(windowMillis, maxBatch, sorted.size(), server.getMessages().size(), sorted);
+        }
+    }
+
+    private static class Result {
+        final long window;
+        final int maxBatch;
+        final int sms;
+        final int emails;
+        final List<Long> latencies;
+
+        Result(long window, int maxBatch, int sms, int emails, List<Long> latencies) {
+            this.window = window;
+            this.maxBatch = maxBatch;
+            this.sms = sms;
+            this.emails = emails;
+            this.latencies = latencies;
+        }
+
+        long percentile(double p) {
+            int index = (int) Math.ceil(p * latencies.size()) - 1;
+            return latencies.get(Math.max(0, Math.min(index, latencies.size() - 1)));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("window %d ms, maxBatch %d: %d sms in %d emails, p50 %d ms, p95 %d ms, max %d ms",
+                    window, maxBatch, sms, emails, percentile(0.5), percentile(0.95), percentile(1.0));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.myapplication;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventJournalTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void wrapsAroundAndKeepsNewestRecords() throws Exception {
+        EventJournal journal = new EventJournal(new File(tmp.getRoot(), "events"), 4096);
+        for (int i = 0; i < 1000; i++) {
+            journal.append(i, 4, LogRing.Stage.QUEUE, "第 " + i + " 条");
+        }
+        List<String> texts = new ArrayList<>();
+        List<Long> times = new ArrayList<>();
+        journal.read((time, kind, stage, text) -> {
+            texts.add(text);
+            times.add(time);
+        });
+        assertEquals("第 999 条", texts.get(texts.size() - 1));
+        assertTrue(texts.size() > 100 && texts.size() < 1000);
+        for (int i = 1; i < times.size(); i++) {
+            assertEquals(times.get(i - 1) + 1, (long) times.get(i));
+        }
+    }
+
+    // 不关闭直接用新实例打开同一文件，模拟进程崩溃后重启
+    @Test
+    public void recordsSurviveWithoutClose() throws Exception {
+        File file = new File(tmp.getRoot(), "events");
+        EventJournal journal = new EventJournal(file, 64 * 1024);
+        journal.append(1, 4, LogRing.Stage.RECEIVE, "成功接收到来自 10086 的短信。");
+        journal.append(2, EventJournal.KIND_CRASH, LogRing.Stage.APP, "CRASH 😀\n\tat Foo.bar");
+
+        EventJournal reopened = new EventJournal(file, 64 * 1024);
+        StringWriter text = new StringWriter();
+        EventJournalExporter.writeText(reopened, text);
+        assertTrue(text.toString().contains("I [RECEIVE] 成功接收到来自 10086 的短信。"));
+        assertTrue(text.toString().contains("CRASH [APP] CRASH 😀\n\tat Foo.bar"));
+
+        StringWriter json = new StringWriter();
+        EventJournalExporter.writeJson(reopened, json);
+        String[] lines = json.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("{\"time\":2,\"level\":\"CRASH\",\"stage\":\"APP\",\"text\":\"CRASH 😀\\n\\tat Foo.bar\"}", lines[1]);
+    }
+
+    // onReceive 中的追加不分配对象；耗时见 benchmark 模块的 LogFormatBenchmark
+    @Test
+    public void appendIsAllocationFree() throws Exception {
+        EventJournal journal = new EventJournal(new File(tmp.getRoot(), "events"), EventJournal.DEFAULT_CAPACITY);
+        String message = "成功接收到来自 10690001 的短信。";
+        AllocationCounter.assertAllocationFree(i -> journal.append(i, 4, LogRing.Stage.RECEIVE, message));
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.myapplication;
+
+/**
+ * 手动切换在线状态的网络来源，状态变化时在调用线程上通知监听者。
+ */
+public class FakeConnectivitySource implements ConnectivitySource {
+
+    private volatile boolean online;
+    private volatile Listener listener;
+
+    public FakeConnectivitySource(boolean online) {
+        this.online = online;
+    }
+
+    public void setOnline(boolean online) {
+        if (this.online == online) {
+            return;
+        }
+        this.online = online;
+        Listener l = listener;
+        if (l != null) {
+            l.onConnectivityChanged(online);
+        }
+    }
+
+    @Override
+    public boolean isOnline() {
+        return online;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+}
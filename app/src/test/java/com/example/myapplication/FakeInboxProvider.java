@@ -0,0 +1,66 @@
+package com.example.myapplication;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.provider.Telephony;
+
+/**
+ * 用内存 SQLite 模拟系统短信收件箱，记录单次查询返回的最多行数，用于检查分页读取。
+ */
+public class FakeInboxProvider extends ContentProvider {
+
+    private SQLiteDatabase db;
+    int maxRowsPerQuery;
+
+    @Override
+    public boolean onCreate() {
+        db = SQLiteDatabase.create(null);
+        db.execSQL("CREATE TABLE sms (_id INTEGER PRIMARY KEY AUTOINCREMENT, address TEXT, body TEXT, date INTEGER)");
+        return true;
+    }
+
+    long add(String address, String body, long date) {
+        ContentValues values = new ContentValues();
+        values.put(Telephony.Sms.ADDRESS, address);
+        values.put(Telephony.Sms.BODY, body);
+        values.put(Telephony.Sms.DATE, date);
+        return db.insert("sms", null, values);
+    }
+
+    // 模拟短信数据库被清空重建，_id 从 1 重新编号
+    void reset() {
+        db.close();
+        onCreate();
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        // 与系统的短信 Provider 一样，排序参数里可以带 LIMIT
+        Cursor cursor = db.query("sms", projection, selection, selectionArgs, null, null, sortOrder);
+        maxRowsPerQuery = Math.max(maxRowsPerQuery, cursor.getCount());
+        return cursor;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.myapplication;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 本地明文 SMTP 服务器，只实现 JavaMail 发送所需的最小命令集，记录收到的邮件和连接数。
+ * 可以给每封邮件加上延迟，或按比例以 451 拒收，模拟慢速或不稳定的服务器。
+ */
+public class FakeSmtpServer implements Closeable {
+
+    public interface Listener {
+        // 在服务器线程上、回复 250 之前调用
+        void onMessage(String data);
+    }
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+    private final List<Socket> clients = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger received = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+    private volatile boolean keepMessages = true;
+    private volatile long dataDelayMillis;
+    private volatile double failureRate;
+    private volatile Listener listener;
+
+    public FakeSmtpServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        executor.execute(this::acceptLoop);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    // 长时间压测时只计数，不保存邮件内容
+    public void setKeepMessages(boolean keep) {
+        keepMessages = keep;
+    }
+
+    public int getReceivedCount() {
+        return received.get();
+    }
+
+    // 收完邮件内容后等待一段时间再回复
+    public void setDataDelayMillis(long millis) {
+        dataDelayMillis = millis;
+    }
+
+    // 以给定概率回复 451 临时失败，被拒收的邮件不计入收到的邮件
+    public void setFailureRate(double rate) {
+        failureRate = rate;
+    }
+
+    public int getRejectedCount() {
+        return rejected.get();
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public List<String> getMessages() {
+        synchronized (messages) {
+            return new ArrayList<>(messages);
+        }
+    }
+
+    // 模拟服务器单方面断开所有已建立的连接
+    public void dropClients() throws IOException {
+        synchronized (clients) {
+            for (Socket s : clients) {
+                s.close();
+            }
+            clients.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        dropClients();
+        executor.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                clients.add(socket);
+                executor.execute(() -> handle(socket));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream out = s.getOutputStream();
+            reply(out, "220 localhost fake smtp");
+            String line;
+            while ((line = in.readLine()) != null) {
+                String cmd = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line.toUpperCase();
+                switch (cmd) {
+                    case "EHLO":
+                        reply(out, "250-localhost\r\n250-AUTH PLAIN LOGIN\r\n250 8BITMIME");
+                        break;
+                    case "HELO":
+                        reply(out, "250 localhost");
+                        break;
+                    case "AUTH":
+                        if (line.toUpperCase().startsWith("AUTH LOGIN")) {
+                            reply(out, "334 VXNlcm5hbWU6");
+                            in.readLine();
+                            reply(out, "334 UGFzc3dvcmQ6");
+                            in.readLine();
+                        } else if (line.trim().equalsIgnoreCase("AUTH PLAIN")) {
+                            reply(out, "334");
+                            in.readLine();
+                        }
+                        reply(out, "235 authenticated");
+                        break;
+                    case "DATA":
+                        reply(out, "354 end with <CRLF>.<CRLF>");
+                        StringBuilder data = new StringBuilder();
+                        while ((line = in.readLine()) != null && !line.equals(".")) {
+                            data.append(line.startsWith("..") ? line.substring(1) : line).append("\r\n");
+                        }
+                        long delay = dataDelayMillis;
+                        if (delay > 0) {
+                            Thread.sleep(delay);
+                        }
+                        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+                            rejected.incrementAndGet();
+                            reply(out, "451 4.3.0 temporary failure");
+                            break;
+                        }
+                        received.incrementAndGet();
+                        if (keepMessages) {
+                            messages.add(data.toString());
+                        }
+                        Listener l = listener;
+                        if (l != null) {
+                            l.onMessage(data.toString());
+                        }
+                        reply(out, "250 queued");
+                        break;
+                    case "QUIT":
+                        reply(out, "221 bye");
+                        return;
+                    default:
+                        // MAIL / RCPT / RSET / NOOP
+                        reply(out, "250 ok");
+                        break;
+                }
+            }
+        } catch (IOException ignored) {
+            // 客户端断开
+        } catch (InterruptedException e) {
+            // 服务器关闭
+            Thread.currentThread().interrupt();
+        } finally {
+            clients.remove(socket);
+        }
+    }
+
+    private static void reply(OutputStream out, String text) throws IOException {
+        out.write((text + "\r\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+}
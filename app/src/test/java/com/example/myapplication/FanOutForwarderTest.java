@@ -0,0 +1,236 @@
+package com.example.myapplication;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// 端到端：本地 SMTP、HTTP 和 Socket 服务器分别充当三个转发目的地
+public class FanOutForwarderTest {
+
+    private static final long SLOW_SOCKET_MILLIS = 1_500;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private FakeSmtpServer smtp;
+    private HttpServer http;
+    private ServerSocket lan;
+    private final List<String> webhookBodies = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> socketLines = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger webhookFailuresLeft = new AtomicInteger();
+    private final Map<String, Long> arrivedAt = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() throws IOException {
+        smtp = new FakeSmtpServer();
+
+        http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        http.createContext("/sms", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                webhookBodies.add(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            int status = webhookFailuresLeft.getAndDecrement() > 0 ? 500 : 200;
+            if (status == 200) {
+                arrivedAt.put(ForwardChannel.WEBHOOK, System.nanoTime());
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        http.start();
+
+        // 故意很慢的局域网监听端
+        lan = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> {
+            while (!lan.isClosed()) {
+                try (Socket socket = lan.accept()) {
+                    BufferedReader in = new BufferedReader(
+                            new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        socketLines.add(line);
+                    }
+                    Thread.sleep(SLOW_SOCKET_MILLIS);
+                    // 先记录再回复，客户端收到 OK 时记录一定已经存在
+                    arrivedAt.put(ForwardChannel.SOCKET, System.nanoTime());
+                    OutputStream out = socket.getOutputStream();
+                    out.write("OK\n".getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                } catch (IOException | InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        smtp.close();
+        http.stop(0);
+        lan.close();
+    }
+
+    @Test
+    public void slowChannelDoesNotDelayOthers() throws Exception {
+        OutboundQueue queue = new OutboundQueue(new File(tmp.getRoot(), "journal"), new RetryBackoff(10, 10));
+        FanOutForwarder forwarder = newForwarder(queue);
+        SendDispatcher dispatcher = new SendDispatcher(queue, forwarder, 1, SendDispatcher.DEFAULT_CAPACITY);
+
+        long start = System.nanoTime();
+        queue.enqueue("10086", "您的快递已到\"菜鸟驿站\"", System.currentTimeMillis());
+        dispatcher.pump();
+        assertTrue(dispatcher.awaitIdle(10_000));
+
+        assertEquals(1, smtp.getMessages().size());
+        assertEquals(1, webhookBodies.size());
+        assertTrue(webhookBodies.get(0).contains("\"sender\":\"10086\""));
+        assertTrue(webhookBodies.get(0).contains("\\\"菜鸟驿站\\\""));
+        assertEquals(1, socketLines.size());
+        assertTrue(queue.isEmpty());
+
+        long webhookMillis = (arrivedAt.get(ForwardChannel.WEBHOOK) - start) / 1_000_000;
+        long socketMillis = (arrivedAt.get(ForwardChannel.SOCKET) - start) / 1_000_000;
+        assertTrue("webhook " + webhookMillis + " ms", webhookMillis < SLOW_SOCKET_MILLIS);
+        assertTrue("socket " + socketMillis + " ms", socketMillis >= SLOW_SOCKET_MILLIS);
+        for (ChannelMetrics metrics : forwarder.getMetrics()) {
+            assertEquals(metrics.toString(), 1, metrics.getSuccesses());
+        }
+    }
+
+    @Test
+    public void retryOnlyResendsToFailedChannel() throws Exception {
+        File journal = new File(tmp.getRoot(), "journal");
+        // 退避足够长，失败后不会在断言前被自动重试
+        OutboundQueue queue = new OutboundQueue(journal, new RetryBackoff(60_000, 60_000));
+        FanOutForwarder forwarder = newForwarder(queue);
+        SendDispatcher dispatcher = new SendDispatcher(queue, forwarder, 1, SendDispatcher.DEFAULT_CAPACITY);
+        webhookFailuresLeft.set(1);
+
+        queue.enqueue("95588", "您的账户支出100元", System.currentTimeMillis());
+        dispatcher.pump();
+        assertTrue(dispatcher.awaitIdle(10_000));
+        assertEquals(1, queue.size());
+
+        // 重启后仍记得邮件和 Socket 已经送达
+        queue.close();
+        queue = new OutboundQueue(journal, new RetryBackoff(60_000, 60_000));
+        OutboundQueue.Entry entry = queue.snapshot().get(0);
+        assertTrue(entry.isDeliveredTo(ForwardChannel.EMAIL));
+        assertTrue(entry.isDeliveredTo(ForwardChannel.SOCKET));
+        assertEquals(1, entry.getAttempts());
+
+        // 跳过退避直接重试
+        forwarder = newForwarder(queue);
+        CountDownLatch retried = new CountDownLatch(1);
+        forwarder.handle(Collections.singletonList(queue.claimNext(Long.MAX_VALUE)), retried::countDown);
+        assertTrue(retried.await(10, TimeUnit.SECONDS));
+
+        assertTrue(queue.isEmpty());
+        assertEquals(1, smtp.getMessages().size());
+        assertEquals(1, socketLines.size());
+        assertEquals(2, webhookBodies.size());
+    }
+
+    @Test
+    public void hungChannelTimesOut() throws Exception {
+        // 队列退避足够长，超时失败后不会在断言前被再次取出
+        OutboundQueue queue = new OutboundQueue(new File(tmp.getRoot(), "journal"), new RetryBackoff(60_000, 60_000));
+        FanOutForwarder forwarder = new FanOutForwarder(queue);
+        forwarder.setChannel(new ForwardChannel() {
+            @Override
+            public String name() {
+                return "hung";
+            }
+
+            @Override
+            public void send(List<OutboundQueue.Entry> batch) throws InterruptedException {
+                Thread.sleep(5_000);
+            }
+        }, new FanOutForwarder.Policy(1, new RetryBackoff(10, 10), 200));
+        SendDispatcher dispatcher = new SendDispatcher(queue, forwarder, 1, SendDispatcher.DEFAULT_CAPACITY);
+
+        queue.enqueue("10086", "test", System.currentTimeMillis());
+        long start = System.currentTimeMillis();
+        dispatcher.pump();
+        assertTrue(dispatcher.awaitIdle(2_000));
+        assertTrue(System.currentTimeMillis() - start < 2_000);
+        assertEquals(1, queue.snapshot().get(0).getAttempts());
+    }
+
+    @Test
+    public void lateSuccessAfterTimeoutIsNotSentAgain() throws Exception {
+        OutboundQueue queue = new OutboundQueue(new File(tmp.getRoot(), "journal"), new RetryBackoff(60_000, 60_000));
+        FanOutForwarder forwarder = new FanOutForwarder(queue);
+        AtomicInteger sends = new AtomicInteger();
+        forwarder.setChannel(new ForwardChannel() {
+            @Override
+            public String name() {
+                return "slow";
+            }
+
+            @Override
+            public void send(List<OutboundQueue.Entry> batch) throws InterruptedException {
+                sends.incrementAndGet();
+                Thread.sleep(400);
+            }
+        }, new FanOutForwarder.Policy(1, new RetryBackoff(10, 10), 200));
+        SendDispatcher dispatcher = new SendDispatcher(queue, forwarder, 1, SendDispatcher.DEFAULT_CAPACITY);
+
+        queue.enqueue("10086", "test", System.currentTimeMillis());
+        dispatcher.pump();
+        assertTrue(dispatcher.awaitIdle(2_000));
+        OutboundQueue.Entry entry = queue.snapshot().get(0);
+        long deadline = System.currentTimeMillis() + 2_000;
+        while (!entry.isDeliveredTo("slow") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(entry.isDeliveredTo("slow"));
+
+        // 重试时跳过已迟到送达的通道，直接出队
+        CountDownLatch retried = new CountDownLatch(1);
+        forwarder.handle(Collections.singletonList(queue.claimNext(Long.MAX_VALUE)), retried::countDown);
+        assertTrue(retried.await(2, TimeUnit.SECONDS));
+        assertTrue(queue.isEmpty());
+        assertEquals(1, sends.get());
+    }
+
+    private FanOutForwarder newForwarder(OutboundQueue queue) throws IOException {
+        FanOutForwarder forwarder = new FanOutForwarder(queue);
+        forwarder.setChannel(new EmailChannel(() -> new EmailChannel.Settings("127.0.0.1", smtp.getPort(), false,
+                "from@example.com", "secret", "to@example.com", 60_000)));
+        FanOutForwarder.Policy once = new FanOutForwarder.Policy(1, new RetryBackoff(10, 10), 5_000);
+        forwarder.setChannel(new WebhookChannel(
+                new URL("http://127.0.0.1:" + http.getAddress().getPort() + "/sms"), 5_000), once);
+        forwarder.setChannel(new LanSocketChannel("127.0.0.1", lan.getLocalPort(), 5_000), once);
+        return forwarder;
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.myapplication;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class ForwarderConfigTest {
+
+    private Context context;
+    private SharedPreferences prefs;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        prefs = context.getSharedPreferences(MainActivity.PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().clear()
+                .putString("sender_email", "me@qq.com")
+                .putString("sender_password", "code")
+                .putString("receiver_email", "a@example.com, b@example.com")
+                .putString(SmtpAccount.PREF_ACCOUNTS, "backup@163.com code smtp.163.com:2525 plain")
+                .putString(MessageTemplate.PREF_SUBJECT, "{sender} 的短信")
+                .commit();
+        ForwarderConfig.reset();
+    }
+
+    @Test
+    public void buildsSnapshotWithParsedValues() {
+        ForwarderConfig config = ForwarderConfig.from(prefs);
+        assertTrue(config.problems.isEmpty());
+        EmailChannel.Settings email = config.email;
+        assertEquals(2, email.accounts.size());
+        assertEquals("me@qq.com", email.accounts.get(0).from.getAddress());
+        assertEquals("2525", email.accounts.get(1).properties.getProperty("mail.smtp.port"));
+        assertEquals(2, email.recipients.length);
+        assertEquals("b@example.com", email.recipients[1].getAddress());
+        assertEquals("95588 的短信", email.subjectTemplate.render(new OutboundQueue.Entry(1, 0, "95588", "余额",
+                OtpClassifier.PRIORITY_NORMAL, null, null, 1, 0)));
+        assertNull(email.bodyTemplate);
+    }
+
+    @Test
+    public void ignoresInvalidValuesWrittenOutsideTheSettingsScreen() {
+        prefs.edit()
+                .putString("receiver_email", "not an address")
+                .putString(SmtpAccount.PREF_ACCOUNTS, "broken")
+                .putString(MessageTemplate.PREF_BODY, "{sms}")
+                .putString(RuleEngine.PREF_RULES, "sender:1 => explode")
+                .commit();
+        ForwarderConfig config = ForwarderConfig.from(prefs);
+        assertEquals(4, config.problems.size());
+        assertEquals(0, config.rules.size());
+        assertEquals(1, config.email.accounts.size());
+        assertNull(config.email.recipients);
+        assertNull(config.email.bodyTemplate);
+    }
+
+    @Test
+    public void buildsDispatcherAndChannelSettings() {
+        prefs.edit()
+                .putInt("send_workers", 4)
+                .putInt("digest_window_seconds", 5)
+                .putString("digest_bypass_senders", "95588，10086 95555")
+                .putString("webhook_url", "https://example.com/hook")
+                .putString("socket_address", "192.168.1.5")
+                .commit();
+        ForwarderConfig config = ForwarderConfig.from(prefs);
+        assertEquals(4, config.sendWorkers);
+        assertEquals(ForwarderConfig.DEFAULT_BACKLOG_THRESHOLD, config.backlogThreshold);
+        assertEquals(5_000, config.digestWindowMillis);
+        assertEquals(ForwarderConfig.DEFAULT_DIGEST_MAX_BATCH, config.digestMaxBatch);
+        assertEquals(new HashSet<>(Arrays.asList("95588", "10086", "95555")), config.digestBypassSenders);
+        assertEquals("https://example.com/hook", config.webhookUrl.toString());
+        // 缺少端口的地址被忽略
+        assertNull(config.socketAddress);
+        assertEquals(1, config.problems.size());
+
+        prefs.edit().putInt("send_workers", 2).commit();
+        ForwarderConfig next = ForwarderConfig.from(prefs);
+        assertTrue(next.sameDigest(config));
+        assertTrue(next.sameChannels(config));
+        prefs.edit().putString("socket_address", "192.168.1.5:9000").commit();
+        assertFalse(ForwarderConfig.from(prefs).sameChannels(config));
+    }
+
+    @Test
+    public void reloadsAfterSettingsChange() {
+        ForwarderConfig first = ForwarderConfig.get(context);
+        assertSame(first, ForwarderConfig.get(context));
+
+        // 与转发无关的设置不触发重建
+        prefs.edit().putLong("last_export_at", 1).apply();
+        shadowOf(Looper.getMainLooper()).idle();
+        assertSame(first, ForwarderConfig.get(context));
+
+        prefs.edit()
+                .putString("receiver_email", "c@example.com")
+                .putString(MessageTemplate.PREF_SUBJECT, "")
+                .putString(RuleEngine.PREF_RULES, "sender:1069* => drop")
+                .apply();
+        shadowOf(Looper.getMainLooper()).idle();
+        ForwarderConfig second = ForwarderConfig.get(context);
+        assertEquals("c@example.com", second.email.recipients[0].getAddress());
+        assertNull(second.email.subjectTemplate);
+        assertEquals(RuleEngine.Action.DROP, second.rules.evaluate("10690001", "退订", 0).action);
+        assertEquals("收到来自 [95588] 的新短信", MessageFormatter.subject(Collections.singletonList(
+                new OutboundQueue.Entry(1, 0, "95588", "余额", OtpClassifier.PRIORITY_NORMAL, null, null, 1, 0)),
+                second.email.subjectTemplate));
+    }
+}
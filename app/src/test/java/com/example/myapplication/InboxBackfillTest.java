@@ -0,0 +1,169 @@
+package com.example.myapplication;
+
+import android.Manifest;
+import android.app.Application;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.provider.Telephony;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class InboxBackfillTest {
+
+    private static final Uri INBOX = Uri.parse("content://fake-sms/inbox");
+
+    private Application app;
+    private FakeInboxProvider provider;
+    private SharedPreferences prefs;
+    private final List<String> forwarded = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        app = RuntimeEnvironment.getApplication();
+        provider = Robolectric.buildContentProvider(FakeInboxProvider.class).create("fake-sms").get();
+        prefs = app.getSharedPreferences(InboxBackfill.PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().clear().commit();
+    }
+
+    @Test
+    public void firstRunOnlyRecordsWatermark() throws Exception {
+        provider.add("10086", "历史短信", 1_000);
+        InboxBackfill.Result result = backfill(10).run(this::collect, null);
+        assertEquals(0, result.enqueued);
+        assertTrue(forwarded.isEmpty());
+        assertEquals(1, backfill(10).getLastId());
+    }
+
+    @Test
+    public void streamsNewMessagesInBatchesOnce() throws Exception {
+        provider.add("10086", "历史短信", 1_000);
+        backfill(10).run(this::collect, null);
+        for (int i = 0; i < 25; i++) {
+            provider.add("95588", "补发 " + i, 2_000 + i);
+        }
+
+        int[] batches = {0};
+        InboxBackfill.Result result = backfill(10).run(this::collect, () -> batches[0]++);
+        assertTrue(result.complete);
+        assertEquals(25, result.scanned);
+        assertEquals(25, result.enqueued);
+        assertEquals(3, batches[0]);
+        assertEquals(10, provider.maxRowsPerQuery);
+        assertEquals("95588:补发 0", forwarded.get(0));
+        assertEquals("95588:补发 24", forwarded.get(24));
+
+        // 水位线已推进，再运行不会重复转发
+        assertEquals(0, backfill(10).run(this::collect, null).scanned);
+        assertEquals(25, forwarded.size());
+    }
+
+    @Test
+    public void resumesAfterInterruption() throws Exception {
+        backfill(5).run(this::collect, null);
+        for (int i = 0; i < 12; i++) {
+            provider.add("95588", "第 " + i + " 条", 2_000 + i);
+        }
+        // 第一页写入后被系统打断
+        InboxBackfill.Result first = backfill(5).run(this::collect, () -> Thread.currentThread().interrupt());
+        assertTrue(Thread.interrupted());
+        assertFalse(first.complete);
+        assertEquals(5, forwarded.size());
+
+        InboxBackfill.Result rest = backfill(5).run(this::collect, null);
+        assertTrue(rest.complete);
+        assertEquals(7, rest.enqueued);
+        assertEquals("95588:第 11 条", forwarded.get(11));
+    }
+
+    @Test
+    public void skipsOldMessagesAfterProviderReset() throws Exception {
+        provider.add("10086", "a", 1_000);
+        provider.add("10086", "b", 2_000);
+        provider.add("10086", "c", 3_000);
+        backfill(10).run(this::collect, null);
+
+        // 数据库重建后 _id 变小，恢复回来的旧短信不补发，只补发新的
+        provider.reset();
+        provider.add("10086", "a", 1_000);
+        provider.add("10086", "new", System.currentTimeMillis());
+        InboxBackfill.Result result = backfill(10).run(this::collect, null);
+        assertEquals(1, result.enqueued);
+        assertEquals("10086:new", forwarded.get(0));
+    }
+
+    @Test
+    public void skipsMessagesForwardedLiveAndQueuesTheRest() throws Exception {
+        FakeInboxProvider systemInbox = Robolectric.buildContentProvider(FakeInboxProvider.class)
+                .create(Telephony.Sms.Inbox.CONTENT_URI.getAuthority()).get();
+        assertNull(SmsIntake.backfillInbox(app, null));
+        shadowOf(app).grantPermissions(Manifest.permission.READ_SMS);
+        SmsIntake.backfillInbox(app, null);
+
+        // 一条已通过广播实时转发，一条是应用未运行时收到的
+        long now = System.currentTimeMillis();
+        OutboundQueue queue = OutboundQueue.getInstance(app);
+        int before = queue.size();
+        assertTrue(SmsIntake.accept(app, "10010", "实时转发过的短信", System.nanoTime(), now));
+        systemInbox.add("10010", "实时转发过的短信", now);
+        systemInbox.add("95588", "漏掉的短信", now);
+
+        InboxBackfill.Result result = SmsIntake.backfillInbox(app, null);
+        assertEquals(2, result.scanned);
+        assertEquals(1, result.skipped);
+        assertEquals(1, result.enqueued);
+        assertEquals(before + 2, queue.size());
+        for (OutboundQueue.Entry entry : queue.snapshot()) {
+            queue.ack(entry.id);
+        }
+    }
+
+    // 补发任务被推迟到去重窗口之后才执行，实时转发过的短信靠转发记录识别
+    @Test
+    public void skipsMessagesForwardedLiveBeforeTheDedupWindow() throws Exception {
+        FakeInboxProvider systemInbox = Robolectric.buildContentProvider(FakeInboxProvider.class)
+                .create(Telephony.Sms.Inbox.CONTENT_URI.getAuthority()).get();
+        shadowOf(app).grantPermissions(Manifest.permission.READ_SMS);
+        SmsIntake.backfillInbox(app, null);
+
+        long receivedAt = System.currentTimeMillis() - 2 * DedupCache.DEFAULT_WINDOW_MILLIS;
+        OutboundQueue queue = OutboundQueue.getInstance(app);
+        int before = queue.size();
+        assertTrue(SmsIntake.accept(app, "95566", "半小时前实时转发的短信", System.nanoTime(), receivedAt));
+        assertFalse(DedupCache.getInstance(app).contains("95566", "半小时前实时转发的短信", System.currentTimeMillis()));
+        // 短信应用写入的时间比广播晚几秒
+        systemInbox.add("95566", "半小时前实时转发的短信", receivedAt + 3_000);
+
+        InboxBackfill.Result result = SmsIntake.backfillInbox(app, null);
+        assertEquals(1, result.scanned);
+        assertEquals(1, result.skipped);
+        assertEquals(before + 1, queue.size());
+        for (OutboundQueue.Entry entry : queue.snapshot()) {
+            queue.ack(entry.id);
+        }
+    }
+
+    private InboxBackfill backfill(int batchSize) {
+        return new InboxBackfill(app.getContentResolver(), INBOX, prefs, batchSize, 0);
+    }
+
+    private boolean collect(String sender, String body, long date) {
+        forwarded.add(sender + ":" + body);
+        return true;
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.myapplication;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverValuesContiguously() {
+        long previousUpper = -1;
+        for (int i = 0; i < 200; i++) {
+            long upper = LatencyHistogram.upperBound(i);
+            assertEquals(i, LatencyHistogram.indexOf(previousUpper + 1));
+            assertEquals(i, LatencyHistogram.indexOf(upper));
+            // 相对误差不超过 1/8
+            assertTrue(upper - previousUpper - 1 <= Math.max(1, (previousUpper + 1) / 8));
+            previousUpper = upper;
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinBucketError() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 10_000; i++) {
+            h.recordMicros(i);
+        }
+        assertEquals(10_000, h.getCount());
+        assertEquals(10_000, h.getMaxMicros());
+        assertWithin(5_000, h.percentileMicros(0.50));
+        assertWithin(9_500, h.percentileMicros(0.95));
+        assertWithin(9_900, h.percentileMicros(0.99));
+        assertEquals(10_000, h.percentileMicros(1.0));
+        h.reset();
+        assertEquals(0, h.percentileMicros(0.5));
+    }
+
+    // 记录耗时不分配对象；耗时见 benchmark 模块的 LatencyHistogramBenchmark
+    @Test
+    public void recordIsAllocationFree() {
+        LatencyHistogram h = new LatencyHistogram();
+        long[] samples = samples();
+        AllocationCounter.assertAllocationFree(i -> h.recordNanos(samples[i & 1023]));
+    }
+
+    // 对数正态分布的耗时样本，中位数约 22 微秒
+    private static long[] samples() {
+        Random random = new Random(1);
+        long[] samples = new long[1024];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (long) (Math.exp(random.nextGaussian() * 2 + 10));
+        }
+        return samples;
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(expected + " vs " + actual, actual >= expected && actual <= expected + expected / 8 + 1);
+    }
+}
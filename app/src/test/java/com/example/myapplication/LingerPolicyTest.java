@@ -0,0 +1,45 @@
+package com.example.myapplication;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LingerPolicyTest {
+
+    @Test
+    public void lingerGrowsWithArrivalRate() {
+        LingerPolicy policy = new LingerPolicy(2_000, 1_000, 60_000, 60_000);
+        assertEquals(2_000, policy.lingerMillis(0));
+
+        policy.onArrival(0);
+        assertEquals(3_000, policy.lingerMillis(0));
+
+        // 一分钟内到达 20 条
+        for (int i = 1; i < 20; i++) {
+            policy.onArrival(i * 3_000L);
+        }
+        long burst = policy.lingerMillis(60_000);
+        assertTrue("burst linger " + burst, burst > 10_000 && burst < 22_000);
+    }
+
+    @Test
+    public void lingerIsCappedAndDecaysBackToMinimum() {
+        LingerPolicy policy = new LingerPolicy(2_000, 1_000, 60_000, 60_000);
+        for (int i = 0; i < 500; i++) {
+            policy.onArrival(i * 10L);
+        }
+        assertEquals(60_000, policy.lingerMillis(5_000));
+
+        // 十个半衰期后几乎没有剩余强度
+        assertEquals(2_000, policy.lingerMillis(5_000 + 10 * 60_000L), 500);
+    }
+
+    @Test
+    public void clockGoingBackwardsDoesNotInflateScore() {
+        LingerPolicy policy = new LingerPolicy(2_000, 1_000, 60_000, 60_000);
+        policy.onArrival(10_000);
+        policy.onArrival(5_000);
+        assertEquals(2.0, policy.getScore(10_000), 1e-9);
+    }
+}
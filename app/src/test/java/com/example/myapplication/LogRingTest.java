@@ -0,0 +1,88 @@
+package com.example.myapplication;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LogRingTest {
+
+    @Test
+    public void replaysOnlyTheNewestRecordsInOrder() {
+        LogRing ring = new LogRing(8);
+        for (int i = 0; i < 20; i++) {
+            ring.add(i, 4, LogRing.Stage.QUEUE, "m" + i);
+        }
+        List<String> seen = new ArrayList<>();
+        long next = ring.drain(0, (seq, time, level, stage, message) -> seen.add(message));
+        assertEquals(20, next);
+        assertEquals(8, seen.size());
+        assertEquals("m12", seen.get(0));
+        assertEquals("m19", seen.get(7));
+
+        ring.add(20, 4, LogRing.Stage.QUEUE, "m20");
+        seen.clear();
+        assertEquals(21, ring.drain(next, (seq, time, level, stage, message) -> seen.add(message)));
+        assertEquals(1, seen.size());
+    }
+
+    @Test
+    public void concurrentWritersNeverProduceTornRecords() throws Exception {
+        LogRing ring = new LogRing(256);
+        int writers = 4;
+        int perWriter = 50_000;
+        String[] messages = new String[writers];
+        for (int w = 0; w < writers; w++) {
+            messages[w] = "writer-" + w;
+        }
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            final int id = w;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perWriter; i++) {
+                    // 时间戳里编码写者编号，读出来必须和消息、阶段对得上
+                    ring.add(id, id, LogRing.Stage.values()[id], messages[id]);
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        long next = 0;
+        long[] read = new long[1];
+        long[] lastSeq = {-1};
+        while (threads.stream().anyMatch(Thread::isAlive) || next < ring.head()) {
+            next = ring.drain(next, (seq, time, level, stage, message) -> {
+                assertTrue(seq > lastSeq[0]);
+                lastSeq[0] = seq;
+                assertEquals(time, level);
+                assertEquals(stage.ordinal(), level);
+                assertEquals(messages[level], message);
+                read[0]++;
+            });
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals((long) writers * perWriter, ring.head());
+        assertTrue(read[0] > 0);
+    }
+
+    // 写入热路径不分配对象；耗时见 benchmark 模块的 LogFormatBenchmark
+    @Test
+    public void addIsAllocationFree() {
+        LogRing ring = new LogRing(AppLog.CAPACITY);
+        String message = "EmailService: 邮件发送成功！";
+        AllocationCounter.assertAllocationFree(i -> ring.add(i, 3, LogRing.Stage.CHANNEL, message));
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.myapplication;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class MessageArchiveTest {
+
+    private static final long DAY = 24 * 60 * 60_000L;
+
+    private MessageArchive archive;
+    private long nextTrace = 1;
+
+    @Before
+    public void setUp() {
+        archive = new MessageArchive(RuntimeEnvironment.getApplication(), null, 30 * DAY, 1_000);
+    }
+
+    @Test
+    public void recordsStatusAndAttempts() throws Exception {
+        OutboundQueue.Entry entry = entry("95588", "您尾号1234的储蓄卡支出100元", System.currentTimeMillis());
+        archive.recordQueued(entry);
+        List<OutboundQueue.Entry> batch = Collections.singletonList(entry);
+        archive.recordAttempt(batch, ForwardChannel.EMAIL, -1, new IOException("451 稍后再试"));
+        archive.recordFinished(batch, true);
+        archive.recordAttempt(batch, ForwardChannel.EMAIL, 120, null);
+        archive.recordFinished(batch, false);
+        archive.recordDropped(nextTrace++, "10690000", "退订回T", System.currentTimeMillis(), 0);
+        assertTrue(archive.flush(5_000));
+
+        List<MessageArchive.Row> rows = archive.page(null, Long.MAX_VALUE, 10);
+        assertEquals(2, rows.size());
+        assertEquals(MessageArchive.STATUS_DROPPED, rows.get(0).status);
+        assertEquals("drop:1", rows.get(0).route);
+        MessageArchive.Row row = rows.get(1);
+        assertEquals(MessageArchive.STATUS_DELIVERED, row.status);
+        List<MessageArchive.Attempt> attempts = archive.attempts(row.id);
+        assertEquals(2, attempts.size());
+        assertEquals("451 稍后再试", attempts.get(0).error);
+        assertNull(attempts.get(1).error);
+        assertEquals(120, attempts.get(1).latencyMillis);
+    }
+
+    @Test
+    public void searchesSenderAndChineseFragments() throws Exception {
+        long now = System.currentTimeMillis();
+        archive.recordQueued(entry("95588", "您尾号1234的储蓄卡支出100元", now));
+        archive.recordQueued(entry("10086", "您的验证码是 654321，5 分钟内有效", now));
+        archive.recordQueued(entry("+8613800138000", "晚上一起吃饭吗", now));
+        assertTrue(archive.flush(5_000));
+
+        assertEquals("95588", only("储蓄卡").sender);
+        assertEquals("95588", only("9558").sender);
+        assertEquals("10086", only("验证码 654321").sender);
+        assertEquals("+8613800138000", only("吃").sender);
+        assertEquals(0, archive.page("储蓄 验证码", Long.MAX_VALUE, 10).size());
+        // 二元组短语要求字连在一起
+        assertEquals(0, archive.page("尾卡", Long.MAX_VALUE, 10).size());
+    }
+
+    @Test
+    public void pagesByKeyset() throws Exception {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 250; i++) {
+            archive.recordQueued(entry("10086", "第 " + i + " 条流量提醒", now));
+        }
+        assertTrue(archive.flush(5_000));
+
+        int total = 0;
+        long before = Long.MAX_VALUE;
+        List<MessageArchive.Row> page;
+        do {
+            page = archive.page("流量", before, ArchiveListAdapter.PAGE_SIZE);
+            for (MessageArchive.Row row : page) {
+                assertTrue(row.id < before);
+                before = row.id;
+            }
+            total += page.size();
+        } while (page.size() == ArchiveListAdapter.PAGE_SIZE);
+        assertEquals(250, total);
+    }
+
+    @Test
+    public void prunesIncrementally() throws Exception {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 700; i++) {
+            archive.recordQueued(entry("10086", "过期的短信 " + i, now - 40 * DAY));
+        }
+        for (int i = 0; i < 1_100; i++) {
+            archive.recordQueued(entry("95588", "新短信 " + i, now));
+        }
+        assertTrue(archive.flush(5_000));
+
+        // 每次最多删一批，先删过期的，再删超出条数上限的最旧记录
+        assertEquals(500, archive.pruneStep(now));
+        assertEquals(300, archive.pruneStep(now));
+        assertEquals(0, archive.pruneStep(now));
+        assertEquals(0, archive.page("过期", Long.MAX_VALUE, 10).size());
+        assertEquals(1_000, countAll());
+        assertEquals(0, archive.page("新短信 0", Long.MAX_VALUE, 10).size());
+    }
+
+    private MessageArchive.Row only(String query) {
+        List<MessageArchive.Row> rows = archive.page(query, Long.MAX_VALUE, 10);
+        assertEquals(query, 1, rows.size());
+        return rows.get(0);
+    }
+
+    private int countAll() {
+        int count = 0;
+        long before = Long.MAX_VALUE;
+        List<MessageArchive.Row> page;
+        while (!(page = archive.page(null, before, 500)).isEmpty()) {
+            count += page.size();
+            before = page.get(page.size() - 1).id;
+        }
+        return count;
+    }
+
+    private OutboundQueue.Entry entry(String sender, String content, long createdAt) {
+        long trace = nextTrace++;
+        return new OutboundQueue.Entry(trace, createdAt, sender, content, OtpClassifier.PRIORITY_NORMAL, null, null,
+                trace, 0);
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.myapplication;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MessageTemplateTest {
+
+    private static final OutboundQueue.Entry OTP = new OutboundQueue.Entry(1, 0, "10086", "验证码 654321",
+            OtpClassifier.PRIORITY_HIGH, "654321", null, 1, 0);
+    private static final OutboundQueue.Entry PLAIN = new OutboundQueue.Entry(2, 0, "95588", "余额变动",
+            OtpClassifier.PRIORITY_NORMAL, null, null, 2, 0);
+
+    @Test
+    public void rendersPlaceholders() {
+        MessageTemplate template = MessageTemplate.compile("[{code}] {sender}: {content} {{ok}}");
+        assertEquals("[654321] 10086: 验证码 654321 {ok}", template.render(OTP));
+        assertEquals("[] 95588: 余额变动 {ok}", template.render(PLAIN));
+        assertEquals("固定主题", MessageTemplate.compile("固定主题").render(PLAIN));
+        assertNull(MessageTemplate.compile("  "));
+    }
+
+    @Test
+    public void rejectsUnknownPlaceholders() {
+        for (String text : new String[]{"{from}", "来自 {sender"}) {
+            try {
+                MessageTemplate.compile(text);
+                fail(text);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("{"));
+            }
+        }
+    }
+
+    @Test
+    public void formatterUsesTemplates() {
+        MessageTemplate subject = MessageTemplate.compile("短信 {sender}");
+        MessageTemplate body = MessageTemplate.compile("{sender} > {content}");
+        assertEquals("短信 10086", MessageFormatter.subject(Collections.singletonList(OTP), subject));
+        assertEquals("10086 > 验证码 654321", MessageFormatter.body(Collections.singletonList(OTP), body));
+        // 合并的邮件主题保持摘要格式，每条短信的正文按模板生成
+        assertEquals("收到 2 条新短信 [10086, 95588]", MessageFormatter.subject(Arrays.asList(OTP, PLAIN), subject));
+        String digest = MessageFormatter.body(Arrays.asList(OTP, PLAIN), body);
+        assertTrue(digest, digest.contains("----- 2/2 -----\n95588 > 余额变动\n"));
+        assertEquals(MessageFormatter.body(Collections.singletonList(PLAIN)),
+                MessageFormatter.body(Collections.singletonList(PLAIN), null));
+    }
+}
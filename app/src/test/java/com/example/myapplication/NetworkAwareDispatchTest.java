@@ -0,0 +1,128 @@
+package com.example.myapplication;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NetworkAwareDispatchTest {
+
+    private static final long PACE_MILLIS = 50;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void holdsWorkWhileOfflineAndDrainsOverOneConnection() throws Exception {
+        OutboundQueue queue = new OutboundQueue(new File(tmp.getRoot(), "journal"), new RetryBackoff(60_000, 60_000));
+        FakeConnectivitySource network = new FakeConnectivitySource(false);
+        try (FakeSmtpServer smtp = new FakeSmtpServer()) {
+            List<Long> arrivals = Collections.synchronizedList(new ArrayList<>());
+            smtp.setListener(data -> arrivals.add(System.nanoTime()));
+            FanOutForwarder forwarder = new FanOutForwarder(queue);
+            forwarder.setConnectivity(network);
+            forwarder.setChannel(new EmailChannel(() -> new EmailChannel.Settings("127.0.0.1", smtp.getPort(), false,
+                    "from@example.com", "secret", "to@example.com", 60_000)));
+            SendDispatcher dispatcher = new SendDispatcher(queue, forwarder, 4, SendDispatcher.DEFAULT_CAPACITY);
+            dispatcher.setConnectivity(network);
+            dispatcher.setDrainPaceMillis(PACE_MILLIS);
+
+            for (int i = 0; i < 10; i++) {
+                queue.enqueue("10086", "离线期间的短信 " + i, System.currentTimeMillis());
+                dispatcher.pump();
+            }
+            Thread.sleep(200);
+            assertEquals(0, smtp.getConnectionCount());
+            assertEquals(10, queue.size());
+            assertTrue(dispatcher.isIdle());
+
+            long start = System.nanoTime();
+            network.setOnline(true);
+            assertTrue(dispatcher.isDraining());
+            assertTrue(awaitEmpty(queue, 10_000));
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            assertEquals(10, smtp.getReceivedCount());
+            // 积压通过同一条连接逐条发出，相邻两封至少间隔一个限速周期
+            assertEquals(1, smtp.getConnectionCount());
+            assertTrue("drained in " + elapsedMillis + " ms", elapsedMillis >= 9 * PACE_MILLIS);
+            for (int i = 1; i < arrivals.size(); i++) {
+                long gapMillis = (arrivals.get(i) - arrivals.get(i - 1)) / 1_000_000;
+                assertTrue("gap " + gapMillis + " ms", gapMillis >= PACE_MILLIS - 5);
+            }
+            assertTrue(awaitNotDraining(dispatcher, 2_000));
+        }
+    }
+
+    @Test
+    public void failureAfterNetworkLossIsNotCountedAsAttempt() throws Exception {
+        OutboundQueue queue = new OutboundQueue(new File(tmp.getRoot(), "journal"), new RetryBackoff(60_000, 60_000));
+        FakeConnectivitySource network = new FakeConnectivitySource(true);
+        AtomicInteger sends = new AtomicInteger();
+        FanOutForwarder forwarder = new FanOutForwarder(queue);
+        forwarder.setConnectivity(network);
+        forwarder.setChannel(new ForwardChannel() {
+            @Override
+            public String name() {
+                return ForwardChannel.EMAIL;
+            }
+
+            @Override
+            public void send(List<OutboundQueue.Entry> batch) throws IOException {
+                if (sends.incrementAndGet() == 1) {
+                    // 发送途中断网
+                    network.setOnline(false);
+                    throw new IOException("Network is unreachable");
+                }
+            }
+        }, new FanOutForwarder.Policy(3, new RetryBackoff(10, 10), 5_000));
+        SendDispatcher dispatcher = new SendDispatcher(queue, forwarder, 1, SendDispatcher.DEFAULT_CAPACITY);
+        dispatcher.setConnectivity(network);
+        dispatcher.setDrainPaceMillis(0);
+
+        queue.enqueue("95588", "您的账户支出100元", System.currentTimeMillis());
+        dispatcher.pump();
+        assertTrue(dispatcher.awaitIdle(5_000));
+
+        // 断网后不再原地重试，也不计入失败次数
+        assertEquals(1, sends.get());
+        OutboundQueue.Entry entry = queue.snapshot().get(0);
+        assertEquals(0, entry.getAttempts());
+
+        network.setOnline(true);
+        assertTrue(awaitEmpty(queue, 5_000));
+        assertEquals(2, sends.get());
+    }
+
+    private static boolean awaitEmpty(OutboundQueue queue, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!queue.isEmpty()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    private static boolean awaitNotDraining(SendDispatcher dispatcher, long timeoutMillis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (dispatcher.isDraining()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.myapplication;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OtpClassifierTest {
+
+    private static final String[] SAMPLES = {
+            "【某银行】您的验证码为 482913，5分钟内有效，请勿泄露。",
+            "Your verification code is 7731. Do not share it.",
+            "【某平台】动态密码：605218（登录），若非本人操作请忽略。",
+            "G-938271 is your Google verification code.",
+            "【某商城】双十一大促，全场满300减50，回T退订。",
+            "您尾号1234的储蓄卡于10月18日支出人民币200.00元，余额5210.33元。",
+    };
+
+    @Test
+    public void extractsCodeNearestToKeyword() {
+        OtpClassifier classifier = OtpClassifier.DEFAULT;
+        assertEquals("482913", code(classifier, SAMPLES[0]));
+        assertEquals("7731", code(classifier, SAMPLES[1]));
+        assertEquals("605218", code(classifier, SAMPLES[2]));
+        assertEquals("938271", code(classifier, SAMPLES[3]));
+        assertNull(code(classifier, SAMPLES[4]));
+        assertNull(code(classifier, SAMPLES[5]));
+        assertEquals(OtpClassifier.PRIORITY_HIGH, OtpClassifier.priorityOf(classifier.classify(SAMPLES[0])));
+        assertEquals(OtpClassifier.PRIORITY_NORMAL, OtpClassifier.priorityOf(classifier.classify(SAMPLES[4])));
+    }
+
+    @Test
+    public void matcherFindsOverlappingKeywords() {
+        KeywordMatcher matcher = new KeywordMatcher(Arrays.asList("he", "she", "his", "hers", "验证码", "码"));
+        BitSet hits = new BitSet();
+        assertTrue(matcher.matchAll("ushers", hits));
+        assertEquals(BitSet.valueOf(new long[]{0b1011}), hits);
+        hits.clear();
+        assertTrue(matcher.matchAll("短信验证码", hits));
+        assertTrue(hits.get(4) && hits.get(5));
+        assertEquals(5, matcher.firstMatchEnd("您的验证码"));
+        hits.clear();
+        assertFalse(matcher.matchAll("nothing here?", hits) && hits.get(4));
+    }
+
+    // 热路径上没有对象分配；耗时见 benchmark 模块的 SmsBodyBenchmark
+    @Test
+    public void classifyIsAllocationFree() {
+        OtpClassifier classifier = OtpClassifier.DEFAULT;
+        long[] sink = new long[1];
+        AllocationCounter.assertAllocationFree(i -> sink[0] += classifier.classify(SAMPLES[i % SAMPLES.length]));
+    }
+
+    private static String code(OtpClassifier classifier, String text) {
+        return OtpClassifier.extractCode(text, classifier.classify(text));
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.myapplication;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OutboundQueueTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final RetryBackoff backoff = new RetryBackoff(1_000L, 60_000L, new Random(42));
+
+    @Test
+    public void unackedEntriesSurviveCrashInOrder() throws Exception {
+        File file = new File(tmp.getRoot(), "queue.journal");
+        OutboundQueue queue = new OutboundQueue(file, backoff);
+        OutboundQueue.Entry a = queue.enqueue("10086", "第一条", 1);
+        queue.enqueue("10010", "第二条", 2);
+        queue.enqueue("95588", "第三条", 3);
+        queue.claimNext(10);
+        queue.ack(a.id);
+        // 第二条已取出正在发送，此时进程被杀：不调用 close()，直接丢弃对象
+        queue.claimNext(10);
+
+        OutboundQueue reopened = new OutboundQueue(file, backoff);
+        List<OutboundQueue.Entry> pending = reopened.snapshot();
+        assertEquals(2, pending.size());
+        assertEquals("第二条", pending.get(0).content);
+        assertEquals("第三条", pending.get(1).content);
+        assertEquals("10010", reopened.claimNext(10).sender);
+        assertEquals("95588", reopened.claimNext(10).sender);
+    }
+
+    @Test
+    public void tornTailRecordIsDiscarded() throws Exception {
+        File file = new File(tmp.getRoot(), "queue.journal");
+        OutboundQueue queue = new OutboundQueue(file, backoff);
+        queue.enqueue("10086", "完整的记录", 1);
+        // 模拟写到一半时断电
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[]{0, 0, 0, 40, 1, 2, 3});
+        }
+
+        OutboundQueue reopened = new OutboundQueue(file, backoff);
+        assertEquals(1, reopened.size());
+        reopened.enqueue("10010", "恢复后新写入", 2);
+
+        OutboundQueue again = new OutboundQueue(file, backoff);
+        assertEquals(2, again.size());
+        assertEquals("恢复后新写入", again.snapshot().get(1).content);
+    }
+
+    @Test
+    public void failedEntryIsRetriedAfterBackoff() throws Exception {
+        File file = new File(tmp.getRoot(), "queue.journal");
+        OutboundQueue queue = new OutboundQueue(file, backoff);
+        OutboundQueue.Entry entry = queue.enqueue("10086", "内容", 0);
+        assertEquals(entry.id, queue.claimNext(0).id);
+        long retryAt = queue.fail(entry.id, 0);
+        assertTrue(retryAt >= 500 && retryAt <= 1_000);
+        assertNull(queue.claimNext(retryAt - 1));
+
+        // 重试状态同样持久化
+        OutboundQueue reopened = new OutboundQueue(file, backoff);
+        assertNull(reopened.claimNext(retryAt - 1));
+        OutboundQueue.Entry retried = reopened.claimNext(retryAt);
+        assertEquals(1, retried.getAttempts());
+        long second = reopened.fail(retried.id, retryAt);
+        assertTrue(second - retryAt >= 1_000 && second - retryAt <= 2_000);
+    }
+
+    @Test
+    public void compactionKeepsPendingEntriesAndIds() throws Exception {
+        File file = new File(tmp.getRoot(), "queue.journal");
+        OutboundQueue queue = new OutboundQueue(file, backoff);
+        OutboundQueue.Entry keep = queue.enqueue("10086", "保留", 0);
+        long lastId = 0;
+        for (int i = 0; i < 600; i++) {
+            OutboundQueue.Entry e = queue.enqueue("95588", "消息 " + i, i);
+            queue.ack(e.id);
+            lastId = e.id;
+        }
+        assertTrue(file.length() < 600 * 20);
+
+        OutboundQueue reopened = new OutboundQueue(file, backoff);
+        assertEquals(1, reopened.size());
+        assertEquals(keep.id, reopened.snapshot().get(0).id);
+        assertTrue(reopened.enqueue("10010", "新消息", 0).id > lastId);
+    }
+
+    @Test
+    public void traceIdAndReceiveTimeArePersisted() throws Exception {
+        File file = new File(tmp.getRoot(), "queue.journal");
+        OutboundQueue queue = new OutboundQueue(file, backoff);
+        queue.enqueue("10086", "test", OtpClassifier.PRIORITY_NORMAL, null, null, 0xabcdef12345L, 987654321L, 0);
+        OutboundQueue.Entry plain = queue.enqueue("10086", "test", 0);
+
+        OutboundQueue reopened = new OutboundQueue(file, backoff);
+        OutboundQueue.Entry traced = reopened.snapshot().get(0);
+        assertEquals(0xabcdef12345L, traced.traceId);
+        assertEquals(987654321L, traced.receivedAtNanos);
+        assertEquals(plain.id, reopened.snapshot().get(1).traceId);
+    }
+
+    // 达到重试上限后转为死信：不再发送，重启和压缩后仍在，保存配置后可重新放回队列
+    @Test
+    public void exhaustedEntriesBecomeDeadLetters() throws Exception {
+        File file = new File(tmp.getRoot(), "queue.journal");
+        OutboundQueue queue = new OutboundQueue(file, backoff);
+        OutboundQueue.Entry dead = queue.enqueue("10086", "发不出去", 0);
+        queue.markDelivered(dead.id, "webhook");
+        for (int i = 1; i < OutboundQueue.MAX_ATTEMPTS; i++) {
+            assertTrue(queue.fail(dead.id, 0) > 0);
+        }
+        assertEquals(-1, queue.fail(dead.id, 0));
+        assertTrue(queue.isEmpty());
+        assertNull(queue.claimNext(Long.MAX_VALUE));
+        assertEquals(1, queue.deadLetterCount());
+
+        OutboundQueue reopened = new OutboundQueue(file, backoff);
+        assertTrue(reopened.isEmpty());
+        assertEquals(dead.id, reopened.deadLetters().get(0).id);
+        // 其他条目的确认记录足够多时触发压缩，死信要保留下来
+        for (int i = 0; i < 300; i++) {
+            reopened.ack(reopened.enqueue("10010", "普通短信 " + i, 0).id);
+        }
+        reopened = new OutboundQueue(file, backoff);
+        assertEquals(1, reopened.deadLetterCount());
+        assertEquals(OutboundQueue.MAX_ATTEMPTS, reopened.deadLetters().get(0).getAttempts());
+
+        assertEquals(1, reopened.requeueDeadLetters(5_000));
+        assertEquals(0, reopened.deadLetterCount());
+        reopened = new OutboundQueue(file, backoff);
+        OutboundQueue.Entry revived = reopened.claimNext(5_000);
+        assertEquals(dead.id, revived.id);
+        assertEquals(0, revived.getAttempts());
+        assertTrue(revived.isDeliveredTo("webhook"));
+    }
+}
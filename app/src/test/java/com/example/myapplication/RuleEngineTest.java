@@ -0,0 +1,110 @@
+package com.example.myapplication;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RuleEngineTest {
+
+    private static final int NOON = 12 * 60;
+
+    @Test
+    public void firstMatchingRuleWins() {
+        RuleEngine.Compiled rules = RuleEngine.compile(
+                "# 营销短信直接丢弃\n"
+                        + "sender:1069* keyword:退订,回T => drop\n"
+                        + "sender:95588,95555 => forward:bank@example.com\n"
+                        + "keyword:快递,取件 time:22:00-08:00 => channel:webhook\n"
+                        + "regex:(?i)unsubscribe => drop\n");
+
+        assertEquals(RuleEngine.Action.DROP,
+                rules.evaluate("10690001", "双十一大促，回T退订", NOON).action);
+        assertEquals(RuleEngine.Action.FORWARD_DEFAULT,
+                rules.evaluate("10690001", "您的快递已到", NOON).action);
+
+        RuleEngine.Decision bank = rules.evaluate("95555", "您的账户支出100元", NOON);
+        assertEquals(RuleEngine.Action.FORWARD_TO, bank.action);
+        assertEquals("mailto:bank@example.com", bank.toRoute());
+        // 收件地址在编译时解析好，发送时按路由取回同一份
+        assertEquals("bank@example.com", bank.recipients[0].getAddress());
+        assertSame(bank.recipients, rules.recipientsFor(bank.toRoute()));
+        assertNull(rules.recipientsFor("mailto:other@example.com"));
+        assertEquals(1, bank.ruleIndex);
+
+        // 时间段跨午夜
+        assertEquals("channel:webhook", rules.evaluate("10086", "请凭取件码取件", 23 * 60).toRoute());
+        assertEquals(RuleEngine.Action.FORWARD_DEFAULT, rules.evaluate("10086", "请凭取件码取件", NOON).action);
+
+        assertEquals(RuleEngine.Action.DROP, rules.evaluate("12345", "Reply STOP to UNSUBSCRIBE", NOON).action);
+        assertNull(rules.evaluate("12345", "普通短信", NOON).toRoute());
+    }
+
+    @Test
+    public void invalidRuleReportsLine() {
+        try {
+            RuleEngine.compile("sender:1 => drop\nsender:2 => explode\n");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("第 2 行"));
+        }
+    }
+
+    @Test
+    public void rejectsUnconfiguredChannels() {
+        RuleEngine.compile("keyword:快递 => channel:webhook\nsender:95588 => channel:socket\n")
+                .checkChannels(new HashSet<>(Arrays.asList(ForwardChannel.EMAIL, ForwardChannel.WEBHOOK,
+                        ForwardChannel.SOCKET)));
+
+        RuleEngine.Compiled rules = RuleEngine.compile("keyword:快递 => channel:webhook\n"
+                + "keyword:取件 => channel:webhok\n"
+                + "sender:95588 => channel:socket\n");
+        try {
+            rules.checkChannels(new HashSet<>(Arrays.asList(ForwardChannel.EMAIL, ForwardChannel.WEBHOOK)));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // 拼错的和未配置的通道都列出来
+            assertTrue(e.getMessage(), e.getMessage().contains("webhok（keyword:取件 => channel:webhok）"));
+            assertTrue(e.getMessage(), e.getMessage().contains("socket（sender:95588 => channel:socket）"));
+        }
+    }
+
+    @Test
+    public void unchangedTextReusesCompiledRules() {
+        String text = "sender:1 => drop\n";
+        RuleEngine.Compiled first = RuleEngine.compile(text);
+        assertSame(first, RuleEngine.compile(text, first));
+        RuleEngine.Compiled second = RuleEngine.compile(text + "sender:2 => drop\n", first);
+        assertEquals(2, second.size());
+    }
+
+    // 几百条规则时仍按顺序命中第一条匹配的规则
+    @Test
+    public void evaluatesHundredsOfRules() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            text.append("sender:1069").append(1000 + i).append(" => drop\n");
+            text.append("keyword:活动").append(i).append("期,优惠").append(i).append("期 => forward:r").append(i).append("@example.com\n");
+            text.append("sender:95").append(500 + i).append("* time:09:00-18:00 regex:余额\\d+ => channel:bank").append(i).append('\n');
+        }
+        RuleEngine.Compiled rules = RuleEngine.compile(text.toString());
+        assertEquals(300, rules.size());
+
+        String[][] messages = {
+                {"10691050", "您的验证码为 123456"},
+                {"12345", "本周活动99期 全场优惠，快来抢购"},
+                {"95588", "您尾号1234的账户余额5210元"},
+                {"13800138000", "晚上一起吃饭吗？这是一条没有命中任何规则的普通短信。"},
+        };
+        assertEquals(RuleEngine.Action.DROP, rules.evaluate(messages[0][0], messages[0][1], NOON).action);
+        assertEquals("mailto:r99@example.com", rules.evaluate(messages[1][0], messages[1][1], NOON).toRoute());
+        assertEquals("channel:bank88", rules.evaluate(messages[2][0], messages[2][1], NOON).toRoute());
+        assertEquals(RuleEngine.Action.FORWARD_DEFAULT, rules.evaluate(messages[3][0], messages[3][1], NOON).action);
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.myapplication;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SearchTokensTest {
+
+    @Test
+    public void indexesChineseAsBigramsAndAsciiAsWords() {
+        assertEquals("验证 证码 码 123456", SearchTokens.index("验证码：123456"));
+        assertEquals("95588", SearchTokens.index("+95588"));
+        assertEquals("尾号 号 1234 的", SearchTokens.index("尾号1234的"));
+        assertEquals("hello world", SearchTokens.index("Hello, WORLD!"));
+    }
+
+    @Test
+    public void buildsMatchExpression() {
+        assertEquals("\"验证 证码\"", SearchTokens.query("验证码"));
+        assertEquals("码*", SearchTokens.query("码"));
+        assertEquals("9558*", SearchTokens.query("9558"));
+        assertEquals("\"银行\" 1234*", SearchTokens.query(" 银行 1234 "));
+        // FTS 的运算符和引号不会原样传进去
+        assertEquals("a* or* b*", SearchTokens.query("a OR \"b"));
+        assertNull(SearchTokens.query(" ，。"));
+    }
+}
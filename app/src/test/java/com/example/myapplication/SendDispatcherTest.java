@@ -0,0 +1,147 @@
+package com.example.myapplication;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SendDispatcherTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<Long> handled = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> threads = Collections.synchronizedList(new ArrayList<>());
+    private OutboundQueue queue;
+
+    @Test
+    public void awaitIdleWaitsForOutstandingEntries() throws Exception {
+        SendDispatcher dispatcher = newDispatcher(1, 1);
+        assertTrue(dispatcher.awaitIdle(0));
+
+        queue.enqueue("10086", "第一条", System.currentTimeMillis());
+        dispatcher.pump();
+        assertFalse(dispatcher.isIdle());
+        assertFalse(dispatcher.awaitIdle(100));
+
+        release.countDown();
+        assertTrue(dispatcher.awaitIdle(5_000));
+        assertTrue(queue.isEmpty());
+        assertEquals(1, dispatcher.getCompletedCount());
+    }
+
+    // 普通通道的线程和工作队列都被占满时，验证码仍由快速通道立即发送
+    @Test
+    public void expressEntriesBypassFullNormalLane() throws Exception {
+        SendDispatcher dispatcher = newDispatcher(1, 1);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            queue.enqueue("10086", "普通短信 " + i, now);
+        }
+        dispatcher.pump();
+        OutboundQueue.Entry otp = queue.enqueue("95588", "您的验证码是 123456", OtpClassifier.PRIORITY_HIGH, "123456",
+                null, now);
+        dispatcher.pump();
+
+        assertTrue(awaitHandled(otp.id, 5_000));
+        assertEquals("sms-sender-express", threads.get(handled.indexOf(otp.id)));
+        // 普通短信仍卡在第一条上
+        assertEquals(2, handled.size());
+
+        release.countDown();
+        assertTrue(dispatcher.awaitIdle(5_000));
+        assertTrue(queue.isEmpty());
+        assertEquals(4, new HashSet<>(handled).size());
+    }
+
+    // 工作队列放不下的条目放回持久化队列，不计入在途，之后照常发送且只发一次
+    @Test
+    public void rejectedEntriesAreReleasedToTheQueue() throws Exception {
+        SendDispatcher dispatcher = newDispatcher(1, 1);
+        dispatcher.setBacklogThreshold(MessageFormatter.MAX_INLINE_BATCH);
+        long now = System.currentTimeMillis();
+        // 打包模式下指定了路由的条目逐条提交，不检查工作队列的空位
+        List<OutboundQueue.Entry> routed = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            routed.add(queue.enqueue("10086", "改发的短信 " + i, OtpClassifier.PRIORITY_NORMAL, null,
+                    "mailto:other@example.com", now));
+        }
+        int total = MessageFormatter.MAX_INLINE_BATCH + 1;
+        for (int i = routed.size(); i < total; i++) {
+            queue.enqueue("10690000", "积压的通知 " + i, now);
+        }
+        dispatcher.pump();
+        assertTrue(dispatcher.isBacklogMode());
+
+        // 第一条在发送，第二条在工作队列里，第三条被拒绝后放回
+        OutboundQueue.Entry next = queue.claimNext(now);
+        assertEquals(routed.get(2).id, next.id);
+        queue.release(next.id);
+        assertFalse(dispatcher.awaitIdle(100));
+
+        release.countDown();
+        assertTrue(awaitEmpty(5_000));
+        assertTrue(dispatcher.awaitIdle(5_000));
+        assertEquals(total, handled.size());
+        assertEquals(total, new HashSet<>(handled).size());
+    }
+
+    private SendDispatcher newDispatcher(int workers, int capacity) throws IOException {
+        queue = new OutboundQueue(new File(tmp.getRoot(), "journal"), new RetryBackoff(1_000, 60_000, new Random(1)));
+        return new SendDispatcher(queue, (batch, done) -> {
+            for (OutboundQueue.Entry entry : batch) {
+                handled.add(entry.id);
+                threads.add(Thread.currentThread().getName());
+            }
+            try {
+                // 验证码不等待，普通短信等测试放行
+                if (!batch.get(0).isHighPriority()) {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                for (OutboundQueue.Entry entry : batch) {
+                    queue.ack(entry.id);
+                }
+            } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                done.run();
+            }
+        }, workers, capacity);
+    }
+
+    private boolean awaitHandled(long id, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!handled.contains(id)) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    private boolean awaitEmpty(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!queue.isEmpty()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+}
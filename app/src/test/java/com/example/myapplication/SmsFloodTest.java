@@ -0,0 +1,145 @@
+package com.example.myapplication;
+
+import android.app.Application;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Looper;
+import android.provider.Telephony;
+import android.telephony.SmsMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+// 在 Robolectric 上模拟恢复信号后短时间涌入大量短信
+@RunWith(RobolectricTestRunner.class)
+public class SmsFloodTest {
+
+    private FakeSmtpServer sink;
+
+    @Before
+    public void setUp() throws IOException {
+        sink = new FakeSmtpServer();
+        sink.setKeepMessages(false);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        sink.close();
+    }
+
+    @Test
+    public void pdusParseBackToTheOriginalMessage() {
+        String longText = "LOAD-000001 " + "短信内容很长需要拆成多段发送。".repeat(12);
+        String[][] cases = {
+                {"10086", "Hello {world} [1] ~ €5"},
+                {"+8613800138000", "您的验证码是 123456"},
+                {"95588", longText},
+                {"10010", "A".repeat(400)},
+        };
+        for (String[] c : cases) {
+            for (String format : new String[]{SmsPduBuilder.FORMAT_3GPP, SmsPduBuilder.FORMAT_3GPP2}) {
+                byte[][] pdus = SmsPduBuilder.FORMAT_3GPP2.equals(format)
+                        ? SmsPduBuilder.cdma(c[0], c[1], 7)
+                        : SmsPduBuilder.gsm(c[0], c[1], 7, System.currentTimeMillis());
+                StringBuilder body = new StringBuilder();
+                for (byte[] pdu : pdus) {
+                    SmsMessage message = SmsMessage.createFromPdu(pdu, format);
+                    assertEquals(format, c[0], message.getOriginatingAddress());
+                    body.append(message.getMessageBody());
+                }
+                assertEquals(format, c[1], body.toString());
+                if (c[1].length() > SmsPduBuilder.GSM7_SINGLE_SEPTETS) {
+                    assertTrue(format, pdus.length > 1);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void floodIsForwardedWithoutLossOrDuplicates() throws Exception {
+        // 慢速且偶尔拒收的服务器
+        sink.setDataDelayMillis(5);
+        sink.setFailureRate(0.05);
+        Application app = RuntimeEnvironment.getApplication();
+        SmsLoadGenerator.Report report = new SmsLoadGenerator(app, sink)
+                .run(new SmsLoadGenerator.Options().messages(200).ratePerSecond(100));
+        // 报告包含吞吐、延迟分位数和资源峰值，作为断言消息在失败时给出
+        String summary = report.toString();
+        assertEquals(summary, 0, report.lost);
+        assertEquals(summary, 0, report.duplicates);
+        assertEquals(summary, 200, report.delivered);
+        // 整个洪峰只创建一次服务，结束后在保留期内自行停止
+        assertEquals(summary, 1, report.serviceCreations);
+        // 服务运行期间到达的短信在进程内唤醒发送，不再逐条 startForegroundService
+        assertTrue(summary, report.serviceStarts < report.sent / 10);
+        assertTrue(summary, report.serviceStopped);
+    }
+
+    @Test
+    public void partsInSeparateBroadcastsAreJoinedBeforeQueueing() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        String text = "SPLIT " + "分成几个广播下发的长短信。".repeat(10);
+        for (String format : new String[]{SmsPduBuilder.FORMAT_3GPP, SmsPduBuilder.FORMAT_3GPP2}) {
+            byte[][] pdus = SmsPduBuilder.FORMAT_3GPP2.equals(format)
+                    ? SmsPduBuilder.cdma("95588", text + format, 11)
+                    : SmsPduBuilder.gsm("95588", text + format, 11, System.currentTimeMillis());
+            assertTrue(pdus.length > 2);
+            // 倒序逐段下发，最后一段到达前不应进入队列
+            OutboundQueue queue = OutboundQueue.getInstance(app);
+            int before = queue.size();
+            for (int i = pdus.length - 1; i >= 0; i--) {
+                Intent intent = new Intent(Telephony.Sms.Intents.SMS_RECEIVED_ACTION);
+                intent.putExtra("pdus", new Object[]{pdus[i]});
+                intent.putExtra("format", format);
+                new SmsReceiver().onReceive(app, intent);
+                assertEquals(format, i == 0 ? before + 1 : before, queue.size());
+            }
+            List<OutboundQueue.Entry> entries = queue.snapshot();
+            OutboundQueue.Entry entry = entries.get(entries.size() - 1);
+            assertEquals(format, text + format, entry.content);
+            assertEquals(0, ConcatReassembler.getInstance(app).getPendingGroups());
+            queue.ack(entry.id);
+        }
+    }
+
+    // 系统分发的广播在主线程上只交给后台执行器，写入队列后才结束广播
+    @Test
+    public void broadcastIsQueuedOffTheMainThread() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        app.registerReceiver(new SmsReceiver(), new IntentFilter(Telephony.Sms.Intents.SMS_RECEIVED_ACTION));
+        OutboundQueue queue = OutboundQueue.getInstance(app);
+        int before = queue.size();
+        long intakes = intakeCount();
+
+        app.sendBroadcast(SmsPduBuilder.smsReceived(SmsPduBuilder.FORMAT_3GPP, "10086", "ASYNC 异步接收",
+                1, System.currentTimeMillis()));
+        shadowOf(Looper.getMainLooper()).idle();
+        long deadline = System.currentTimeMillis() + 5_000;
+        // 入队之后才记录接收耗时，等到记录出现
+        while (intakeCount() == intakes && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+
+        assertEquals(before + 1, queue.size());
+        List<OutboundQueue.Entry> entries = queue.snapshot();
+        assertEquals("ASYNC 异步接收", entries.get(entries.size() - 1).content);
+        assertEquals(intakes + 1, intakeCount());
+        queue.ack(entries.get(entries.size() - 1).id);
+    }
+
+    private static long intakeCount() {
+        return LatencyStats.get(LatencyStats.Stage.INTAKE_COLD).getCount()
+                + LatencyStats.get(LatencyStats.Stage.INTAKE_WARM).getCount();
+    }
+}
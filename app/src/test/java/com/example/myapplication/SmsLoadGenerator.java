@@ -0,0 +1,365 @@
+package com.example.myapplication;
+
+import android.app.Application;
+import android.content.Context;
+import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.net.NetworkCapabilities;
+import android.os.Looper;
+
+import org.robolectric.Robolectric;
+import org.robolectric.Shadows;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowNetworkCapabilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.mail.BodyPart;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Part;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * 端到端压测工具：按设定速率向 SmsReceiver 发送合成的 SMS_RECEIVED 广播，
+ * 由 EmailService 转发到本地 {@link FakeSmtpServer}，统计吞吐、端到端延迟分位数、丢失和重复条数，
+ * 以及线程数和堆内存的峰值。
+ * <p>
+ * 需在 Robolectric 测试的主线程上调用：广播和服务回调都在主线程执行，系统的服务启动由这里模拟，
+ * 停止后再启动时重新创建服务。JobScheduler 不会真正运行，因此排空阶段定期 pump 发送队列代替重试任务；
+ * 排空后快进主线程时钟，检查服务在保留期结束时自行停止。
+ */
+public class SmsLoadGenerator {
+
+    private static final Pattern TOKEN = Pattern.compile("LOAD-(\\d{6})");
+    private static final long RETRY_PUMP_MILLIS = 500;
+
+    private static final String[] SENDERS = {"10086", "95588", "+8613800138000", "1069012345678"};
+    private static final String[] TEXTS = {
+            "您的快递已到菜鸟驿站，请凭取件码 6-2-3015 领取。",
+            "Your package has been shipped and will arrive tomorrow.",
+            "您尾号 8899 的账户于 10:24 支出人民币 100.00 元，余额 2,345.67 元。",
+    };
+
+    /**
+     * 压测参数，可链式设置。
+     */
+    public static final class Options {
+        int messages = 200;
+        double ratePerSecond = 50;
+        // 超长多段短信、3GPP2 格式和验证码短信各自所占的比例
+        double multipartRatio = 0.1;
+        double cdmaRatio = 0.2;
+        double otpRatio = 0.1;
+        long drainTimeoutMillis = 60_000;
+        long seed = 1;
+
+        public Options messages(int messages) {
+            this.messages = messages;
+            return this;
+        }
+
+        public Options ratePerSecond(double ratePerSecond) {
+            this.ratePerSecond = ratePerSecond;
+            return this;
+        }
+
+        public Options multipartRatio(double ratio) {
+            this.multipartRatio = ratio;
+            return this;
+        }
+
+        public Options cdmaRatio(double ratio) {
+            this.cdmaRatio = ratio;
+            return this;
+        }
+
+        public Options otpRatio(double ratio) {
+            this.otpRatio = ratio;
+            return this;
+        }
+
+        public Options drainTimeoutMillis(long millis) {
+            this.drainTimeoutMillis = millis;
+            return this;
+        }
+
+        public Options seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+    }
+
+    /**
+     * 一次压测的结果。
+     */
+    public static final class Report {
+        public final int sent;
+        public final int delivered;
+        public final int lost;
+        public final int duplicates;
+        public final int rejectedBySink;
+        public final long elapsedMillis;
+        public final double messagesPerSecond;
+        public final LatencyHistogram latency;
+        public final int peakThreads;
+        public final long peakHeapBytes;
+        // 压测期间 EmailService 被创建的次数，以及排空后保留期结束时是否已自行停止
+        public final int serviceCreations;
+        public final boolean serviceStopped;
+        // 通过 startForegroundService 启动服务的次数，服务运行期间的短信在进程内唤醒，不计入
+        public final int serviceStarts;
+
+        Report(int sent, int delivered, int lost, int duplicates, int rejectedBySink, long elapsedMillis,
+               LatencyHistogram latency, int peakThreads, long peakHeapBytes, int serviceCreations,
+               boolean serviceStopped, int serviceStarts) {
+            this.sent = sent;
+            this.delivered = delivered;
+            this.lost = lost;
+            this.duplicates = duplicates;
+            this.rejectedBySink = rejectedBySink;
+            this.elapsedMillis = elapsedMillis;
+            this.messagesPerSecond = elapsedMillis > 0 ? delivered * 1000.0 / elapsedMillis : 0;
+            this.latency = latency;
+            this.peakThreads = peakThreads;
+            this.peakHeapBytes = peakHeapBytes;
+            this.serviceCreations = serviceCreations;
+            this.serviceStopped = serviceStopped;
+            this.serviceStarts = serviceStarts;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "sent %d, delivered %d, lost %d, duplicates %d, rejected by sink %d%n"
+                            + "throughput %.1f msg/s over %d ms%n"
+                            + "end-to-end p50 %s, p95 %s, p99 %s, max %s%n"
+                            + "peak threads %d, peak heap %.1f MiB%n"
+                            + "service created %d time(s), started %d time(s), stopped after linger: %b",
+                    sent, delivered, lost, duplicates, rejectedBySink,
+                    messagesPerSecond, elapsedMillis,
+                    LatencyStats.formatMicros(latency.percentileMicros(0.50)),
+                    LatencyStats.formatMicros(latency.percentileMicros(0.95)),
+                    LatencyStats.formatMicros(latency.percentileMicros(0.99)),
+                    LatencyStats.formatMicros(latency.getMaxMicros()),
+                    peakThreads, peakHeapBytes / (1024.0 * 1024.0), serviceCreations, serviceStarts,
+                    serviceStopped);
+        }
+    }
+
+    private final Application app;
+    private final FakeSmtpServer sink;
+    private final SmsReceiver receiver = new SmsReceiver();
+    private ServiceController<EmailService> service;
+    private int startId;
+    private int serviceCreations;
+    private int serviceStarts;
+
+    public SmsLoadGenerator(Application app, FakeSmtpServer sink) {
+        this.app = app;
+        this.sink = sink;
+        // 不配置主账号，两个备用账号都指向本地明文 SMTP 服务器，偶发的连续拒收不会让唯一的账号熔断
+        app.getSharedPreferences(MainActivity.PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putString("receiver_email", "sink@example.com")
+                .putString(SmtpAccount.PREF_ACCOUNTS,
+                        "load@example.com secret 127.0.0.1:" + sink.getPort() + " plain rate=0\n"
+                                + "backup@example.com secret 127.0.0.1:" + sink.getPort() + " plain rate=0")
+                .commit();
+        ForwarderConfig.reset();
+        // Robolectric 默认的活动网络没有 INTERNET 能力，发送会一直暂停
+        ConnectivityManager connectivity = app.getSystemService(ConnectivityManager.class);
+        NetworkCapabilities capabilities = ShadowNetworkCapabilities.newInstance();
+        Shadows.shadowOf(capabilities).addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+        Shadows.shadowOf(connectivity).setNetworkCapabilities(connectivity.getActiveNetwork(), capabilities);
+    }
+
+    public Report run(Options options) throws Exception {
+        int n = options.messages;
+        AtomicLongArray sentAt = new AtomicLongArray(n);
+        AtomicIntegerArray seen = new AtomicIntegerArray(n);
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicLong lastDeliveryNanos = new AtomicLong();
+        Session parser = Session.getInstance(new Properties());
+        sink.setListener(data -> {
+            long now = System.nanoTime();
+            Matcher m = TOKEN.matcher(textOf(parser, data));
+            while (m.find()) {
+                int id = Integer.parseInt(m.group(1));
+                if (id < n && seen.getAndIncrement(id) == 0) {
+                    latency.recordNanos(now - sentAt.get(id));
+                    lastDeliveryNanos.set(now);
+                }
+            }
+        });
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        HeapSampler heap = new HeapSampler();
+        heap.start();
+
+        Random random = new Random(options.seed);
+        long periodNanos = (long) (1_000_000_000L / options.ratePerSecond);
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < n; i++) {
+                long due = start + i * periodNanos;
+                while (System.nanoTime() < due) {
+                    idle();
+                    Thread.sleep(1);
+                }
+                String format = random.nextDouble() < options.cdmaRatio
+                        ? SmsPduBuilder.FORMAT_3GPP2 : SmsPduBuilder.FORMAT_3GPP;
+                Intent intent = SmsPduBuilder.smsReceived(format, SENDERS[random.nextInt(SENDERS.length)],
+                        body(i, random, options), i & 0xff, System.currentTimeMillis());
+                sentAt.set(i, System.nanoTime());
+                receiver.onReceive(app, intent);
+                idle();
+            }
+
+            long deadline = System.nanoTime() + options.drainTimeoutMillis * 1_000_000L;
+            long nextPump = System.nanoTime();
+            while (delivered(seen) < n && System.nanoTime() < deadline) {
+                idle();
+                if (System.nanoTime() >= nextPump) {
+                    // 代替 QueueRetryJobService，把退避到期的条目重新放入发送队列
+                    EmailService.getDispatcher(app).pump();
+                    nextPump = System.nanoTime() + RETRY_PUMP_MILLIS * 1_000_000L;
+                }
+                Thread.sleep(5);
+            }
+            // 服务器收到最后一封邮件时调度器可能还没确认，等确认完再进入保留期
+            EmailService.getDispatcher(app).awaitIdle(options.drainTimeoutMillis);
+            idle();
+        } finally {
+            heap.interrupt();
+            heap.join();
+            sink.setListener(null);
+        }
+
+        int delivered = delivered(seen);
+        int duplicates = 0;
+        for (int i = 0; i < n; i++) {
+            duplicates += Math.max(0, seen.get(i) - 1);
+        }
+        long end = delivered > 0 ? lastDeliveryNanos.get() : System.nanoTime();
+        int peakThreads = threads.getPeakThreadCount();
+
+        // 主线程时钟由 Robolectric 控制，快进过最长保留期，服务应当自行停止
+        Shadows.shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(LingerPolicy.DEFAULT_MAX_MILLIS));
+        idle();
+        return new Report(n, delivered, n - delivered, duplicates, sink.getRejectedCount(),
+                (end - start) / 1_000_000, latency, peakThreads, heap.peak, serviceCreations, service == null,
+                serviceStarts);
+    }
+
+    // 正文以唯一编号开头，多段短信重复填充到三段左右
+    private static String body(int id, Random random, Options options) {
+        String token = String.format(Locale.ROOT, "LOAD-%06d ", id);
+        if (random.nextDouble() < options.otpRatio) {
+            return token + "【某某银行】您的验证码是 " + (100000 + random.nextInt(900000)) + "，5 分钟内有效。";
+        }
+        String text = TEXTS[random.nextInt(TEXTS.length)];
+        if (random.nextDouble() < options.multipartRatio) {
+            StringBuilder sb = new StringBuilder(token);
+            while (sb.length() < 3 * SmsPduBuilder.UCS2_PART_CHARS) {
+                sb.append(text);
+            }
+            return sb.toString();
+        }
+        return token + text;
+    }
+
+    // 执行主线程上排队的任务，并把 SmsReceiver 启动的服务交给 EmailService
+    private void idle() {
+        Shadows.shadowOf(Looper.getMainLooper()).idle();
+        ShadowApplication shadowApp = Shadows.shadowOf(app);
+        Intent intent;
+        while ((intent = shadowApp.getNextStartedService()) != null) {
+            serviceStarts++;
+            if (service == null) {
+                service = Robolectric.buildService(EmailService.class, intent).create();
+                serviceCreations++;
+            }
+            service.withIntent(intent).startCommand(0, ++startId);
+        }
+        Shadows.shadowOf(Looper.getMainLooper()).idle();
+        if (service != null && Shadows.shadowOf(service.get()).isStoppedBySelf()) {
+            // 系统会销毁自行停止的服务，下次启动时重新创建
+            service.destroy();
+            service = null;
+        }
+    }
+
+    private static int delivered(AtomicIntegerArray seen) {
+        int count = 0;
+        for (int i = 0; i < seen.length(); i++) {
+            if (seen.get(i) > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String textOf(Session session, String data) {
+        try {
+            MimeMessage message = new MimeMessage(session,
+                    new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)));
+            return textOf(message);
+        } catch (MessagingException | IOException e) {
+            return data;
+        }
+    }
+
+    private static String textOf(Part part) throws MessagingException, IOException {
+        Object content = part.getContent();
+        if (content instanceof Multipart) {
+            Multipart multipart = (Multipart) content;
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < multipart.getCount(); i++) {
+                BodyPart child = multipart.getBodyPart(i);
+                sb.append(textOf(child)).append('\n');
+            }
+            return sb.toString();
+        }
+        return String.valueOf(content);
+    }
+
+    // 定期采样已用堆内存，记录峰值
+    private static final class HeapSampler extends Thread {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        volatile long peak;
+
+        HeapSampler() {
+            super("heap-sampler");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                peak = Math.max(peak, memory.getHeapMemoryUsage().getUsed());
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.example.myapplication;
+
+import android.content.Intent;
+import android.provider.Telephony;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * 构造真实格式的短信 PDU 和 SMS_RECEIVED 广播，供测试模拟系统下发短信。
+ * <p>
+ * 3GPP 按 TS 23.040 生成 SMS-DELIVER，能用 GSM 7 位默认字母表表示的内容按 7 位编码，否则按 UCS-2；
+ * 3GPP2 按 Android 的 SmsEnvelope 序列化格式生成，承载数据按 C.S0015 编码，正文统一用 UTF-16。
+ * 超出单条长度的内容和系统一样拆成带 8 位拼接头的多段，全部放进同一个广播。
+ */
+public final class SmsPduBuilder {
+
+    public static final String FORMAT_3GPP = "3gpp";
+    public static final String FORMAT_3GPP2 = "3gpp2";
+
+    static final int GSM7_SINGLE_SEPTETS = 160;
+    static final int GSM7_PART_SEPTETS = 153;
+    static final int UCS2_SINGLE_CHARS = 70;
+    static final int UCS2_PART_CHARS = 67;
+
+    private static final String GSM7_BASIC = "@£$¥èéùìòÇ\nØø\rÅåΔ_ΦΓΛΩΠΨΣΘΞ\u001bÆæßÉ !\"#¤%&'()*+,-./0123456789:;<=>?"
+            + "¡ABCDEFGHIJKLMNOPQRSTUVWXYZÄÖÑÜ§¿abcdefghijklmnopqrstuvwxyzäöñüà";
+    // 扩展表字符及其编码，前面需要加转义符 0x1b
+    private static final String GSM7_EXTENSION = "^{}\\[~]|€";
+    private static final int[] GSM7_EXTENSION_CODES = {0x14, 0x28, 0x29, 0x2f, 0x3c, 0x3d, 0x3e, 0x40, 0x65};
+    private static final int GSM7_ESCAPE = 0x1b;
+
+    // 3GPP2 常量，取值与 com.android.internal.telephony.cdma.sms 中的定义一致
+    private static final int CDMA_TELESERVICE_WMT = 0x1002;
+    private static final int CDMA_DIGIT_MODE_8BIT = 1;
+    private static final int CDMA_TON_INTERNATIONAL = 1;
+    private static final int CDMA_NUMBERING_PLAN_ISDN = 1;
+    private static final int CDMA_MESSAGE_TYPE_DELIVER = 1;
+    private static final int CDMA_ENCODING_UNICODE_16 = 4;
+    private static final int CDMA_SUBPARAM_MESSAGE_IDENTIFIER = 0x00;
+    private static final int CDMA_SUBPARAM_USER_DATA = 0x01;
+
+    private SmsPduBuilder() {
+    }
+
+    /**
+     * 与系统广播相同的 SMS_RECEIVED Intent，reference 用作多段短信的拼接编号。
+     */
+    public static Intent smsReceived(String format, String sender, String body, int reference, long timeMillis) {
+        byte[][] pdus = FORMAT_3GPP2.equals(format)
+                ? cdma(sender, body, reference)
+                : gsm(sender, body, reference, timeMillis);
+        Intent intent = new Intent(Telephony.Sms.Intents.SMS_RECEIVED_ACTION);
+        intent.putExtra("pdus", (Object[]) pdus);
+        intent.putExtra("format", format);
+        return intent;
+    }
+
+    public static byte[][] gsm(String sender, String body, int reference, long timeMillis) {
+        List<int[]> septets = toGsm7(body);
+        List<byte[]> pdus = new ArrayList<>();
+        if (septets != null) {
+            List<List<int[]>> parts = split(septets, GSM7_SINGLE_SEPTETS, GSM7_PART_SEPTETS);
+            for (int i = 0; i < parts.size(); i++) {
+                byte[] udh = parts.size() > 1 ? concatHeader(reference, parts.size(), i + 1) : null;
+                pdus.add(gsmPdu(sender, timeMillis, udh, false, flatten(parts.get(i))));
+            }
+        } else {
+            List<List<int[]>> parts = split(toUcs2(body), UCS2_SINGLE_CHARS, UCS2_PART_CHARS);
+            for (int i = 0; i < parts.size(); i++) {
+                byte[] udh = parts.size() > 1 ? concatHeader(reference, parts.size(), i + 1) : null;
+                pdus.add(gsmPdu(sender, timeMillis, udh, true, flatten(parts.get(i))));
+            }
+        }
+        return pdus.toArray(new byte[0][]);
+    }
+
+    public static byte[][] cdma(String sender, String body, int reference) {
+        List<List<int[]>> parts = split(toUcs2(body), UCS2_SINGLE_CHARS, UCS2_PART_CHARS);
+        byte[][] pdus = new byte[parts.size()][];
+        for (int i = 0; i < parts.size(); i++) {
+            byte[] udh = parts.size() > 1 ? concatHeader(reference, parts.size(), i + 1) : null;
+            pdus[i] = cdmaPdu(sender, reference, udh, flatten(parts.get(i)));
+        }
+        return pdus;
+    }
+
+    // 每个字符对应一组编码单元，拆分时不会把转义符或代理对拆开；无法用 7 位字母表表示时返回 null
+    private static List<int[]> toGsm7(String body) {
+        List<int[]> units = new ArrayList<>(body.length());
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            int basic = c == '\u001b' ? -1 : GSM7_BASIC.indexOf(c);
+            if (basic >= 0) {
+                units.add(new int[]{basic});
+                continue;
+            }
+            int ext = GSM7_EXTENSION.indexOf(c);
+            if (ext < 0) {
+                return null;
+            }
+            units.add(new int[]{GSM7_ESCAPE, GSM7_EXTENSION_CODES[ext]});
+        }
+        return units;
+    }
+
+    private static List<int[]> toUcs2(String body) {
+        List<int[]> units = new ArrayList<>(body.length());
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < body.length()) {
+                units.add(new int[]{c, body.charAt(++i)});
+            } else {
+                units.add(new int[]{c});
+            }
+        }
+        return units;
+    }
+
+    private static List<List<int[]>> split(List<int[]> units, int singleLimit, int partLimit) {
+        int total = 0;
+        for (int[] unit : units) {
+            total += unit.length;
+        }
+        int limit = total <= singleLimit ? singleLimit : partLimit;
+        List<List<int[]>> parts = new ArrayList<>();
+        List<int[]> current = new ArrayList<>();
+        int size = 0;
+        for (int[] unit : units) {
+            if (size + unit.length > limit) {
+                parts.add(current);
+                current = new ArrayList<>();
+                size = 0;
+            }
+            current.add(unit);
+            size += unit.length;
+        }
+        parts.add(current);
+        return parts;
+    }
+
+    private static int[] flatten(List<int[]> units) {
+        int size = 0;
+        for (int[] unit : units) {
+            size += unit.length;
+        }
+        int[] out = new int[size];
+        int i = 0;
+        for (int[] unit : units) {
+            for (int v : unit) {
+                out[i++] = v;
+            }
+        }
+        return out;
+    }
+
+    // UDHL + 8 位编号的拼接信息单元
+    private static byte[] concatHeader(int reference, int total, int seq) {
+        return new byte[]{5, 0x00, 3, (byte) reference, (byte) total, (byte) seq};
+    }
+
+    private static byte[] gsmPdu(String sender, long timeMillis, byte[] udh, boolean ucs2, int[] units) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // 不带短信中心地址
+        out.write(0);
+        // SMS-DELIVER，TP-MMS 置位表示没有更多短信，有拼接头时置 TP-UDHI
+        out.write(0x04 | (udh != null ? 0x40 : 0));
+        writeGsmAddress(out, sender);
+        // TP-PID
+        out.write(0);
+        // TP-DCS
+        out.write(ucs2 ? 0x08 : 0x00);
+        writeGsmTimestamp(out, timeMillis);
+        int headerLength = udh != null ? udh.length : 0;
+        if (ucs2) {
+            out.write(headerLength + units.length * 2);
+            if (udh != null) {
+                out.write(udh, 0, udh.length);
+            }
+            for (int unit : units) {
+                out.write(unit >> 8);
+                out.write(unit);
+            }
+        } else {
+            // 7 位编码时 TP-UDL 以 septet 计，拼接头后补齐到 septet 边界
+            int headerBits = headerLength * 8;
+            int headerSeptets = (headerBits + 6) / 7;
+            int userDataLength = headerSeptets + units.length;
+            byte[] userData = new byte[(userDataLength * 7 + 7) / 8];
+            if (udh != null) {
+                System.arraycopy(udh, 0, userData, 0, udh.length);
+            }
+            for (int i = 0; i < units.length; i++) {
+                int bit = (headerSeptets + i) * 7;
+                int index = bit / 8;
+                int shift = bit % 8;
+                userData[index] |= (byte) (units[i] << shift);
+                if (shift > 1) {
+                    userData[index + 1] |= (byte) (units[i] >> (8 - shift));
+                }
+            }
+            out.write(userDataLength);
+            out.write(userData, 0, userData.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeGsmAddress(ByteArrayOutputStream out, String address) {
+        boolean international = address.startsWith("+");
+        String digits = international ? address.substring(1) : address;
+        out.write(digits.length());
+        out.write(international ? 0x91 : 0x81);
+        for (int i = 0; i < digits.length(); i += 2) {
+            int low = digits.charAt(i) - '0';
+            int high = i + 1 < digits.length() ? digits.charAt(i + 1) - '0' : 0x0f;
+            out.write((high << 4) | low);
+        }
+    }
+
+    // 服务中心时间戳：年月日时分秒按半字节倒序的 BCD，时区固定为 UTC
+    private static void writeGsmTimestamp(ByteArrayOutputStream out, long timeMillis) {
+        Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        c.setTimeInMillis(timeMillis);
+        int[] fields = {c.get(Calendar.YEAR) % 100, c.get(Calendar.MONTH) + 1, c.get(Calendar.DAY_OF_MONTH),
+                c.get(Calendar.HOUR_OF_DAY), c.get(Calendar.MINUTE), c.get(Calendar.SECOND), 0};
+        for (int v : fields) {
+            out.write(((v % 10) << 4) | (v / 10));
+        }
+    }
+
+    private static byte[] cdmaPdu(String sender, int reference, byte[] udh, int[] units) {
+        boolean international = sender.startsWith("+");
+        byte[] digits = (international ? sender.substring(1) : sender).getBytes(StandardCharsets.US_ASCII);
+        byte[] bearerData = cdmaBearerData(reference, udh, units);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            // 点对点消息、WMT 业务、无业务类别
+            out.writeInt(0);
+            out.writeInt(CDMA_TELESERVICE_WMT);
+            out.writeInt(0);
+            out.writeByte(CDMA_DIGIT_MODE_8BIT);
+            out.writeByte(0);
+            out.writeByte(international ? CDMA_TON_INTERNATIONAL : 0);
+            out.writeByte(CDMA_NUMBERING_PLAN_ISDN);
+            out.writeByte(digits.length);
+            out.write(digits);
+            // bearer reply、reply seq、error class、cause code
+            out.writeInt(0);
+            out.writeByte(0);
+            out.writeByte(0);
+            out.writeByte(0);
+            out.writeInt(bearerData.length);
+            out.write(bearerData);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] cdmaBearerData(int reference, byte[] udh, int[] units) {
+        BitWriter bits = new BitWriter();
+        bits.write(8, CDMA_SUBPARAM_MESSAGE_IDENTIFIER);
+        bits.write(8, 3);
+        bits.write(4, CDMA_MESSAGE_TYPE_DELIVER);
+        bits.write(16, reference & 0xffff);
+        bits.write(1, udh != null ? 1 : 0);
+        bits.write(3, 0);
+
+        byte[] payload = new byte[(udh != null ? udh.length : 0) + units.length * 2];
+        int p = 0;
+        if (udh != null) {
+            System.arraycopy(udh, 0, payload, 0, udh.length);
+            p = udh.length;
+        }
+        for (int unit : units) {
+            payload[p++] = (byte) (unit >> 8);
+            payload[p++] = (byte) unit;
+        }
+        // 子参数长度：5 位编码 + 8 位字段数 + 负载，按字节补齐
+        bits.write(8, CDMA_SUBPARAM_USER_DATA);
+        bits.write(8, (13 + payload.length * 8 + 7) / 8);
+        bits.write(5, CDMA_ENCODING_UNICODE_16);
+        // UTF-16 时字段数以 16 位为单位，拼接头也按其占用的 16 位单元计入
+        bits.write(8, (payload.length + 1) / 2);
+        for (byte b : payload) {
+            bits.write(8, b & 0xff);
+        }
+        return bits.toByteArray();
+    }
+
+    private static final class BitWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int current;
+        private int used;
+
+        void write(int count, int value) {
+            for (int i = count - 1; i >= 0; i--) {
+                current = (current << 1) | ((value >> i) & 1);
+                if (++used == 8) {
+                    out.write(current);
+                    current = 0;
+                    used = 0;
+                }
+            }
+        }
+
+        byte[] toByteArray() {
+            if (used > 0) {
+                out.write(current << (8 - used));
+                current = 0;
+                used = 0;
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.myapplication;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SmtpAccountPoolTest {
+
+    private FakeSmtpServer primary;
+    private FakeSmtpServer backup;
+
+    @Before
+    public void setUp() throws IOException {
+        primary = new FakeSmtpServer();
+        backup = new FakeSmtpServer();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        primary.close();
+        backup.close();
+    }
+
+    @Test
+    public void parsesAccountLines() {
+        List<SmtpAccount> accounts = SmtpAccount.parse("# 备用\n"
+                + "backup@163.com code smtp.163.com\n"
+                + "\n"
+                + "me@outlook.com pass smtp.office365.com:2525 STARTTLS rate=0\n"
+                + "test@example.com x 127.0.0.1 plain rate=5\n");
+        assertEquals(3, accounts.size());
+        assertEquals(465, accounts.get(0).port);
+        assertEquals(SmtpAccount.Tls.SSL, accounts.get(0).tls);
+        assertEquals(SmtpAccount.DEFAULT_RATE_PER_MINUTE, accounts.get(0).ratePerMinute);
+        assertEquals(2525, accounts.get(1).port);
+        assertEquals(SmtpAccount.Tls.STARTTLS, accounts.get(1).tls);
+        assertEquals(0, accounts.get(1).ratePerMinute);
+        assertEquals(25, accounts.get(2).port);
+        assertEquals(5, accounts.get(2).ratePerMinute);
+
+        try {
+            SmtpAccount.parse("a@b.com pass\nc@d.com pass smtp.d.com tls");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("第 1 行"));
+        }
+        try {
+            SmtpAccount.parse("ok@b.com pass smtp.b.com\nnot-an-address pass smtp.d.com");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("第 2 行"));
+        }
+    }
+
+    @Test
+    public void tokenBucketAllowsBurstThenRefillsAtRate() {
+        long minute = TimeUnit.MINUTES.toNanos(1);
+        TokenBucket bucket = TokenBucket.perMinute(60, 0);
+        for (int i = 0; i < 15; i++) {
+            assertTrue(bucket.tryAcquire(0));
+        }
+        assertFalse(bucket.tryAcquire(0));
+        assertEquals(TimeUnit.SECONDS.toNanos(1), bucket.nanosUntilAvailable(0), 1);
+        assertTrue(bucket.tryAcquire(TimeUnit.SECONDS.toNanos(1)));
+        // 空闲很久也只攒到突发容量
+        int granted = 0;
+        while (bucket.tryAcquire(10 * minute)) {
+            granted++;
+        }
+        assertEquals(15, granted);
+    }
+
+    @Test
+    public void breakerOpensHalfOpensAndBacksOff() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 1_000, 4_000);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.tryAcquire(0));
+            breaker.onFailure(0);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire(999));
+
+        // 冷却结束只放行一次试探
+        assertTrue(breaker.tryAcquire(1_000));
+        assertFalse(breaker.tryAcquire(1_000));
+        breaker.onFailure(1_000);
+        // 试探失败后冷却期加倍
+        assertFalse(breaker.tryAcquire(2_999));
+        assertTrue(breaker.tryAcquire(3_000));
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(2, breaker.getTrips());
+    }
+
+    @Test
+    public void balancesAcrossHealthyAccounts() throws Exception {
+        EmailChannel channel = channel(new SmtpAccountPool());
+        for (int i = 0; i < 10; i++) {
+            channel.send(batch(i));
+        }
+        assertEquals(5, primary.getReceivedCount());
+        assertEquals(5, backup.getReceivedCount());
+        for (SmtpAccountPool.Account account : channel.getAccounts()) {
+            assertEquals(5, account.getMetrics().getSuccesses());
+        }
+    }
+
+    @Test
+    public void failsOverAndTripsBreakerOnRepeatedRejections() throws Exception {
+        primary.setFailureRate(1.0);
+        EmailChannel channel = channel(new SmtpAccountPool(1_000, () -> new CircuitBreaker(3, 60_000, 60_000)));
+        for (int i = 0; i < 10; i++) {
+            channel.send(batch(i));
+        }
+        // 每条都送达，主账号被拒三次后移出轮换
+        assertEquals(10, backup.getReceivedCount());
+        assertEquals(3, primary.getRejectedCount());
+        SmtpAccountPool.Account rejected = channel.getAccounts().get(0);
+        assertEquals(CircuitBreaker.State.OPEN, rejected.getState());
+        assertEquals(3, rejected.getMetrics().getFailures());
+        assertEquals(CircuitBreaker.State.CLOSED, channel.getAccounts().get(1).getState());
+    }
+
+    // 换账号重发时 Message-ID 不变，收件服务器才能识别出重复
+    @Test
+    public void messageIdDoesNotDependOnTheSendingAccount() throws Exception {
+        List<SmtpAccount> accounts = Arrays.asList(account("a@qq.com", primary, 0), account("b@163.com", backup, 0));
+        EmailChannel channel = new EmailChannel(() -> new EmailChannel.Settings(accounts, "to@example.com", 60_000),
+                new SmtpAccountPool());
+        List<OutboundQueue.Entry> batch = batch(1);
+        channel.send(batch);
+        channel.send(batch);
+        assertEquals(1, primary.getReceivedCount());
+        assertEquals(1, backup.getReceivedCount());
+        assertEquals(messageId(primary.getMessages().get(0)), messageId(backup.getMessages().get(0)));
+    }
+
+    @Test
+    public void recipientRejectionIsNotAnAccountFailure() {
+        MessagingException rejected = new MessagingException("Invalid Addresses",
+                new SMTPAddressFailedException(null, "RCPT TO", 550, "no such user"));
+        assertFalse(SmtpAccountPool.isAccountFailure(rejected));
+        assertTrue(SmtpAccountPool.isAccountFailure(new AuthenticationFailedException("535")));
+    }
+
+    @Test
+    public void waitsForTokenWhenAllAccountsAreThrottled() throws Exception {
+        SmtpAccountPool pool = new SmtpAccountPool(5_000, CircuitBreaker::new);
+        // 每分钟 120 封，突发容量 30
+        pool.update(Collections.singletonList(account("a@example.com", primary, 120)));
+        for (int i = 0; i < 30; i++) {
+            pool.acquire(Collections.emptySet());
+        }
+        long start = System.nanoTime();
+        SmtpAccountPool.Account account = pool.acquire(Collections.emptySet());
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("waited " + waitedMillis + " ms", waitedMillis >= 400);
+        assertEquals(1, account.getThrottledCount());
+
+        SmtpAccountPool impatient = new SmtpAccountPool(100, CircuitBreaker::new);
+        impatient.update(Collections.singletonList(account("a@example.com", primary, 1)));
+        impatient.acquire(Collections.emptySet());
+        try {
+            impatient.acquire(Collections.emptySet());
+            fail();
+        } catch (MessagingException expected) {
+            // 下一个令牌要等一分钟，超过了最长等待
+        }
+    }
+
+    private EmailChannel channel(SmtpAccountPool pool) {
+        List<SmtpAccount> accounts = Arrays.asList(account("a@example.com", primary, 0),
+                account("b@example.com", backup, 0));
+        return new EmailChannel(() -> new EmailChannel.Settings(accounts, "to@example.com", 60_000), pool);
+    }
+
+    private static SmtpAccount account(String user, FakeSmtpServer server, int ratePerMinute) {
+        return new SmtpAccount("127.0.0.1", server.getPort(), SmtpAccount.Tls.PLAIN, user, "secret", ratePerMinute);
+    }
+
+    private static String messageId(String data) {
+        Matcher matcher = Pattern.compile("(?m)^Message-ID: (.+)$").matcher(data);
+        assertTrue(data, matcher.find());
+        return matcher.group(1).trim();
+    }
+
+    private static List<OutboundQueue.Entry> batch(int i) {
+        return Collections.singletonList(new OutboundQueue.Entry(i, System.currentTimeMillis(), "10086", "第 " + i + " 条",
+                OtpClassifier.PRIORITY_NORMAL, null, null, i, System.nanoTime()));
+    }
+}
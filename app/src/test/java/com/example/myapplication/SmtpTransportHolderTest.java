@@ -0,0 +1,83 @@
+package com.example.myapplication;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import javax.mail.Message;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SmtpTransportHolderTest {
+
+    private FakeSmtpServer server;
+    private SmtpTransportHolder holder;
+    private Properties props;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeSmtpServer();
+        holder = new SmtpTransportHolder();
+        props = SmtpTransportHolder.smtpProperties("127.0.0.1", server.getPort(), false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        holder.close();
+        server.close();
+    }
+
+    @Test
+    public void burstOfMessagesSharesOneConnection() throws Exception {
+        int n = 20;
+        for (int i = 0; i < n; i++) {
+            send("user@example.com", "secret", "短信 " + i);
+        }
+        assertEquals(n, server.getMessages().size());
+        assertEquals(1, server.getConnectionCount());
+        assertEquals(1, holder.getConnectCount());
+    }
+
+    @Test
+    public void credentialChangeRebuildsConnection() throws Exception {
+        send("user@example.com", "secret", "a");
+        send("user@example.com", "secret", "b");
+        send("user@example.com", "changed", "c");
+        assertEquals(3, server.getMessages().size());
+        assertEquals(2, server.getConnectionCount());
+    }
+
+    @Test
+    public void droppedConnectionIsReestablished() throws Exception {
+        send("user@example.com", "secret", "before");
+        server.dropClients();
+        send("user@example.com", "secret", "after");
+        assertEquals(2, server.getConnectionCount());
+        assertTrue(server.getMessages().get(server.getMessages().size() - 1).contains("after"));
+    }
+
+    @Test
+    public void idleConnectionIsClosed() throws Exception {
+        holder.setIdleMillis(50);
+        send("user@example.com", "secret", "a");
+        Thread.sleep(200);
+        send("user@example.com", "secret", "b");
+        assertEquals(2, server.getConnectionCount());
+    }
+
+    private void send(String user, String password, String text) throws Exception {
+        Session session = holder.session(props, user, password);
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress(user));
+        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse("to@example.com"));
+        message.setSubject("test");
+        message.setText(text);
+        holder.send(message);
+    }
+}
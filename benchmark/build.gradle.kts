@@ -0,0 +1,124 @@
+import groovy.json.JsonSlurper
+
+// 在普通 JVM 上运行的 JMH 基准，覆盖 app 中不依赖 Android 运行时的转发热路径
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+tasks.withType<JavaCompile>().configureEach {
+    options.encoding = "UTF-8"
+}
+
+// 复制 app 中不依赖 Android 运行时的源文件：除 android.content.Context 外不引用 android/androidx 的类。
+// 个别类的 getInstance(Context) 只需能加载到 android 存根类，基准中不会调用。按内容筛选，新增的纯 Java 类会自动加入
+val androidImport = Regex("""^import (android|androidx)\.([\w.]+);""", RegexOption.MULTILINE)
+val appSources = tasks.register<Sync>("syncAppSources") {
+    from("../app/src/main/java") {
+        include("com/example/myapplication/*.java")
+        exclude { file ->
+            !file.isDirectory && androidImport.findAll(file.file.readText()).any { it.value != "import android.content.Context;" }
+        }
+    }
+    from("../app/src/test/java") {
+        include("com/example/myapplication/FakeSmtpServer.java")
+    }
+    into(layout.buildDirectory.dir("generated/app-sources"))
+}
+
+sourceSets {
+    named("jmh") {
+        java.srcDir(appSources)
+    }
+}
+
+dependencies {
+    jmh(libs.javax.mail)
+    jmh(libs.android.stubs)
+}
+
+jmh {
+    warmupIterations.set(2)
+    iterations.set(3)
+    warmup.set("1s")
+    timeOnIteration.set("2s")
+    fork.set(1)
+    benchmarkMode.set(listOf("thrpt"))
+    timeUnit.set("s")
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+}
+
+val baselineFile = layout.projectDirectory.file("baseline/jmh-baseline.json")
+val resultsFile = layout.buildDirectory.file("results/jmh/results.json")
+
+// 吞吐低于基线的比例超过阈值即失败，例如 ./gradlew :benchmark:jmh :benchmark:jmhCheckRegression -PjmhRegressionThreshold=0.2
+// 新增的基准没有基线时同样失败，需要先运行 jmhUpdateBaseline 并提交基线
+tasks.register("jmhCheckRegression") {
+    group = "verification"
+    description = "Compares JMH results with the committed baseline and fails on throughput regressions or missing baselines."
+    val threshold = (findProperty("jmhRegressionThreshold") as String?)?.toDouble() ?: 0.25
+    mustRunAfter("jmh")
+    doLast {
+        fun scores(file: File): Map<String, Double> {
+            @Suppress("UNCHECKED_CAST")
+            val runs = JsonSlurper().parse(file) as List<Map<String, Any?>>
+            return runs.associate { run ->
+                @Suppress("UNCHECKED_CAST")
+                val params = (run["params"] as Map<String, Any?>?)
+                    ?.entries?.sortedBy { it.key }?.joinToString(",", "(", ")") { "${it.key}=${it.value}" } ?: ""
+                @Suppress("UNCHECKED_CAST")
+                val metric = run["primaryMetric"] as Map<String, Any?>
+                "${run["benchmark"]}$params" to (metric["score"] as Number).toDouble()
+            }
+        }
+
+        val baseline = scores(baselineFile.asFile)
+        val current = scores(resultsFile.get().asFile)
+        val regressions = mutableListOf<String>()
+        for ((name, base) in baseline) {
+            val now = current[name]
+            if (now == null) {
+                logger.warn("基线中的 $name 没有本次结果")
+                continue
+            }
+            val change = (now - base) / base
+            val line = String.format("%-90s %14.1f -> %14.1f ops/s (%+.1f%%)", name, base, now, change * 100)
+            if (change < -threshold) {
+                regressions += line
+                logger.error(line)
+            } else {
+                logger.lifecycle(line)
+            }
+        }
+        val missing = current.keys.filter { it !in baseline }.sorted()
+        for (name in missing) {
+            logger.error("$name 没有基线")
+        }
+        if (regressions.isNotEmpty() || missing.isNotEmpty()) {
+            val messages = mutableListOf<String>()
+            if (regressions.isNotEmpty()) {
+                messages += "${regressions.size} 项基准吞吐下降超过 ${(threshold * 100).toInt()}%:\n" +
+                    regressions.joinToString("\n")
+            }
+            if (missing.isNotEmpty()) {
+                messages += "${missing.size} 项基准没有基线，确认结果后运行 jmhUpdateBaseline:\n" + missing.joinToString("\n")
+            }
+            throw GradleException(messages.joinToString("\n"))
+        }
+    }
+}
+
+// 在确认性能变化符合预期后，用本次结果覆盖基线
+tasks.register<Copy>("jmhUpdateBaseline") {
+    group = "verification"
+    description = "Replaces the committed JMH baseline with the latest results."
+    from(resultsFile)
+    into(layout.projectDirectory.dir("baseline"))
+    rename { "jmh-baseline.json" }
+}
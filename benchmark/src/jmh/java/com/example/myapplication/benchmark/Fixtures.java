@@ -0,0 +1,33 @@
+package com.example.myapplication.benchmark;
+
+import java.io.File;
+
+final class Fixtures {
+
+    static final String[] BODIES = {
+            "【某银行】您的验证码为 482913，5分钟内有效，请勿泄露。",
+            "【某商城】双十一大促，全场满300减50，回T退订。",
+            "您尾号1234的储蓄卡于10月18日支出人民币200.00元，余额5210.33元。",
+            "Your verification code is 7731. Do not share it.",
+    };
+
+    // 一条长短信被运营商拆成的三段，每段 67 个汉字以内
+    static final String[] MULTIPART = {
+            "【某快递】您好，您的包裹已到达小区东门菜鸟驿站，取件码 8-3-2157，请于今日 21:00 前凭取件码领取，",
+            "逾期将退回寄件人。如有疑问请致电驿站负责人，或在 App 内联系在线客服。本短信由系统自动发送，",
+            "请勿直接回复。感谢您的支持，祝您生活愉快！退订回T",
+    };
+
+    private Fixtures() {
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
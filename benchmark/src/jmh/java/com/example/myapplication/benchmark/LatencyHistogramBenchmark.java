@@ -0,0 +1,39 @@
+package com.example.myapplication.benchmark;
+
+import com.example.myapplication.LatencyHistogram;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * 每条短信在各阶段记录一次耗时，记录本身不能拖慢接收和发送。样本为对数正态分布，覆盖从微秒到秒的桶。
+ */
+@State(Scope.Benchmark)
+public class LatencyHistogramBenchmark {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final long[] samples = new long[1024];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (long) (Math.exp(random.nextGaussian() * 2 + 10));
+        }
+    }
+
+    @Benchmark
+    public void recordNanos() {
+        histogram.recordNanos(samples[next++ & 1023]);
+    }
+
+    @Benchmark
+    public long percentile() {
+        return histogram.percentileMicros(0.99);
+    }
+}
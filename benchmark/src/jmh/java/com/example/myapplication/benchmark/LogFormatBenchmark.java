@@ -0,0 +1,66 @@
+package com.example.myapplication.benchmark;
+
+import com.example.myapplication.EventJournal;
+import com.example.myapplication.LogRing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * 每条日志的开销：旧界面每行新建 SimpleDateFormat 拼接字符串的做法，与写入环形缓冲区和事件日志对比。
+ */
+@State(Scope.Benchmark)
+public class LogFormatBenchmark {
+
+    private static final String MESSAGE = "EmailService: [email] 已转发来自 10086 的短信，耗时 312 ms。";
+
+    private final LogRing ring = new LogRing(512);
+    private final SimpleDateFormat cachedFormat = new SimpleDateFormat("HH:mm:ss", Locale.getDefault());
+    private final Date date = new Date();
+    private File dir;
+    private EventJournal journal;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("journal-bench").toFile();
+        journal = new EventJournal(new File(dir, "events"), EventJournal.DEFAULT_CAPACITY);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public String legacyFormatPerLine() {
+        String timestamp = new SimpleDateFormat("HH:mm:ss", Locale.getDefault()).format(new Date());
+        return timestamp + ": " + MESSAGE;
+    }
+
+    @Benchmark
+    public String cachedFormatPerLine() {
+        date.setTime(System.currentTimeMillis());
+        return cachedFormat.format(date) + ": " + MESSAGE;
+    }
+
+    @Benchmark
+    public long ringAppend() {
+        return ring.add(System.currentTimeMillis(), 3, LogRing.Stage.CHANNEL, MESSAGE);
+    }
+
+    @Benchmark
+    public void journalAppend() {
+        journal.append(System.currentTimeMillis(), 3, LogRing.Stage.CHANNEL, MESSAGE);
+    }
+}
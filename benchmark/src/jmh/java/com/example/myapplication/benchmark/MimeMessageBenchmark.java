@@ -0,0 +1,98 @@
+package com.example.myapplication.benchmark;
+
+import com.example.myapplication.MessageFormatter;
+import com.example.myapplication.MessageTemplate;
+import com.example.myapplication.OutboundQueue;
+import com.example.myapplication.RetryBackoff;
+import com.example.myapplication.SmtpTransportHolder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * 按 EmailChannel 的方式构造并序列化一封邮件（单条短信或摘要），不含网络发送。
+ * 另测一组使用用户模板的主题和正文，与默认格式对比。
+ */
+@State(Scope.Benchmark)
+public class MimeMessageBenchmark {
+
+    @Param({"1", "20"})
+    public int batchSize;
+
+    private final MessageTemplate subjectTemplate = MessageTemplate.compile("[{code}] {sender}");
+    private final MessageTemplate bodyTemplate = MessageTemplate.compile("{time} 收到来自 {sender} 的短信：{content}");
+    private Session session;
+    private List<OutboundQueue.Entry> batch;
+    private File dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        session = Session.getInstance(SmtpTransportHolder.smtpProperties("smtp.qq.com", 465, true));
+        dir = Files.createTempDirectory("mime-bench").toFile();
+        OutboundQueue queue = new OutboundQueue(new File(dir, "queue"), new RetryBackoff(1_000, 60_000));
+        batch = new ArrayList<>();
+        for (int i = 0; i < batchSize; i++) {
+            batch.add(queue.enqueue("1069" + i, Fixtures.BODIES[i % Fixtures.BODIES.length], i));
+        }
+        queue.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public long buildAndSerialize() throws MessagingException, IOException {
+        return serialize(MessageFormatter.subject(batch), MessageFormatter.body(batch));
+    }
+
+    @Benchmark
+    public long buildAndSerializeWithTemplate() throws MessagingException, IOException {
+        return serialize(MessageFormatter.subject(batch, subjectTemplate), MessageFormatter.body(batch, bodyTemplate));
+    }
+
+    private long serialize(String subject, String body) throws MessagingException, IOException {
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress("sender@qq.com"));
+        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse("receiver@example.com"));
+        message.setSubject(subject);
+        message.setText(body);
+        message.saveChanges();
+        CountingStream out = new CountingStream();
+        message.writeTo(out);
+        return out.count;
+    }
+
+    static final class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.myapplication.benchmark;
+
+import com.example.myapplication.OutboundQueue;
+import com.example.myapplication.RetryBackoff;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * 持久化队列的一次完整生命周期：入队、取出、确认。每次写入都会 fsync，结果主要反映存储延迟。
+ */
+@State(Scope.Benchmark)
+public class OutboundQueueBenchmark {
+
+    private File dir;
+    private OutboundQueue queue;
+    private long now;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("queue-bench").toFile();
+        queue = new OutboundQueue(new File(dir, "queue"), new RetryBackoff(1_000, 60_000));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        queue.close();
+        Fixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public long enqueueClaimAck() throws IOException {
+        long t = ++now;
+        queue.enqueue("95588", Fixtures.BODIES[2], t);
+        OutboundQueue.Entry entry = queue.claimNext(t);
+        queue.ack(entry.id);
+        return entry.id;
+    }
+}
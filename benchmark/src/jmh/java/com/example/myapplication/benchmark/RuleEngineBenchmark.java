@@ -0,0 +1,54 @@
+package com.example.myapplication.benchmark;
+
+import com.example.myapplication.RuleEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 300 条规则：精确号码、关键词和带时间段的通配号码+正则各 100 条。
+ * 每条短信在写入队列前都要求值一次；编译只在保存设置时发生一次。
+ */
+@State(Scope.Benchmark)
+public class RuleEngineBenchmark {
+
+    private static final int NOON = 12 * 60;
+
+    // 分别命中精确号码、关键词、通配号码+正则，以及没有命中任何规则
+    private static final String[][] MESSAGES = {
+            {"10691050", "您的验证码为 123456"},
+            {"12345", "本周活动99期 全场优惠，快来抢购"},
+            {"95588", "您尾号1234的账户余额5210元"},
+            {"13800138000", "晚上一起吃饭吗？这是一条没有命中任何规则的普通短信。"},
+    };
+
+    private String text;
+    private RuleEngine.Compiled rules;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append("sender:1069").append(1000 + i).append(" => drop\n");
+            sb.append("keyword:活动").append(i).append("期,优惠").append(i).append("期 => forward:r").append(i)
+                    .append("@example.com\n");
+            sb.append("sender:95").append(500 + i).append("* time:09:00-18:00 regex:余额\\d+ => channel:webhook\n");
+        }
+        text = sb.toString();
+        rules = RuleEngine.compile(text);
+    }
+
+    @Benchmark
+    public RuleEngine.Decision evaluate() {
+        String[] message = MESSAGES[next++ & 3];
+        return rules.evaluate(message[0], message[1], NOON);
+    }
+
+    @Benchmark
+    public RuleEngine.Compiled compile() {
+        return RuleEngine.compile(text);
+    }
+}
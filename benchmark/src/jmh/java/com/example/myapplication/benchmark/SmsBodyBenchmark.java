@@ -0,0 +1,42 @@
+package com.example.myapplication.benchmark;
+
+import com.example.myapplication.OtpClassifier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 按 SmsReceiver 的方式拼接多段短信正文并识别验证码。
+ * PDU 解码依赖 android.telephony，在普通 JVM 上无法运行，这里只覆盖解码之后的纯 Java 部分。
+ */
+@State(Scope.Benchmark)
+public class SmsBodyBenchmark {
+
+    private final OtpClassifier classifier = OtpClassifier.DEFAULT;
+
+    @Benchmark
+    public long concatenateMultipart() {
+        StringBuilder content = new StringBuilder();
+        for (String part : Fixtures.MULTIPART) {
+            content.append(part);
+        }
+        return content.length();
+    }
+
+    @Benchmark
+    public long concatenateAndClassify() {
+        StringBuilder content = new StringBuilder();
+        for (String part : Fixtures.MULTIPART) {
+            content.append(part);
+        }
+        long classification = classifier.classify(content);
+        String code = OtpClassifier.extractCode(content, classification);
+        return classification + (code != null ? code.length() : 0);
+    }
+
+    @Benchmark
+    public long classifyOtp() {
+        return classifier.classify(Fixtures.BODIES[0]);
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.myapplication.benchmark;
+
+import com.example.myapplication.FakeSmtpServer;
+import com.example.myapplication.SmtpTransportHolder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * 通过进程内的假 SMTP 服务器发送一封邮件：保持连接复用，与每封邮件重新连接认证对比。
+ */
+@State(Scope.Benchmark)
+public class SmtpSendBenchmark {
+
+    private FakeSmtpServer server;
+    private SmtpTransportHolder holder;
+    private Properties props;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new FakeSmtpServer();
+        server.setKeepMessages(false);
+        holder = new SmtpTransportHolder();
+        props = SmtpTransportHolder.smtpProperties("127.0.0.1", server.getPort(), false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        holder.close();
+        server.close();
+    }
+
+    @Benchmark
+    public void keepAlive() throws MessagingException {
+        Session session = holder.session(props, "from@example.com", "secret");
+        holder.send(message(session));
+    }
+
+    @Benchmark
+    public void connectPerMessage() throws MessagingException {
+        Session session = Session.getInstance(props);
+        MimeMessage message = message(session);
+        Transport.send(message, "from@example.com", "secret");
+    }
+
+    private static MimeMessage message(Session session) throws MessagingException {
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress("from@example.com"));
+        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse("to@example.com"));
+        message.setSubject("收到来自 [10086] 的新短信");
+        message.setText("发件人: 10086\n\n短信内容:\n" + Fixtures.BODIES[0]);
+        return message;
+    }
+}
@@ -21,3 +21,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "My Application"
 include(":app")
+include(":benchmark")